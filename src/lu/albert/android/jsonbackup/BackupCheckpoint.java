@@ -0,0 +1,202 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The state of an unfinished backup: the ID of the last contact which has
+ * been completely written, and the size of the backup file up to the end of
+ * that contact. It is stored next to the backup file while a backup runs,
+ * and removed when the backup completes.
+ *
+ * A backup which finds a checkpoint of the same format cuts the backup file
+ * at the recorded size and appends the contacts after the recorded ID, so
+ * the result is the same as a backup which has not been interrupted. This
+ * only works with uncompressed files, whose size is known after each
+ * contact.
+ *
+ * The checkpoint is replaced atomically (written to a temporary file, then
+ * renamed), and only after the backup file has been flushed and synced to
+ * disk, so it never refers to data which has not reached the file. The
+ * temporary file is synced before it is renamed, so a power loss cannot
+ * leave a renamed checkpoint whose contents are missing.
+ *
+ * File format (big endian):
+ *
+ * <pre>
+ * int  magic ("JBCP")
+ * int  version
+ * int  format of the backup file (see ContactCodec#getFormat())
+ * long ID of the last contact written
+ * long size of the backup file
+ * int  number of contacts written
+ * </pre>
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class BackupCheckpoint {
+
+	/** The checkpoint file, stored next to the backup file */
+	static final String FILE_NAME = "backup.checkpoint";
+
+	/** The default number of contacts between two checkpoints */
+	static final int DEFAULT_INTERVAL = 200;
+
+	private static final int MAGIC = 0x4a424350;
+	private static final int VERSION = 1;
+
+	private File mFile;
+	private FileDescriptor mBackupFile;
+	private int mFormat;
+	private long mLastId;
+	private long mPosition;
+	private int mCount;
+
+	/**
+	 * Constructor for a new backup, which has not written any contacts yet
+	 *
+	 * @param folder
+	 *            The folder of the backup file
+	 * @param format
+	 *            The format of the backup file
+	 */
+	BackupCheckpoint(File folder, int format) {
+		mFile = new File(folder, FILE_NAME);
+		mFormat = format;
+		mLastId = -1;
+		mPosition = 0;
+		mCount = 0;
+	}
+
+	/**
+	 * Set the backup file which is synced to disk before each checkpoint
+	 * is saved
+	 *
+	 * @param backupFile
+	 *            The descriptor of the open backup file
+	 */
+	void setBackupFile(FileDescriptor backupFile) {
+		mBackupFile = backupFile;
+	}
+
+	/**
+	 * Load the checkpoint of an unfinished backup
+	 *
+	 * @param folder
+	 *            The folder of the backup file
+	 * @return The checkpoint, or null if there is none or it cannot be read
+	 */
+	static BackupCheckpoint read(File folder) {
+		File file = new File(folder, FILE_NAME);
+		if (!file.exists()) {
+			return null;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file), 64));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null;
+			}
+			BackupCheckpoint checkpoint = new BackupCheckpoint(folder, in
+					.readInt());
+			checkpoint.mLastId = in.readLong();
+			checkpoint.mPosition = in.readLong();
+			checkpoint.mCount = in.readInt();
+			return checkpoint;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// nothing left to do
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove the checkpoint of an unfinished backup, if there is one
+	 *
+	 * @param folder
+	 *            The folder of the backup file
+	 */
+	static void discard(File folder) {
+		new File(folder, FILE_NAME).delete();
+	}
+
+	/**
+	 * Record that the backup file is complete up to a contact, and store
+	 * the checkpoint. The backup file must have been flushed. It is synced
+	 * to disk first, if it has been set with
+	 * {@link #setBackupFile(FileDescriptor)}.
+	 *
+	 * @param lastId
+	 *            The ID of the last contact written
+	 * @param position
+	 *            The size of the backup file after that contact
+	 * @param count
+	 *            The number of contacts written
+	 * @throws IOException
+	 *             when the checkpoint cannot be written
+	 */
+	void save(long lastId, long position, int count) throws IOException {
+		mLastId = lastId;
+		mPosition = position;
+		mCount = count;
+		if (mBackupFile != null) {
+			mBackupFile.sync();
+		}
+		File temp = new File(mFile.getPath() + ".tmp");
+		FileOutputStream file = new FileOutputStream(temp);
+		DataOutputStream out = new DataOutputStream(file);
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(mFormat);
+			out.writeLong(mLastId);
+			out.writeLong(mPosition);
+			out.writeInt(mCount);
+			out.flush();
+			file.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(mFile)) {
+			temp.delete();
+			throw new IOException("Unable to replace " + mFile);
+		}
+	}
+
+	/**
+	 * Remove the checkpoint, once the backup is complete
+	 */
+	void delete() {
+		mFile.delete();
+	}
+
+	int getFormat() {
+		return mFormat;
+	}
+
+	long getLastId() {
+		return mLastId;
+	}
+
+	long getPosition() {
+		return mPosition;
+	}
+
+	int getCount() {
+		return mCount;
+	}
+
+}
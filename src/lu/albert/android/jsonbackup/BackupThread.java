@@ -1,29 +1,19 @@
 package lu.albert.android.jsonbackup;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 
-import lu.albert.android.jsonbackup.schema.ContactColumns;
-import lu.albert.android.jsonbackup.schema.ContactColumns.OrganizationColumns;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import lu.albert.android.jsonbackup.schema.ShortContactColumns;
 
 import android.database.Cursor;
-import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
-import android.os.Message;
-import android.provider.Contacts.ContactMethods;
-import android.provider.Contacts.Organizations;
 import android.provider.Contacts.People;
-import android.provider.Contacts.Phones;
-import android.provider.Contacts.Photos;
+import android.util.Log;
 
 /**
  * The thread which stores the contacts into a text-file on-disk
@@ -35,10 +25,72 @@ public class BackupThread extends Thread {
 	Handler mHandler;
 	final static int STATE_DONE = 0;
 	final static int STATE_RUNNING = 1;
+
+	/**
+	 * Issue one query per contact and sub-table. This costs 4N+1 queries for
+	 * N contacts.
+	 */
+	final static int MODE_PER_CONTACT = 0;
+
+	/**
+	 * Issue one query per sub-table, sorted by person ID, and merge-join the
+	 * results with the People cursor in a single pass. This costs 5 queries
+	 * no matter how many contacts there are.
+	 */
+	final static int MODE_MERGE_JOIN = 1;
+
+	/** Indented output, readable by humans */
+	final static int PROFILE_PRETTY = 0;
+
+	/** Output without any whitespace */
+	final static int PROFILE_COMPACT = 1;
+
+	/**
+	 * Output without any whitespace, using the keys from
+	 * {@link ShortContactColumns}
+	 */
+	final static int PROFILE_SHORT_KEYS = 2;
+
+	/**
+	 * Serialize all contacts one after the other on this thread. See
+	 * {@link SequentialBackup}
+	 */
+	final static int ENGINE_SEQUENTIAL = 0;
+
+	/**
+	 * Split the contacts into ranges which are serialized in parallel on a
+	 * worker pool. See {@link ParallelBackup}
+	 */
+	final static int ENGINE_PARALLEL = 1;
+
+	/**
+	 * Read, serialize and write the contacts on three pipelined threads. See
+	 * {@link PipelinedBackup}
+	 */
+	final static int ENGINE_PIPELINED = 2;
+
+	/**
+	 * Copy unchanged contacts from the previous backup and only serialize
+	 * new or changed ones. See {@link IncrementalBackup}
+	 */
+	final static int ENGINE_INCREMENTAL = 3;
+
 	int mState;
 	int total;
 	JsonBackup mParent;
-	private boolean mKeepRunning;
+	private volatile boolean mKeepRunning;
+	private int mMode;
+	private int mProfile;
+	private int mEngine;
+	private boolean mUsePhotoStore;
+	private PhotoStore mPhotoStore;
+	private int mCompressionLevel;
+	private int mCodec;
+	private int mBufferSize;
+	private int mPageSize;
+	private ProgressReporter mProgress;
+	private RunStats mStats;
+	private volatile SequentialBackup mSequential;
 
 	/**
 	 * Constructor
@@ -47,368 +99,426 @@ public class BackupThread extends Thread {
 	 * @param parent The main Activity (UI) class
 	 */
 	BackupThread(Handler dialog_handler, JsonBackup parent) {
+		this(dialog_handler, parent, MODE_MERGE_JOIN);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param dialog_handler A handler which is used to communicate with the progress dialog
+	 * @param parent The main Activity (UI) class
+	 * @param mode The query strategy. Either {@link #MODE_MERGE_JOIN} or
+	 *            {@link #MODE_PER_CONTACT}
+	 */
+	BackupThread(Handler dialog_handler, JsonBackup parent, int mode) {
 		mHandler = dialog_handler;
 		mParent = parent;
 		mKeepRunning = true;
+		mMode = mode;
+		mProfile = PROFILE_PRETTY;
+		mEngine = ENGINE_SEQUENTIAL;
+		mBufferSize = BudgetedOutputStream.DEFAULT_BUDGET;
+		mPageSize = PeoplePager.DEFAULT_PAGE_SIZE;
+		mProgress = new ProgressReporter(dialog_handler,
+				JsonBackup.BACKUP_MSG_PROGRESS,
+				ProgressReporter.DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * Select the output profile. This must be called before the thread is
+	 * started.
+	 * 
+	 * @param profile One of {@link #PROFILE_PRETTY}, {@link #PROFILE_COMPACT}
+	 *            or {@link #PROFILE_SHORT_KEYS}
+	 */
+	public void setOutputProfile(int profile) {
+		mProfile = profile;
+	}
+
+	/**
+	 * Select the backup engine. This must be called before the thread is
+	 * started.
+	 * 
+	 * @param engine One of {@link #ENGINE_SEQUENTIAL},
+	 *            {@link #ENGINE_PARALLEL}, {@link #ENGINE_PIPELINED} or
+	 *            {@link #ENGINE_INCREMENTAL}
+	 */
+	public void setEngine(int engine) {
+		mEngine = engine;
+	}
+
+	/**
+	 * Select whether photos are kept in a {@link PhotoStore} instead of
+	 * being embedded into the backup file. This must be called before the
+	 * thread is started.
+	 * 
+	 * @param enabled True to use the photo store
+	 */
+	public void setPhotoStore(boolean enabled) {
+		mUsePhotoStore = enabled;
+	}
+
+	/**
+	 * Select the encoding of the backup file. This must be called before
+	 * the thread is started.
+	 * 
+	 * @param codec Either {@link ContactCodec#JSON} or
+	 *            {@link ContactCodec#BINARY}
+	 */
+	public void setCodec(int codec) {
+		mCodec = codec;
+	}
+
+	/**
+	 * Select the compression of the backup file. This must be called before
+	 * the thread is started.
+	 * 
+	 * Incremental backups copy from the uncompressed previous file, so with
+	 * compression enabled, {@link #ENGINE_INCREMENTAL} falls back to
+	 * {@link #ENGINE_SEQUENTIAL}.
+	 * 
+	 * @param level {@link Compression#LEVEL_NONE}, or a GZIP compression
+	 *            level from 1 (fastest) to 9 (smallest)
+	 */
+	public void setCompressionLevel(int level) {
+		mCompressionLevel = level;
+	}
+
+	/**
+	 * Select the size of the output buffer. The buffer is written to the
+	 * file whenever it is full, so this is the memory used for buffering
+	 * no matter how many contacts are written. This must be called before
+	 * the thread is started.
+	 * 
+	 * @param bytes The buffer size
+	 */
+	public void setBufferSize(int bytes) {
+		mBufferSize = bytes;
+	}
+
+	/**
+	 * Select the number of contacts read per query by
+	 * {@link #ENGINE_SEQUENTIAL}. Larger pages need fewer queries, smaller
+	 * pages less memory. This must be called before the thread is started.
+	 * 
+	 * @param contacts The page size, see {@link PeoplePager}
+	 */
+	public void setPageSize(int contacts) {
+		mPageSize = contacts;
+	}
+
+	/**
+	 * @return The photo store used by this backup, or null if photos are
+	 *         embedded into the backup file
+	 */
+	PhotoStore getPhotoStore() {
+		return mPhotoStore;
+	}
+
+	/**
+	 * @return The timing stats of this backup
+	 */
+	RunStats getStats() {
+		return mStats;
 	}
 
 	public void run() {
+		mStats = new RunStats("backup");
+
 		// TODO: create a temporary file and move it to the destination file on success. To prevent data corruption
-		Cursor managedCursor = mParent.managedQuery(People.CONTENT_URI, null,
-				null,
-				null,
-				People._ID + " ASC");
-		
-		File backup_file = null;
+		long start = System.currentTimeMillis();
+		int engine = mEngine;
+		if (engine == ENGINE_INCREMENTAL
+				&& mCompressionLevel != Compression.LEVEL_NONE) {
+			engine = ENGINE_SEQUENTIAL;
+		}
+
+		File folder = mParent.getStorageFolder();
+		if (mUsePhotoStore) {
+			mPhotoStore = new PhotoStore(folder);
+		}
+		File backup_file = new File( folder, JsonBackup.FILE_NAME );
+		File index_file = new File( folder, ContactIndex.FILE_NAME );
+		ContactCodec codec = ContactCodec.create(mCodec, mProfile,
+				mPhotoStore, mStats);
+
+		/*
+		 * Continue an interrupted backup if possible. The index of the
+		 * interrupted backup is only complete if the backup has been stopped
+		 * by finish(). Without it, no index is written.
+		 */
+		BackupCheckpoint checkpoint = null;
+		BackupCheckpoint resumed = null;
+		ContactIndex index = new ContactIndex();
+		if (engine == ENGINE_SEQUENTIAL
+				&& mCompressionLevel == Compression.LEVEL_NONE) {
+			resumed = findCheckpoint(folder, backup_file, codec.getFormat());
+			checkpoint = resumed;
+			if (checkpoint == null) {
+				checkpoint = new BackupCheckpoint(folder, codec.getFormat());
+			}
+		}
+		if (resumed != null) {
+			index = readIndex(index_file, resumed.getCount());
+			Log.i(JsonBackup.TAG, String.format(
+					"Continuing the backup after contact %d (%d contacts, %d bytes)",
+					resumed.getLastId(), resumed.getCount(),
+					resumed.getPosition()));
+		} else {
+			BackupCheckpoint.discard(folder);
+		}
+		index_file.delete();
+		File previous_file = null;
+		if (engine == ENGINE_INCREMENTAL) {
+			previous_file = IncrementalBackup.keepPrevious(backup_file);
+		} else {
+			IncrementalBackup.discardFingerprints(folder);
+		}
 		try {
-			backup_file = new File( mParent.getStorageFolder(), JsonBackup.FILE_NAME );
 			backup_file.createNewFile();
+			if (resumed != null) {
+				cut(backup_file, resumed.getPosition());
+			}
 		} catch (IOException e) {
 			// TODO: user-friendly error message
 			return;
 		}
 		FileOutputStream file_stream = null;
 		try {
-			file_stream = new FileOutputStream(backup_file);
+			file_stream = new FileOutputStream(backup_file, resumed != null);
+			if (checkpoint != null) {
+				checkpoint.setBackupFile(file_stream.getFD());
+			}
 		} catch (FileNotFoundException e2) {
 			// file has just been successfully created. It's there alright!
+		} catch (IOException e) {
+			// TODO: user-friendly error message
+			return;
 		}
 		
-		BufferedOutputStream stream_buffer = new BufferedOutputStream(file_stream, 1000*managedCursor.getCount());
-		OutputStreamWriter writer = new OutputStreamWriter(stream_buffer);
-
-		/*
-		 * We don't construct the whole list in memory. Instead we write to
-		 * disk after each contact, which should keep memory consumption
-		 * low. This means, we cannot create the "root" JSONArray. But
-		 * that's nothing more that printing out an opeing "[", some commas,
-		 * and a closing "]"
-		 */
+		OutputStream compressed_stream = null;
 		try {
-			/* The opening "[" */
-			writer.write("[\n");
+			compressed_stream = Compression.compress(file_stream,
+					mCompressionLevel);
 		} catch (IOException e) {
-			// TODO User-friendly error message
+			// TODO: user-friendly error message
 			return;
 		}
 		
-		if (managedCursor.moveToFirst()) {
-
-			/*
-			 * get the column indexes before the loop to prevent unnecessary
-			 * method calls
-			 */
-			int idColumn = managedCursor.getColumnIndex(People._ID);
-			int ringToneColumn = managedCursor
-					.getColumnIndex(People.CUSTOM_RINGTONE);
-			int displayNameColumn = managedCursor
-					.getColumnIndex(People.DISPLAY_NAME);
-			int lastTimeContactedColumn = managedCursor
-					.getColumnIndex(People.LAST_TIME_CONTACTED);
-			int nameColumn = managedCursor.getColumnIndex(People.NAME);
-			int notesColumn = managedCursor.getColumnIndex(People.NOTES);
-			int phoneticNameColumn = managedCursor
-					.getColumnIndex(People.PHONETIC_NAME);
-//			int photoVersionColumn = managedCursor
-//					.getColumnIndex(People.PHOTO_VERSION);
-			int sendToVoiceMailColumn = managedCursor
-					.getColumnIndex(People.SEND_TO_VOICEMAIL);
-			int starredColumn = managedCursor
-					.getColumnIndex(People.STARRED);
-			int timesContactedColumn = managedCursor
-					.getColumnIndex(People.TIMES_CONTACTED);
-
-			do {
-				int id = managedCursor.getInt(idColumn);
-//				Log.i(JsonBackup.TAG, String.format(
-//						"Dumping %s",
-//						managedCursor.getString(displayNameColumn)));
-
-				JSONObject contact = new JSONObject();
-				try {
-					contact.put(ContactColumns.ID, id);
-					contact.put(ContactColumns.NAME,
-							managedCursor.getString(nameColumn));
-					contact.put(ContactColumns.CUSTOM_RING_TONE, managedCursor
-							.getString(ringToneColumn));
-					contact.put(ContactColumns.DISPLAY_NAME, managedCursor
-							.getString(displayNameColumn));
-					contact.put(ContactColumns.LAST_TIME_CONTACTED, managedCursor
-							.getString(lastTimeContactedColumn));
-					contact.put(ContactColumns.NOTES, managedCursor
-							.getString(notesColumn));
-					contact.put(ContactColumns.PHONETIC_NAME, managedCursor
-							.getString(phoneticNameColumn));
-					contact.put(ContactColumns.SEND_TO_VOICEMAIL, managedCursor
-							.getString(sendToVoiceMailColumn));
-					contact.put(ContactColumns.STARRED, managedCursor
-							.getString(starredColumn));
-					contact.put(ContactColumns.TIMES_CONTACTED, managedCursor
-							.getString(timesContactedColumn));
-//       Seems buggy...
-//					try {
-//						contact.put(ContactColumns.PHOTO_VERSION, managedCursor
-//								.getString(photoVersionColumn));
-//					} catch (IllegalStateException e) {
-//						contact.put(ContactColumns.PHOTO_VERSION, null);
-//						Log.e(JsonBackup.TAG, 
-//								"Unable to retrieve photo_version for contact #"
-//										+ id);
-//					}
-
-					this.appendContactMethods(contact);
-					this.appendPhotos(contact);
-					this.appendPhoneNumbers(contact);
-					this.appendOrganizations(contact);
-					
-					writer.write(contact.toString(3));
-					
-					/* Add commas (JSON array grammar) */
-					if (managedCursor.getPosition() < managedCursor
-							.getCount() - 1) {
-						writer.write(",\n");
-					}
-
-					/*
-					 * we flush after each contact. That should keep memory
-					 * consumption to a minimum.
-					 */
-					writer.flush();
-				} catch (JSONException e1) {
-//					Log.e(JsonBackup.TAG, String.format(
-//							"Unable to encode JSON for contact #%d (%s)", id, e1.getMessage()));
-				} catch (IOException e) {
-					// TODO: User friendly error
-				}
-
-				Message msg = mHandler.obtainMessage();
-				Bundle b = new Bundle();
-				b.putInt("position", managedCursor.getPosition() + 1);
-				b.putInt("total", managedCursor.getCount());
-				msg.setData(b);
-				mHandler.sendMessage(msg);
+		BudgetedOutputStream stream_buffer = new BudgetedOutputStream(
+				compressed_stream, mBufferSize, mStats);
 
-			} while (mKeepRunning && managedCursor.moveToNext());
-
-		}
-		
+		/*
+		 * We don't construct the whole list in memory. Instead each contact
+		 * is encoded and streamed to disk as it is read from the cursors,
+		 * which keeps memory consumption low. The record writer takes care
+		 * of the framing of the file.
+		 */
+		IncrementalBackup incremental = null;
+		Cursor people = null;
+		int contacts = 0;
 		try {
-			/* Add the closing "]" (JSON array grammar) */
-			writer.write("]\n");
-			writer.close();
-			stream_buffer.close();
-			file_stream.close();
+			RecordWriter out;
+			if (resumed != null) {
+				out = codec.newResumedWriter(stream_buffer, resumed
+						.getPosition(), resumed.getCount(),
+						index != null ? index : new ContactIndex());
+			} else {
+				out = codec.newWriter(stream_buffer);
+			}
+			if (engine == ENGINE_PARALLEL) {
+				people = queryPeople();
+				new ParallelBackup(this, mParent.getContentResolver(),
+						codec).write(people, out);
+			} else if (engine == ENGINE_PIPELINED) {
+				people = queryPeople();
+				new PipelinedBackup(this, mParent.getContentResolver(),
+						codec).write(people, out);
+			} else if (engine == ENGINE_INCREMENTAL) {
+				people = queryPeople();
+				incremental = new IncrementalBackup(this,
+						mParent.getContentResolver(), codec, folder);
+				incremental.write(people, out, previous_file);
+			} else {
+				PeoplePager pager = new PeoplePager(mParent
+						.getContentResolver(), mPageSize, mStats);
+				if (resumed != null) {
+					pager.startAfter(resumed.getLastId());
+				}
+				mSequential = new SequentialBackup(new ProviderContactSource(
+						mParent.getContentResolver(), pager, mMode, mStats),
+						mProgress);
+				if (checkpoint != null) {
+					mSequential.setCheckpoint(checkpoint,
+							BackupCheckpoint.DEFAULT_INTERVAL);
+				}
+				if (!mKeepRunning) {
+					mSequential.cancel();
+				}
+				contacts = mSequential.write(out);
+			}
+			out.close();
+			if (index != null) {
+				contacts = out.getIndex().size();
+				writeIndex(out.getIndex(), index_file);
+			} else {
+				contacts += resumed.getCount();
+			}
+			if (checkpoint != null && mKeepRunning) {
+				checkpoint.delete();
+			}
+			if (incremental != null) {
+				incremental.commit(backup_file);
+			}
+			if (previous_file != null) {
+				previous_file.delete();
+			}
+			Log.i(JsonBackup.TAG, String.format(
+					"Backup written in %d ms: %d bytes, compression level %d",
+					System.currentTimeMillis() - start, backup_file.length(),
+					mCompressionLevel));
+			Log.i(JsonBackup.TAG, String.format(
+					"Output buffer: %d bytes in %d writes, peak use %d of %d bytes",
+					stream_buffer.getBytesWritten(),
+					stream_buffer.getFlushCount(),
+					stream_buffer.getPeakBufferUse(),
+					stream_buffer.getBudget()));
 		} catch (IOException e) {
 			// TODO: User friendly error
 //			Log.e(JsonBackup.TAG, "ERROR: " + e.getMessage());
+		} finally {
+			if (people != null) {
+				people.close();
+			}
+		}
+		mProgress.finish();
+
+		mStats.finish(contacts, backup_file.length());
+		try {
+			mStats.write(new File(folder, RunStats.BACKUP_FILE_NAME));
+		} catch (IOException e) {
+			Log.w(JsonBackup.TAG, "Unable to write the backup stats: "
+					+ e.getMessage());
 		}
 
 	}
 
 	/**
-	 * sets the current state for the thread, used to stop the thread
+	 * Query all contacts at once, for the engines which do not read the
+	 * People table in pages. The cursor is not managed by the Activity, so
+	 * it must be closed when done.
 	 * 
-	 * @param state The new state
+	 * @return The People cursor, sorted by ID
 	 */
-	public void setState(int state) {
-		mState = state;
+	private Cursor queryPeople() {
+		long start = System.nanoTime();
+		Cursor people = mParent.getContentResolver().query(
+				People.CONTENT_URI, ProviderColumns.PEOPLE, null, null,
+				People._ID + " ASC");
+		people.getCount(); // runs the query
+		mStats.phase(RunStats.PEOPLE_QUERY).add(start);
+		return people;
 	}
 
 	/**
-	 * Append photos as Base64 encoded strings to the given contact. This is
-	 * an in-place modification of the "contact" object
+	 * Look for the checkpoint of an interrupted backup which can be
+	 * continued
 	 * 
-	 * @param contact
-	 *            A JSON object representing a contact. It must have at
-	 *            least a key named "id" representing the internal
-	 *            contact-ID
-	 * @throws JSONException
-	 *             Thrown when data could not be successfully encoded to
-	 *             JSON
+	 * @param folder The folder of the backup file
+	 * @param backup_file The backup file
+	 * @param format The format of the new backup
+	 * @return The checkpoint, or null to start a new backup
 	 */
-	private void appendPhotos(JSONObject contact) throws JSONException {
-		String where = Photos.PERSON_ID + "=" + contact.getInt( ContactColumns.ID );
-		Cursor cursor = mParent.managedQuery(Photos.CONTENT_URI, null, where, null,
-				null);
-
-		JSONArray photos = new JSONArray();
-
-		if ( cursor != null ) {
-			
-			int dataColumn = cursor.getColumnIndex(Photos.DATA);
-	
-			if (cursor.moveToFirst()) {
-				do {
-					if (cursor.getBlob(dataColumn) != null) {
-						photos.put(Base64.encodeBytes(cursor
-								.getBlob(dataColumn)));
-					}
-				} while (cursor.moveToNext());
-			}
+	private BackupCheckpoint findCheckpoint(File folder, File backup_file,
+			int format) {
+		BackupCheckpoint checkpoint = BackupCheckpoint.read(folder);
+		if (checkpoint == null || checkpoint.getFormat() != format
+				|| checkpoint.getCount() == 0
+				|| backup_file.length() < checkpoint.getPosition()) {
+			return null;
 		}
-		
-		contact.put( ContactColumns.PHOTOS, photos);
-		
-		cursor.close();
-		
+		return checkpoint;
 	}
-	
+
 	/**
-	 * Append all non-phone contact methods to the contact
+	 * Load the index of an interrupted backup
 	 * 
-	 * @param contact
-	 *            A JSON object representing a contact. It must have at
-	 *            least a key named "id" representing the internal
-	 *            contact-ID
-	 * @throws JSONException
-	 *             Thrown when data could not be successfully encoded to
-	 *             JSON
+	 * @param file The index file
+	 * @param count The number of contacts in the interrupted backup
+	 * @return The index, or null if it is missing or incomplete
 	 */
-	private void appendContactMethods( JSONObject contact ) throws JSONException{
-		
-		String where = ContactMethods.PERSON_ID + "=" + contact.getInt( ContactColumns.ID );
-		Cursor cursor = mParent.managedQuery(ContactMethods.CONTENT_URI, null, where, null,
-				null);
-		
-		JSONArray contactMethods = new JSONArray();
-
-		if ( cursor != null ) {
-		
-			int auxDataColumn = cursor.getColumnIndex(ContactMethods.AUX_DATA);
-			int dataColumn = cursor.getColumnIndex(ContactMethods.DATA);
-			int isPrimaryColumn = cursor.getColumnIndex(ContactMethods.ISPRIMARY);
-			int kindColumn = cursor.getColumnIndex(ContactMethods.KIND);
-			int labelColumn = cursor.getColumnIndex(ContactMethods.LABEL);
-			int typeColumn = cursor.getColumnIndex(ContactMethods.TYPE);
-			
-	
-			if (cursor.moveToFirst()) {
-				do {
-					JSONObject method = new JSONObject();
-					method.put(ContactColumns.ContactMethodColumns.IS_PRIMARY,
-							(cursor.getInt(isPrimaryColumn) != 0));
-					method.put(ContactColumns.ContactMethodColumns.LABEL,
-							cursor.getString(labelColumn));
-					method.put(ContactColumns.ContactMethodColumns.TYPE,
-							cursor.getString(typeColumn));
-					method.put(ContactColumns.ContactMethodColumns.AUX_DATA,
-							cursor.getString(auxDataColumn));
-					method.put(ContactColumns.ContactMethodColumns.DATA,
-							cursor.getString(dataColumn));
-					method.put(ContactColumns.ContactMethodColumns.KIND,
-							cursor.getString(kindColumn));
-					contactMethods.put(method);
-				} while (cursor.moveToNext());
-			}
+	private ContactIndex readIndex(File file, int count) {
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			ContactIndex index = ContactIndex.read(file);
+			return index.size() == count ? index : null;
+		} catch (IOException e) {
+			return null;
 		}
-		
-		contact.put(ContactColumns.CONTACT_METHODS, contactMethods);
-		
-		cursor.close();
-
 	}
 
 	/**
-	 * Append a list of phone numbers to the given contact This is an
-	 * in-place modification of the "contact" object
+	 * Remove everything after the given position from a file
 	 * 
-	 * @param contact
-	 *            A JSON object representing a contact. It must have at
-	 *            least a key named "id" representing the internal
-	 *            contact-ID
-	 * @throws JSONException
-	 *             Thrown when data could not be successfully encoded to
-	 *             JSON
+	 * @param file The file
+	 * @param length The new length of the file
+	 * @throws IOException when the file cannot be modified
 	 */
-	private void appendPhoneNumbers(JSONObject contact)
-		throws JSONException {
-
-		String where = Phones.PERSON_ID + "=" + contact.getInt( ContactColumns.ID );
-		Cursor cursor = mParent.managedQuery(Phones.CONTENT_URI, null, where, null,
-				null);
-		JSONArray phonenumbers = new JSONArray();
-
-		if ( cursor != null ) {
-
-			int isPrimaryColumn = cursor.getColumnIndex(Phones.ISPRIMARY);
-			int labelColumn = cursor.getColumnIndex(Phones.LABEL);
-			int numberColumn = cursor.getColumnIndex(Phones.NUMBER);
-			int numberKeyColumn = cursor.getColumnIndex(Phones.NUMBER_KEY);
-			int typeColumn = cursor.getColumnIndex(Phones.TYPE);
-	
-			if (cursor.moveToFirst()) {
-				do {
-					JSONObject number = new JSONObject();
-					number.put(ContactColumns.PhoneColumns.IS_PRIMARY,
-							(cursor.getInt(isPrimaryColumn) != 0));
-					number.put(ContactColumns.PhoneColumns.LABEL,
-							cursor.getString(labelColumn));
-					number.put(ContactColumns.PhoneColumns.NUMBER,
-							cursor.getString(numberColumn));
-					number.put(ContactColumns.PhoneColumns.NUMBER_KEY,
-							cursor.getString(numberKeyColumn));
-					number.put(ContactColumns.PhoneColumns.TYPE,
-							cursor.getString(typeColumn));
-					phonenumbers.put(number);
-				} while (cursor.moveToNext());
-			}
+	private static void cut(File file, long length) throws IOException {
+		RandomAccessFile access = new RandomAccessFile(file, "rw");
+		try {
+			access.setLength(length);
+		} finally {
+			access.close();
 		}
-		contact.put(ContactColumns.PHONE_NUMBERS, phonenumbers);
-
-		cursor.close();
-
 	}
 
 	/**
-	 * Append a list of organizations to the given contact This is an
-	 * in-place modification of the "contact" object
+	 * Store the index of the backup file next to it
 	 * 
-	 * @param contact
-	 *            A JSON object representing a contact. It must have at
-	 *            least a key named "id" representing the internal
-	 *            contact-ID
-	 * @throws JSONException
-	 *             Thrown when data could not be successfully encoded to
-	 *             JSON
+	 * @param index The index built while writing the backup file
+	 * @param file The index file
+	 * @throws IOException when the index cannot be written
 	 */
-	private void appendOrganizations(JSONObject contact)
-		throws JSONException {
-
-		String where = Organizations.PERSON_ID + "=" + contact.getInt( ContactColumns.ID );
-		Cursor cursor = mParent.managedQuery(Organizations.CONTENT_URI, null, where, null,
-				null);
-
-		JSONArray organizations = new JSONArray();
-		
-		if ( cursor != null ) {
-			int isPrimaryColumn = cursor.getColumnIndex(Organizations.ISPRIMARY);
-			int labelColumn = cursor.getColumnIndex(Organizations.LABEL);
-			int typeColumn = cursor.getColumnIndex(Organizations.TYPE);
-			int companyColumn = cursor.getColumnIndex(Organizations.COMPANY);
-			int titleColumn = cursor.getColumnIndex(Organizations.TITLE);
-	
-			if (cursor.moveToFirst()) {
-				do {
-					JSONObject org = new JSONObject();
-					org.put(OrganizationColumns.IS_PRIMARY,
-							(cursor.getInt(isPrimaryColumn) != 0));
-					org.put(OrganizationColumns.LABEL,
-							cursor.getString(labelColumn));
-					org.put(OrganizationColumns.TITLE,
-							cursor.getString(titleColumn));
-					org.put(OrganizationColumns.COMPANY,
-							cursor.getString(companyColumn));
-					org.put(OrganizationColumns.TYPE,
-							cursor.getString(typeColumn));
-					organizations.put(org);
-				} while (cursor.moveToNext());
-			}
+	private void writeIndex(ContactIndex index, File file) throws IOException {
+		int flags = 0;
+		if (mCompressionLevel != Compression.LEVEL_NONE) {
+			flags |= ContactIndex.FLAG_COMPRESSED;
 		}
-		
-		contact.put(ContactColumns.ORGANIZATIONS, organizations);
+		if (mCodec == ContactCodec.BINARY) {
+			flags |= ContactIndex.FLAG_BINARY;
+		}
+		index.setFlags(flags);
+		index.write(file);
+	}
+
+	/**
+	 * Send the progress to the dialog handler. Updates are coalesced, see
+	 * {@link ProgressReporter}.
+	 * 
+	 * @param position The number of contacts which have been written
+	 * @param total The total number of contacts
+	 */
+	void reportProgress(int position, int total) {
+		mProgress.onProgress(position, total, null);
+	}
 
-		cursor.close();
+	/**
+	 * @return false if the thread has been asked to finish
+	 */
+	boolean isRunning() {
+		return mKeepRunning;
+	}
 
+	/**
+	 * sets the current state for the thread, used to stop the thread
+	 * 
+	 * @param state The new state
+	 */
+	public void setState(int state) {
+		mState = state;
 	}
 
 	/**
@@ -416,6 +526,10 @@ public class BackupThread extends Thread {
 	 */
 	public void finish() {
 		mKeepRunning = false;
+		SequentialBackup sequential = mSequential;
+		if (sequential != null) {
+			sequential.cancel();
+		}
 	}
 	
 }
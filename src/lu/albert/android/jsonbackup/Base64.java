@@ -963,7 +963,9 @@ public class Base64
 
 
             // Only resize array if we didn't guess it right.
-            if( e < outBuff.length - 1 ){
+            // (With DO_BREAK_LINES, the guess counts a newline after a last
+            // line of exactly MAX_LINE_LENGTH, so it can be one too large.)
+            if( e < outBuff.length ){
                 byte[] finalOut = new byte[e];
                 System.arraycopy(outBuff,0, finalOut,0,e);
                 //System.err.println("Having to resize array from " + outBuff.length + " to " + e );
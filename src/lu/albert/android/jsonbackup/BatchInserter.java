@@ -0,0 +1,144 @@
+package lu.albert.android.jsonbackup;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+
+/**
+ * Collects the rows of one provider table and inserts them with
+ * {@link ContentResolver#bulkInsert(Uri, ContentValues[])}, which the
+ * contacts provider runs as one transaction. Compared to one insert per row,
+ * this saves a binder round-trip and a database commit for all but one row
+ * of each batch.
+ *
+ * The batch size is either fixed, or adapts to the measured commit latency:
+ * after each batch, the time per row is measured and the next batch is sized
+ * to take about {@link #TARGET_NANOS}. Larger batches hold the database lock
+ * longer (other applications which use the contacts wait for it) and lose
+ * more rows if the restore is killed, so the target is kept short.
+ *
+ * The ContentValues objects are reused from batch to batch. Rows which have
+ * not been inserted yet are only written by {@link #flush()}, so call it
+ * before the rows are needed (at the latest when the restore ends).
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class BatchInserter {
+
+	/** The batch size which adapts to the commit latency */
+	static final int ADAPTIVE = 0;
+
+	/** The commit latency aimed for by adaptive batches */
+	static final long TARGET_NANOS = 50 * 1000000L;
+
+	/** The limits of adaptive batches */
+	static final int MIN_BATCH = 10;
+	static final int MAX_BATCH = 500;
+
+	private ContentResolver mResolver;
+	private Uri mUri;
+	private RunStats.Phase mPhase;
+	private boolean mAdaptive;
+	private int mLimit;
+	private ContentValues[] mRows;
+	private int mCount;
+
+	/**
+	 * Constructor
+	 *
+	 * @param resolver
+	 *            The content resolver
+	 * @param uri
+	 *            The table the rows are inserted into
+	 * @param batchSize
+	 *            The number of rows per batch, or {@link #ADAPTIVE}. 1
+	 *            inserts each row on its own.
+	 * @param phase
+	 *            Receives the time spent in the provider, one call per batch
+	 */
+	BatchInserter(ContentResolver resolver, Uri uri, int batchSize,
+			RunStats.Phase phase) {
+		if (batchSize < 0) {
+			throw new IllegalArgumentException("Invalid batch size "
+					+ batchSize);
+		}
+		mResolver = resolver;
+		mUri = uri;
+		mPhase = phase;
+		mAdaptive = batchSize == ADAPTIVE;
+		mLimit = mAdaptive ? MIN_BATCH : batchSize;
+		mRows = new ContentValues[mLimit];
+	}
+
+	/**
+	 * Add a row to the current batch. The batch is inserted first if it is
+	 * full.
+	 *
+	 * @return The (empty) values of the new row, to be filled by the caller
+	 *         before the next call
+	 */
+	ContentValues add() {
+		if (mCount >= mLimit) {
+			flush();
+		}
+		if (mCount == mRows.length) {
+			ContentValues[] rows = new ContentValues[mLimit];
+			System.arraycopy(mRows, 0, rows, 0, mRows.length);
+			mRows = rows;
+		}
+		ContentValues values = mRows[mCount];
+		if (values == null) {
+			values = new ContentValues();
+			mRows[mCount] = values;
+		} else {
+			values.clear();
+		}
+		mCount++;
+		return values;
+	}
+
+	/**
+	 * Insert the rows added since the last batch
+	 */
+	void flush() {
+		if (mCount == 0) {
+			return;
+		}
+		int count = mCount;
+		mCount = 0;
+		long start = System.nanoTime();
+		if (count == 1) {
+			mResolver.insert(mUri, mRows[0]);
+		} else if (count == mRows.length) {
+			mResolver.bulkInsert(mUri, mRows);
+		} else {
+			ContentValues[] rows = new ContentValues[count];
+			System.arraycopy(mRows, 0, rows, 0, count);
+			mResolver.bulkInsert(mUri, rows);
+		}
+		long nanos = System.nanoTime() - start;
+		mPhase.add(start);
+		if (mAdaptive && count == mLimit) {
+			adapt(nanos / count);
+		}
+	}
+
+	/**
+	 * @return The current batch size
+	 */
+	int getLimit() {
+		return mLimit;
+	}
+
+	/**
+	 * Size the next batches from the time per row of a full batch. The
+	 * estimate is averaged with the current size, so a single slow commit
+	 * (e.g. when the provider syncs) does not collapse the batch size.
+	 */
+	private void adapt(long nanosPerRow) {
+		long estimate = TARGET_NANOS / Math.max(nanosPerRow, 1);
+		long limit = (mLimit + estimate) / 2;
+		mLimit = (int) Math.max(MIN_BATCH, Math.min(MAX_BATCH, limit));
+	}
+
+}
@@ -0,0 +1,335 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import lu.albert.android.jsonbackup.schema.BinaryContactFields;
+import lu.albert.android.jsonbackup.schema.BinaryContactFields.ContactMethodFields;
+import lu.albert.android.jsonbackup.schema.BinaryContactFields.OrganizationFields;
+import lu.albert.android.jsonbackup.schema.BinaryContactFields.PhoneFields;
+
+/**
+ * Reads contacts in the binary backup format, see
+ * {@link BinaryRecordWriter}. Unknown fields are skipped, so files written
+ * by newer versions can still be read.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class BinaryRecordReader implements RecordReader {
+
+	/** Records larger than this are considered corrupt */
+	private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+	private InputStream mIn;
+	private byte[] mRecord;
+
+	/* The decoding position in mRecord */
+	private int mPosition;
+
+	private RunStats.Phase mScanPhase;
+	private RunStats.Phase mParsePhase;
+
+	/**
+	 * Constructor
+	 *
+	 * @param stream
+	 *            The stream to read from, positioned after the file header.
+	 *            It should be buffered.
+	 * @param stats
+	 *            Receives the time spent reading and decoding records
+	 */
+	BinaryRecordReader(InputStream stream, RunStats stats) {
+		mIn = stream;
+		mRecord = new byte[1024];
+		mScanPhase = stats.phase(RunStats.SCAN);
+		mParsePhase = stats.phase(RunStats.PARSE);
+	}
+
+	public Contact read() throws IOException {
+		return read(new Contact());
+	}
+
+	public Contact read(Contact contact) throws IOException {
+		long start = System.nanoTime();
+		long length = readStreamVarint();
+		if (length < 0) {
+			mScanPhase.add(start);
+			return null;
+		}
+		if (length > MAX_RECORD_SIZE) {
+			throw new IOException("Corrupt backup: record of " + length
+					+ " bytes");
+		}
+		int size = (int) length;
+		if (mRecord.length < size) {
+			mRecord = new byte[size];
+		}
+		readFully(mRecord, size);
+		mScanPhase.add(start);
+
+		start = System.nanoTime();
+		contact.clear();
+		decodeContact(contact, size);
+		mParsePhase.add(start);
+		return contact;
+	}
+
+	/**
+	 * Skip the next contact without decoding it
+	 *
+	 * @return false at the end of the file
+	 * @throws IOException
+	 *             when the file cannot be read
+	 */
+	boolean skip() throws IOException {
+		long length = readStreamVarint();
+		if (length < 0) {
+			return false;
+		}
+		while (length > 0) {
+			long skipped = mIn.skip(length);
+			if (skipped <= 0) {
+				throw new EOFException("Truncated record");
+			}
+			length -= skipped;
+		}
+		return true;
+	}
+
+	public void close() throws IOException {
+		mIn.close();
+	}
+
+	private void decodeContact(Contact contact, int end) throws IOException {
+		mPosition = 0;
+		while (mPosition < end) {
+			int key = (int) readVarint(end);
+			switch (key >>> 3) {
+			case BinaryContactFields.ID:
+				contact.id = readVarint(end);
+				break;
+			case BinaryContactFields.NAME:
+				contact.name = readString(end);
+				break;
+			case BinaryContactFields.CUSTOM_RING_TONE:
+				contact.customRingTone = readString(end);
+				break;
+			case BinaryContactFields.DISPLAY_NAME:
+				contact.displayName = readString(end);
+				break;
+			case BinaryContactFields.LAST_TIME_CONTACTED:
+				contact.lastTimeContacted = readString(end);
+				break;
+			case BinaryContactFields.NOTES:
+				contact.notes = readString(end);
+				break;
+			case BinaryContactFields.PHONETIC_NAME:
+				contact.phoneticName = readString(end);
+				break;
+			case BinaryContactFields.SEND_TO_VOICEMAIL:
+				contact.sendToVoicemail = readString(end);
+				break;
+			case BinaryContactFields.STARRED:
+				contact.starred = readString(end);
+				break;
+			case BinaryContactFields.TIMES_CONTACTED:
+				contact.timesContacted = readString(end);
+				break;
+			case BinaryContactFields.PHOTOS:
+				contact.photos.add(readBytes(end));
+				break;
+			case BinaryContactFields.PHOTO_REFS:
+				contact.photoRefs.add(readString(end));
+				break;
+			case BinaryContactFields.CONTACT_METHODS:
+				decodeContactMethod(contact.addContactMethod(),
+						readLength(end));
+				break;
+			case BinaryContactFields.PHONE_NUMBERS:
+				decodePhone(contact.addPhone(), readLength(end));
+				break;
+			case BinaryContactFields.ORGANIZATIONS:
+				decodeOrganization(contact.addOrganization(),
+						readLength(end));
+				break;
+			default:
+				skipField(key, end);
+			}
+		}
+	}
+
+	private void decodeContactMethod(Contact.ContactMethod method, int end)
+			throws IOException {
+		while (mPosition < end) {
+			int key = (int) readVarint(end);
+			switch (key >>> 3) {
+			case ContactMethodFields.IS_PRIMARY:
+				method.isPrimary = readVarint(end) != 0;
+				break;
+			case ContactMethodFields.LABEL:
+				method.label = readString(end);
+				break;
+			case ContactMethodFields.TYPE:
+				method.type = readString(end);
+				break;
+			case ContactMethodFields.AUX_DATA:
+				method.auxData = readString(end);
+				break;
+			case ContactMethodFields.DATA:
+				method.data = readString(end);
+				break;
+			case ContactMethodFields.KIND:
+				method.kind = readString(end);
+				break;
+			default:
+				skipField(key, end);
+			}
+		}
+	}
+
+	private void decodePhone(Contact.Phone phone, int end)
+			throws IOException {
+		while (mPosition < end) {
+			int key = (int) readVarint(end);
+			switch (key >>> 3) {
+			case PhoneFields.IS_PRIMARY:
+				phone.isPrimary = readVarint(end) != 0;
+				break;
+			case PhoneFields.LABEL:
+				phone.label = readString(end);
+				break;
+			case PhoneFields.NUMBER:
+				phone.number = readString(end);
+				break;
+			case PhoneFields.NUMBER_KEY:
+				phone.numberKey = readString(end);
+				break;
+			case PhoneFields.TYPE:
+				phone.type = readString(end);
+				break;
+			default:
+				skipField(key, end);
+			}
+		}
+	}
+
+	private void decodeOrganization(Contact.Organization org, int end)
+			throws IOException {
+		while (mPosition < end) {
+			int key = (int) readVarint(end);
+			switch (key >>> 3) {
+			case OrganizationFields.IS_PRIMARY:
+				org.isPrimary = readVarint(end) != 0;
+				break;
+			case OrganizationFields.LABEL:
+				org.label = readString(end);
+				break;
+			case OrganizationFields.TITLE:
+				org.title = readString(end);
+				break;
+			case OrganizationFields.COMPANY:
+				org.company = readString(end);
+				break;
+			case OrganizationFields.TYPE:
+				org.type = readString(end);
+				break;
+			default:
+				skipField(key, end);
+			}
+		}
+	}
+
+	private void skipField(int key, int end) throws IOException {
+		switch (key & 0x07) {
+		case BinaryRecordWriter.WIRE_VARINT:
+			readVarint(end);
+			break;
+		case BinaryRecordWriter.WIRE_BYTES:
+			mPosition = readLength(end);
+			break;
+		default:
+			throw new IOException("Corrupt backup: unknown wire type "
+					+ (key & 0x07));
+		}
+	}
+
+	/**
+	 * Read the length of a length-delimited value
+	 *
+	 * @return The position in the record after the value
+	 */
+	private int readLength(int end) throws IOException {
+		long length = readVarint(end);
+		if (length < 0 || length > end - mPosition) {
+			throw new IOException("Corrupt backup: field exceeds its record");
+		}
+		return mPosition + (int) length;
+	}
+
+	private String readString(int end) throws IOException {
+		int valueEnd = readLength(end);
+		String value = new String(mRecord, mPosition, valueEnd - mPosition,
+				"UTF-8");
+		mPosition = valueEnd;
+		return value;
+	}
+
+	private byte[] readBytes(int end) throws IOException {
+		int valueEnd = readLength(end);
+		byte[] value = new byte[valueEnd - mPosition];
+		System.arraycopy(mRecord, mPosition, value, 0, value.length);
+		mPosition = valueEnd;
+		return value;
+	}
+
+	private long readVarint(int end) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (mPosition >= end) {
+				throw new IOException("Corrupt backup: truncated varint");
+			}
+			int b = mRecord[mPosition++];
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Corrupt backup: varint too long");
+	}
+
+	/**
+	 * Read a varint from the stream
+	 *
+	 * @return The value, or -1 at the end of the stream
+	 */
+	private long readStreamVarint() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = mIn.read();
+			if (b < 0) {
+				if (shift == 0) {
+					return -1;
+				}
+				throw new EOFException("Truncated record length");
+			}
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Corrupt backup: varint too long");
+	}
+
+	private void readFully(byte[] buffer, int length) throws IOException {
+		int position = 0;
+		while (position < length) {
+			int read = mIn.read(buffer, position, length - position);
+			if (read < 0) {
+				throw new EOFException("Truncated record");
+			}
+			position += read;
+		}
+	}
+
+}
@@ -0,0 +1,303 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import lu.albert.android.jsonbackup.schema.BinaryContactFields;
+import lu.albert.android.jsonbackup.schema.BinaryContactFields.ContactMethodFields;
+import lu.albert.android.jsonbackup.schema.BinaryContactFields.OrganizationFields;
+import lu.albert.android.jsonbackup.schema.BinaryContactFields.PhoneFields;
+
+/**
+ * Writes contacts in the binary backup format.
+ *
+ * A backup file starts with the 4 bytes "JBBK" and a version byte. It is
+ * followed by one record per contact: the length of the record (a varint)
+ * and the record itself. A reader can therefore skip a contact without
+ * looking at its contents. A fragment is a sequence of records without the
+ * file header.
+ *
+ * A record is a sequence of fields. Each field starts with a varint key:
+ * the field tag from {@link BinaryContactFields}, shifted left by 3 bits,
+ * combined with the wire type. The value follows the key:
+ *
+ * <ul>
+ * <li>{@link #WIRE_VARINT}: a varint (IDs and booleans)</li>
+ * <li>{@link #WIRE_BYTES}: a varint length and as many bytes. Used for
+ * UTF-8 strings, raw photos and nested records (contact methods, phone
+ * numbers and organizations).</li>
+ * </ul>
+ *
+ * Varints use 7 bits per byte, least significant group first. The high bit
+ * is set on all bytes but the last. Null strings are left out.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class BinaryRecordWriter implements RecordWriter {
+
+	/** The first bytes of a binary backup file */
+	static final byte[] MAGIC = { 'J', 'B', 'B', 'K' };
+
+	/** The version of the format, written after the magic bytes */
+	static final int VERSION = 1;
+
+	/** Wire type of a varint value */
+	static final int WIRE_VARINT = 0;
+
+	/** Wire type of a length-delimited value */
+	static final int WIRE_BYTES = 2;
+
+	private OutputStream mOut;
+	private PhotoStore mPhotoStore;
+	private boolean mFragment;
+	private long mPosition;
+	private ContactIndex mIndex;
+	private RunStats.Phase mEncodePhase;
+
+	/* Scratch buffers, reused for all records */
+	private Buffer mRecord;
+	private Buffer mNested;
+	private byte[] mLength;
+
+	/**
+	 * Constructor
+	 *
+	 * @param stream
+	 *            The stream to write to. It should be buffered.
+	 * @param photoStore
+	 *            The photo store, or null if photos are embedded
+	 * @param fragment
+	 *            True to write a fragment instead of a complete file
+	 * @param stats
+	 *            Receives the time spent encoding contacts
+	 * @throws IOException
+	 *             when the output cannot be written
+	 */
+	BinaryRecordWriter(OutputStream stream, PhotoStore photoStore,
+			boolean fragment, RunStats stats) throws IOException {
+		mOut = stream;
+		mEncodePhase = stats.phase(RunStats.ENCODE);
+		mPhotoStore = photoStore;
+		mFragment = fragment;
+		mPosition = 0;
+		mIndex = new ContactIndex();
+		mRecord = new Buffer(1024);
+		mNested = new Buffer(256);
+		mLength = new byte[10];
+		if (!fragment) {
+			mOut.write(MAGIC);
+			mOut.write(VERSION);
+			mPosition = MAGIC.length + 1;
+		}
+	}
+
+	/**
+	 * Constructor for a writer which continues a backup file. The file has
+	 * been cut after the last complete record, and the stream appends to
+	 * it.
+	 *
+	 * @param stream
+	 *            The stream to write to
+	 * @param photoStore
+	 *            The photo store, or null if photos are embedded
+	 * @param position
+	 *            The size of the file, including the header
+	 * @param index
+	 *            The index of the records in the file. New entries are
+	 *            added to it.
+	 * @param stats
+	 *            Receives the time spent encoding contacts
+	 * @throws IOException
+	 *             when the output cannot be written
+	 */
+	BinaryRecordWriter(OutputStream stream, PhotoStore photoStore,
+			long position, ContactIndex index, RunStats stats)
+			throws IOException {
+		this(stream, photoStore, true, stats);
+		mFragment = false;
+		mPosition = position;
+		mIndex = index;
+	}
+
+	public void write(Contact contact) throws IOException {
+		long start = System.nanoTime();
+		Buffer record = mRecord;
+		record.reset();
+		record.writeVarintField(BinaryContactFields.ID, contact.id);
+		record.writeStringField(BinaryContactFields.NAME, contact.name);
+		record.writeStringField(BinaryContactFields.CUSTOM_RING_TONE,
+				contact.customRingTone);
+		record.writeStringField(BinaryContactFields.DISPLAY_NAME,
+				contact.displayName);
+		record.writeStringField(BinaryContactFields.LAST_TIME_CONTACTED,
+				contact.lastTimeContacted);
+		record.writeStringField(BinaryContactFields.NOTES, contact.notes);
+		record.writeStringField(BinaryContactFields.PHONETIC_NAME,
+				contact.phoneticName);
+		record.writeStringField(BinaryContactFields.SEND_TO_VOICEMAIL,
+				contact.sendToVoicemail);
+		record.writeStringField(BinaryContactFields.STARRED, contact.starred);
+		record.writeStringField(BinaryContactFields.TIMES_CONTACTED,
+				contact.timesContacted);
+
+		for (Contact.ContactMethod method : contact.contactMethods) {
+			Buffer nested = mNested;
+			nested.reset();
+			nested.writeVarintField(ContactMethodFields.IS_PRIMARY,
+					method.isPrimary ? 1 : 0);
+			nested.writeStringField(ContactMethodFields.LABEL, method.label);
+			nested.writeStringField(ContactMethodFields.TYPE, method.type);
+			nested.writeStringField(ContactMethodFields.AUX_DATA,
+					method.auxData);
+			nested.writeStringField(ContactMethodFields.DATA, method.data);
+			nested.writeStringField(ContactMethodFields.KIND, method.kind);
+			record.writeBytesField(BinaryContactFields.CONTACT_METHODS,
+					nested.mData, 0, nested.mCount);
+		}
+
+		for (byte[] photo : contact.photos) {
+			if (mPhotoStore != null) {
+				record.writeStringField(BinaryContactFields.PHOTO_REFS,
+						mPhotoStore.put(photo));
+			} else {
+				record.writeBytesField(BinaryContactFields.PHOTOS, photo, 0,
+						photo.length);
+			}
+		}
+
+		for (Contact.Phone phone : contact.phones) {
+			Buffer nested = mNested;
+			nested.reset();
+			nested.writeVarintField(PhoneFields.IS_PRIMARY,
+					phone.isPrimary ? 1 : 0);
+			nested.writeStringField(PhoneFields.LABEL, phone.label);
+			nested.writeStringField(PhoneFields.NUMBER, phone.number);
+			nested.writeStringField(PhoneFields.NUMBER_KEY, phone.numberKey);
+			nested.writeStringField(PhoneFields.TYPE, phone.type);
+			record.writeBytesField(BinaryContactFields.PHONE_NUMBERS,
+					nested.mData, 0, nested.mCount);
+		}
+
+		for (Contact.Organization org : contact.organizations) {
+			Buffer nested = mNested;
+			nested.reset();
+			nested.writeVarintField(OrganizationFields.IS_PRIMARY,
+					org.isPrimary ? 1 : 0);
+			nested.writeStringField(OrganizationFields.LABEL, org.label);
+			nested.writeStringField(OrganizationFields.TITLE, org.title);
+			nested.writeStringField(OrganizationFields.COMPANY, org.company);
+			nested.writeStringField(OrganizationFields.TYPE, org.type);
+			record.writeBytesField(BinaryContactFields.ORGANIZATIONS,
+					nested.mData, 0, nested.mCount);
+		}
+
+		int prefix = encodeVarint(mLength, 0, record.mCount);
+		mOut.write(mLength, 0, prefix);
+		mOut.write(record.mData, 0, record.mCount);
+		mIndex.add(contact.id, contact.name, mPosition, prefix
+				+ record.mCount);
+		mPosition += prefix + record.mCount;
+		mEncodePhase.add(start);
+	}
+
+	public void append(byte[] data, int offset, int length,
+			ContactIndex index) throws IOException {
+		mOut.write(data, offset, length);
+		if (index != null) {
+			mIndex.addAll(index, mPosition);
+		}
+		mPosition += length;
+	}
+
+	public long getPosition() {
+		return mPosition;
+	}
+
+	public ContactIndex getIndex() {
+		return mIndex;
+	}
+
+	public void flush() throws IOException {
+		mOut.flush();
+	}
+
+	public void close() throws IOException {
+		mOut.flush();
+		if (!mFragment) {
+			mOut.close();
+		}
+	}
+
+	/**
+	 * Encode a varint
+	 *
+	 * @param buffer
+	 *            The destination. At least 10 bytes must be available.
+	 * @param offset
+	 *            The position of the first byte in buffer
+	 * @param value
+	 *            The value. Negative values take 10 bytes.
+	 * @return The number of bytes written
+	 */
+	static int encodeVarint(byte[] buffer, int offset, long value) {
+		int position = offset;
+		while ((value & ~0x7fL) != 0) {
+			buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+		return position - offset;
+	}
+
+	/**
+	 * A growable byte array holding the record which is currently encoded
+	 */
+	private static class Buffer {
+
+		byte[] mData;
+		int mCount;
+
+		Buffer(int capacity) {
+			mData = new byte[capacity];
+		}
+
+		void reset() {
+			mCount = 0;
+		}
+
+		void writeVarintField(int tag, long value) {
+			ensure(20);
+			mCount += encodeVarint(mData, mCount, (tag << 3) | WIRE_VARINT);
+			mCount += encodeVarint(mData, mCount, value);
+		}
+
+		void writeStringField(int tag, String value)
+				throws IOException {
+			if (value == null) {
+				return;
+			}
+			byte[] bytes = value.getBytes("UTF-8");
+			writeBytesField(tag, bytes, 0, bytes.length);
+		}
+
+		void writeBytesField(int tag, byte[] value, int offset, int length) {
+			ensure(20 + length);
+			mCount += encodeVarint(mData, mCount, (tag << 3) | WIRE_BYTES);
+			mCount += encodeVarint(mData, mCount, length);
+			System.arraycopy(value, offset, mData, mCount, length);
+			mCount += length;
+		}
+
+		private void ensure(int needed) {
+			if (mCount + needed <= mData.length) {
+				return;
+			}
+			byte[] grown = new byte[Math.max(mData.length * 2, mCount
+					+ needed)];
+			System.arraycopy(mData, 0, grown, 0, mCount);
+			mData = grown;
+		}
+
+	}
+
+}
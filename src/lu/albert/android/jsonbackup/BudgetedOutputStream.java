@@ -0,0 +1,143 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A buffered output stream with a fixed memory budget. The buffer is
+ * allocated once and passed on to the underlying stream whenever it is full,
+ * so the memory used does not depend on the number of contacts. Writes
+ * which are larger than the buffer go to the underlying stream directly.
+ *
+ * The stream counts the bytes passed on, the number of writes to the
+ * underlying stream and the highest buffer fill level, so the budget can be
+ * tuned. The time spent in the underlying stream is recorded in a
+ * {@link RunStats}.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class BudgetedOutputStream extends OutputStream {
+
+	/** The default buffer size (bytes) */
+	static final int DEFAULT_BUDGET = 64 * 1024;
+
+	private OutputStream mOut;
+	private byte[] mBuffer;
+	private int mCount;
+
+	private long mBytesWritten;
+	private int mFlushCount;
+	private int mPeak;
+	private RunStats.Phase mWritePhase;
+
+	/**
+	 * Constructor
+	 *
+	 * @param stream
+	 *            The underlying stream
+	 * @param budget
+	 *            The size of the buffer (bytes)
+	 * @param stats
+	 *            Receives the time spent writing to the underlying stream
+	 */
+	BudgetedOutputStream(OutputStream stream, int budget, RunStats stats) {
+		if (budget <= 0) {
+			throw new IllegalArgumentException("Invalid buffer size "
+					+ budget);
+		}
+		mOut = stream;
+		mBuffer = new byte[budget];
+		mCount = 0;
+		mWritePhase = stats.phase(RunStats.WRITE);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (mCount == mBuffer.length) {
+			drain();
+		}
+		mBuffer[mCount++] = (byte) b;
+		if (mCount > mPeak) {
+			mPeak = mCount;
+		}
+	}
+
+	@Override
+	public void write(byte[] data, int offset, int length)
+			throws IOException {
+		if (length >= mBuffer.length) {
+			drain();
+			long start = System.nanoTime();
+			mOut.write(data, offset, length);
+			mWritePhase.add(start, length);
+			mBytesWritten += length;
+			mFlushCount++;
+			return;
+		}
+		if (length > mBuffer.length - mCount) {
+			drain();
+		}
+		System.arraycopy(data, offset, mBuffer, mCount, length);
+		mCount += length;
+		if (mCount > mPeak) {
+			mPeak = mCount;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		drain();
+		long start = System.nanoTime();
+		mOut.flush();
+		mWritePhase.add(start);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			mOut.close();
+		}
+	}
+
+	/**
+	 * @return The number of bytes passed on to the underlying stream
+	 */
+	long getBytesWritten() {
+		return mBytesWritten;
+	}
+
+	/**
+	 * @return The number of writes to the underlying stream
+	 */
+	int getFlushCount() {
+		return mFlushCount;
+	}
+
+	/**
+	 * @return The highest number of bytes held in the buffer
+	 */
+	int getPeakBufferUse() {
+		return mPeak;
+	}
+
+	/**
+	 * @return The size of the buffer (bytes)
+	 */
+	int getBudget() {
+		return mBuffer.length;
+	}
+
+	private void drain() throws IOException {
+		if (mCount > 0) {
+			long start = System.nanoTime();
+			mOut.write(mBuffer, 0, mCount);
+			mWritePhase.add(start, mCount);
+			mBytesWritten += mCount;
+			mFlushCount++;
+			mCount = 0;
+		}
+	}
+
+}
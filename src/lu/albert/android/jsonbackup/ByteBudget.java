@@ -0,0 +1,72 @@
+package lu.albert.android.jsonbackup;
+
+/**
+ * Limits the memory held by data which is handed from one thread to
+ * another, e.g. contacts with their photos waiting in a queue. The producer
+ * reserves the size of each item before handing it over, and the consumer
+ * releases it once the item has been processed.
+ *
+ * An item is always admitted if nothing is reserved, so a single item
+ * larger than the limit does not block forever.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class ByteBudget {
+
+	private final long mLimit;
+	private long mUsed;
+
+	/**
+	 * Constructor
+	 *
+	 * @param limit
+	 *            The number of bytes which may be reserved at once
+	 */
+	ByteBudget(long limit) {
+		mLimit = limit;
+	}
+
+	/**
+	 * Reserve memory for an item, waiting until enough has been released
+	 *
+	 * @param bytes
+	 *            The size of the item
+	 * @param timeout
+	 *            The maximum time to wait (ms)
+	 * @return false if the time ran out before the memory was reserved
+	 * @throws InterruptedException
+	 *             when the thread is interrupted while waiting
+	 */
+	synchronized boolean reserve(long bytes, long timeout)
+			throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while (mUsed > 0 && mUsed + bytes > mLimit) {
+			long left = end - System.currentTimeMillis();
+			if (left <= 0) {
+				return false;
+			}
+			wait(left);
+		}
+		mUsed += bytes;
+		return true;
+	}
+
+	/**
+	 * Release the memory of an item which has been processed
+	 *
+	 * @param bytes
+	 *            The size passed to {@link #reserve(long, long)}
+	 */
+	synchronized void release(long bytes) {
+		mUsed -= bytes;
+		notifyAll();
+	}
+
+	/**
+	 * @return The number of bytes currently reserved
+	 */
+	synchronized long getUsed() {
+		return mUsed;
+	}
+
+}
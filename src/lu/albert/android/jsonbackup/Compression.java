@@ -0,0 +1,103 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Optional compression of the backup file. Backups are compressed with
+ * GZIP. On restore, the format is detected from the first bytes of the
+ * file, so plain, GZIP and zlib (Deflate) files can all be read.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class Compression {
+
+	/** The compression level meaning "no compression" */
+	static final int LEVEL_NONE = 0;
+
+	/** The first two bytes of a GZIP stream */
+	private static final int GZIP_MAGIC = 0x1f8b;
+
+	/** The size of the input buffer used while decompressing */
+	private static final int BUFFER_SIZE = 8192;
+
+	private Compression() {
+	}
+
+	/**
+	 * Wrap a stream so that everything written to it is compressed.
+	 *
+	 * @param out
+	 *            The stream receiving the compressed data
+	 * @param level
+	 *            The compression level, from 1 (fastest) to 9 (smallest). If
+	 *            {@link #LEVEL_NONE}, the stream is returned as it is.
+	 * @return The compressing stream
+	 * @throws IOException
+	 *             when the GZIP header cannot be written
+	 */
+	static OutputStream compress(OutputStream out, int level)
+			throws IOException {
+		if (level == LEVEL_NONE) {
+			return out;
+		}
+		return new LevelGZIPOutputStream(out, level);
+	}
+
+	/**
+	 * Wrap a stream so that compressed data is decompressed while it is
+	 * read. Uncompressed data is passed through unchanged.
+	 *
+	 * @param in
+	 *            The raw stream, positioned at the start of the file
+	 * @return A buffered stream returning the uncompressed data
+	 * @throws IOException
+	 *             when the stream cannot be read
+	 */
+	static InputStream decompress(InputStream in) throws IOException {
+		BufferedInputStream buffered = new BufferedInputStream(in,
+				BUFFER_SIZE);
+		buffered.mark(2);
+		int first = buffered.read();
+		int second = buffered.read();
+		buffered.reset();
+		if (first < 0 || second < 0) {
+			return buffered;
+		}
+
+		int magic = (first << 8) | second;
+		if (magic == GZIP_MAGIC) {
+			return new BufferedInputStream(new GZIPInputStream(buffered,
+					BUFFER_SIZE), BUFFER_SIZE);
+		}
+		/*
+		 * A zlib header: compression method 8 (Deflate), and the header
+		 * checksum is a multiple of 31. Plain JSON starts with '[' or
+		 * whitespace, which never matches.
+		 */
+		if ((first & 0x0f) == 8 && magic % 31 == 0) {
+			return new BufferedInputStream(new InflaterInputStream(buffered),
+					BUFFER_SIZE);
+		}
+		return buffered;
+	}
+
+	/**
+	 * GZIPOutputStream does not offer to set the compression level, but its
+	 * Deflater is accessible to subclasses.
+	 */
+	private static class LevelGZIPOutputStream extends GZIPOutputStream {
+
+		LevelGZIPOutputStream(OutputStream out, int level) throws IOException {
+			super(out, BUFFER_SIZE);
+			def.setLevel(level);
+		}
+
+	}
+
+}
@@ -0,0 +1,167 @@
+package lu.albert.android.jsonbackup;
+
+import java.util.ArrayList;
+
+/**
+ * The raw data of one contact as it was read from the contacts provider.
+ * The field names follow the keys in
+ * {@link lu.albert.android.jsonbackup.schema.ContactColumns}. String values
+ * may be null.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+public class Contact {
+
+	public long id;
+	public String name;
+	public String customRingTone;
+	public String displayName;
+	public String lastTimeContacted;
+	public String notes;
+	public String phoneticName;
+	public String sendToVoicemail;
+	public String starred;
+	public String timesContacted;
+
+	public ArrayList<ContactMethod> contactMethods = new ArrayList<ContactMethod>();
+	public ArrayList<byte[]> photos = new ArrayList<byte[]>();
+
+	/**
+	 * Hashes of photos kept in the {@link PhotoStore}. Only filled when a
+	 * backup is read.
+	 */
+	public ArrayList<String> photoRefs = new ArrayList<String>();
+	public ArrayList<Phone> phones = new ArrayList<Phone>();
+	public ArrayList<Organization> organizations = new ArrayList<Organization>();
+
+	/* Sub-objects of earlier contacts, handed out again by the add methods */
+	private ArrayList<ContactMethod> mSpareContactMethods;
+	private ArrayList<Phone> mSparePhones;
+	private ArrayList<Organization> mSpareOrganizations;
+
+	/**
+	 * Clear all fields, so this object can be reused for another contact.
+	 * The contact methods, phones and organizations are kept aside and
+	 * returned again by {@link #addContactMethod()}, {@link #addPhone()}
+	 * and {@link #addOrganization()}, so a reused contact does not allocate
+	 * them again.
+	 */
+	public void clear() {
+		id = 0;
+		name = null;
+		customRingTone = null;
+		displayName = null;
+		lastTimeContacted = null;
+		notes = null;
+		phoneticName = null;
+		sendToVoicemail = null;
+		starred = null;
+		timesContacted = null;
+		if (mSpareContactMethods == null) {
+			mSpareContactMethods = new ArrayList<ContactMethod>();
+			mSparePhones = new ArrayList<Phone>();
+			mSpareOrganizations = new ArrayList<Organization>();
+		}
+		mSpareContactMethods.addAll(contactMethods);
+		mSparePhones.addAll(phones);
+		mSpareOrganizations.addAll(organizations);
+		contactMethods.clear();
+		photos.clear();
+		photoRefs.clear();
+		phones.clear();
+		organizations.clear();
+	}
+
+	/**
+	 * @return A new, empty contact method, added to this contact
+	 */
+	public ContactMethod addContactMethod() {
+		ContactMethod method;
+		if (mSpareContactMethods == null || mSpareContactMethods.isEmpty()) {
+			method = new ContactMethod();
+		} else {
+			method = mSpareContactMethods.remove(mSpareContactMethods.size() - 1);
+			method.isPrimary = false;
+			method.label = null;
+			method.type = null;
+			method.auxData = null;
+			method.data = null;
+			method.kind = null;
+		}
+		contactMethods.add(method);
+		return method;
+	}
+
+	/**
+	 * @return A new, empty phone number, added to this contact
+	 */
+	public Phone addPhone() {
+		Phone phone;
+		if (mSparePhones == null || mSparePhones.isEmpty()) {
+			phone = new Phone();
+		} else {
+			phone = mSparePhones.remove(mSparePhones.size() - 1);
+			phone.isPrimary = false;
+			phone.label = null;
+			phone.number = null;
+			phone.numberKey = null;
+			phone.type = null;
+		}
+		phones.add(phone);
+		return phone;
+	}
+
+	/**
+	 * @return A new, empty organization, added to this contact
+	 */
+	public Organization addOrganization() {
+		Organization org;
+		if (mSpareOrganizations == null || mSpareOrganizations.isEmpty()) {
+			org = new Organization();
+		} else {
+			org = mSpareOrganizations.remove(mSpareOrganizations.size() - 1);
+			org.isPrimary = false;
+			org.label = null;
+			org.title = null;
+			org.company = null;
+			org.type = null;
+		}
+		organizations.add(org);
+		return org;
+	}
+
+	/**
+	 * A non-phone contact method (e-mail, postal address, ...)
+	 */
+	public static class ContactMethod {
+		public boolean isPrimary;
+		public String label;
+		public String type;
+		public String auxData;
+		public String data;
+		public String kind;
+	}
+
+	/**
+	 * A phone number
+	 */
+	public static class Phone {
+		public boolean isPrimary;
+		public String label;
+		public String number;
+		public String numberKey;
+		public String type;
+	}
+
+	/**
+	 * An organization the contact belongs to
+	 */
+	public static class Organization {
+		public boolean isPrimary;
+		public String label;
+		public String title;
+		public String company;
+		public String type;
+	}
+
+}
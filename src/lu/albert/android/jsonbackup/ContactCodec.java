@@ -0,0 +1,213 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The encoding of a backup file. The backup engines only deal with
+ * {@link RecordWriter}s, and the restore only with {@link RecordReader}s, so
+ * the codec can be selected at runtime.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+abstract class ContactCodec {
+
+	/** JSON, see {@link JsonRecordWriter} */
+	static final int JSON = 0;
+
+	/** Length-prefixed binary records, see {@link BinaryRecordWriter} */
+	static final int BINARY = 1;
+
+	/*
+	 * Flags added to the output profile to describe the format of a file,
+	 * see getFormat()
+	 */
+	private static final int FORMAT_PHOTO_STORE = 0x100;
+	private static final int FORMAT_BINARY = 0x200;
+
+	protected int mProfile;
+	protected PhotoStore mPhotoStore;
+	protected RunStats mStats;
+
+	private ContactCodec(int profile, PhotoStore photoStore, RunStats stats) {
+		mProfile = profile;
+		mPhotoStore = photoStore;
+		mStats = stats;
+	}
+
+	/**
+	 * Create a codec for writing backups
+	 *
+	 * @param type
+	 *            {@link #JSON} or {@link #BINARY}
+	 * @param profile
+	 *            The output profile, one of the BackupThread.PROFILE_*
+	 *            constants. Only used by the JSON codec.
+	 * @param photoStore
+	 *            If not null, photos are put into this store and only their
+	 *            hashes are written
+	 * @param stats
+	 *            Receives the time spent encoding
+	 * @return The codec
+	 */
+	static ContactCodec create(int type, int profile, PhotoStore photoStore,
+			RunStats stats) {
+		if (type == BINARY) {
+			return new Binary(photoStore, stats);
+		}
+		return new Json(profile, photoStore, stats);
+	}
+
+	/**
+	 * Open a backup file for reading. The codec is detected from the first
+	 * bytes of the file.
+	 *
+	 * @param stream
+	 *            The (uncompressed) file contents. Must support mark/reset.
+	 * @param stats
+	 *            Receives the time spent reading and decoding
+	 * @return The reader
+	 * @throws IOException
+	 *             when the file cannot be read
+	 */
+	static RecordReader open(InputStream stream, RunStats stats)
+			throws IOException {
+		byte[] magic = BinaryRecordWriter.MAGIC;
+		stream.mark(magic.length + 1);
+		boolean binary = true;
+		for (int i = 0; i < magic.length; i++) {
+			if (stream.read() != magic[i]) {
+				binary = false;
+				break;
+			}
+		}
+		if (binary) {
+			int version = stream.read();
+			if (version != BinaryRecordWriter.VERSION) {
+				throw new IOException("Unsupported backup version " + version);
+			}
+			return new BinaryRecordReader(stream, stats);
+		}
+		stream.reset();
+		return new JsonRecordReader(stream, stats);
+	}
+
+	/**
+	 * Create a writer for a complete backup file
+	 *
+	 * @param stream
+	 *            The stream to write to. It should be buffered.
+	 * @return The writer
+	 * @throws IOException
+	 *             when the output cannot be written
+	 */
+	abstract RecordWriter newWriter(OutputStream stream) throws IOException;
+
+	/**
+	 * Create a writer which continues a backup file of this format, for
+	 * example after a {@link BackupCheckpoint}. The file must have been cut
+	 * after its last complete contact.
+	 *
+	 * @param stream
+	 *            The stream appending to the file. It should be buffered.
+	 * @param position
+	 *            The size of the file
+	 * @param count
+	 *            The number of contacts in the file
+	 * @param index
+	 *            The index of the contacts in the file. New entries are
+	 *            added to it.
+	 * @return The writer
+	 * @throws IOException
+	 *             when the output cannot be written
+	 */
+	abstract RecordWriter newResumedWriter(OutputStream stream,
+			long position, int count, ContactIndex index) throws IOException;
+
+	/**
+	 * Create a writer for a fragment, see {@link RecordWriter}
+	 *
+	 * @param stream
+	 *            The stream to write to
+	 * @return The writer
+	 * @throws IOException
+	 *             when the output cannot be written
+	 */
+	abstract RecordWriter newFragmentWriter(OutputStream stream)
+			throws IOException;
+
+	/**
+	 * @return A number identifying all options which change the encoded
+	 *         bytes of a contact. Encoded contacts can only be reused between
+	 *         files of the same format.
+	 */
+	int getFormat() {
+		return (mPhotoStore != null ? FORMAT_PHOTO_STORE : 0);
+	}
+
+	private static class Json extends ContactCodec {
+
+		Json(int profile, PhotoStore photoStore, RunStats stats) {
+			super(profile, photoStore, stats);
+		}
+
+		@Override
+		RecordWriter newWriter(OutputStream stream) throws IOException {
+			return new JsonRecordWriter(stream, mProfile, mPhotoStore, false,
+					mStats);
+		}
+
+		@Override
+		RecordWriter newResumedWriter(OutputStream stream, long position,
+				int count, ContactIndex index) throws IOException {
+			return new JsonRecordWriter(stream, mProfile, mPhotoStore,
+					position, count, index, mStats);
+		}
+
+		@Override
+		RecordWriter newFragmentWriter(OutputStream stream)
+				throws IOException {
+			return new JsonRecordWriter(stream, mProfile, mPhotoStore, true,
+					mStats);
+		}
+
+		@Override
+		int getFormat() {
+			return super.getFormat() | mProfile;
+		}
+
+	}
+
+	private static class Binary extends ContactCodec {
+
+		Binary(PhotoStore photoStore, RunStats stats) {
+			super(0, photoStore, stats);
+		}
+
+		@Override
+		RecordWriter newWriter(OutputStream stream) throws IOException {
+			return new BinaryRecordWriter(stream, mPhotoStore, false, mStats);
+		}
+
+		@Override
+		RecordWriter newResumedWriter(OutputStream stream, long position,
+				int count, ContactIndex index) throws IOException {
+			return new BinaryRecordWriter(stream, mPhotoStore, position,
+					index, mStats);
+		}
+
+		@Override
+		RecordWriter newFragmentWriter(OutputStream stream)
+				throws IOException {
+			return new BinaryRecordWriter(stream, mPhotoStore, true, mStats);
+		}
+
+		@Override
+		int getFormat() {
+			return super.getFormat() | FORMAT_BINARY;
+		}
+
+	}
+
+}
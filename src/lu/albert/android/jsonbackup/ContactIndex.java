@@ -0,0 +1,223 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * An index of the contacts in a backup file. For each contact, it records
+ * the contact ID, the position and length of the encoded contact, and a
+ * hash of the contact's name. It is written next to the backup file, so
+ * other programs can find a contact, restore it on its own or count the
+ * contacts without parsing the whole file. The application only reads it
+ * back to continue an interrupted backup.
+ *
+ * Positions refer to the uncompressed contents of the backup file. In a
+ * JSON file, an entry starts after the comma separating it from the
+ * previous contact, and may start with whitespace.
+ *
+ * File format (big endian):
+ *
+ * <pre>
+ * int  magic ("JBIX")
+ * int  version
+ * int  flags (see FLAG_*)
+ * int  number of entries
+ * entries: long id, long offset, int length, int name hash
+ * </pre>
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class ContactIndex {
+
+	/** The index file, stored next to the backup file */
+	static final String FILE_NAME = "contacts.idx";
+
+	/** The backup file is compressed, positions cannot be seeked to */
+	static final int FLAG_COMPRESSED = 1;
+
+	/** The backup file uses the binary codec */
+	static final int FLAG_BINARY = 2;
+
+	private static final int MAGIC = 0x4a424958;
+	private static final int VERSION = 1;
+
+	private int mFlags;
+	private int mSize;
+	private long[] mIds;
+	private long[] mOffsets;
+	private int[] mLengths;
+	private int[] mNameHashes;
+
+	/**
+	 * Constructor
+	 */
+	ContactIndex() {
+		this(16);
+	}
+
+	private ContactIndex(int capacity) {
+		mSize = 0;
+		mIds = new long[capacity];
+		mOffsets = new long[capacity];
+		mLengths = new int[capacity];
+		mNameHashes = new int[capacity];
+	}
+
+	/**
+	 * Add an entry
+	 *
+	 * @param id
+	 *            The contact ID
+	 * @param name
+	 *            The contact name, may be null
+	 * @param offset
+	 *            The position of the encoded contact
+	 * @param length
+	 *            The number of bytes of the encoded contact
+	 */
+	void add(long id, String name, long offset, int length) {
+		add(id, offset, length, nameHash(name));
+	}
+
+	/**
+	 * Add all entries of another index
+	 *
+	 * @param other
+	 *            The other index
+	 * @param base
+	 *            Added to the positions of the other index
+	 */
+	void addAll(ContactIndex other, long base) {
+		for (int i = 0; i < other.mSize; i++) {
+			add(other.mIds[i], base + other.mOffsets[i], other.mLengths[i],
+					other.mNameHashes[i]);
+		}
+	}
+
+	/**
+	 * Remove all entries
+	 */
+	void clear() {
+		mSize = 0;
+	}
+
+	int size() {
+		return mSize;
+	}
+
+	int getFlags() {
+		return mFlags;
+	}
+
+	void setFlags(int flags) {
+		mFlags = flags;
+	}
+
+	/**
+	 * @param name
+	 *            A contact name, may be null
+	 * @return The hash stored in the index: the String.hashCode() of the
+	 *         name in lower case, or 0 if there is no name
+	 */
+	static int nameHash(String name) {
+		if (name == null) {
+			return 0;
+		}
+		return name.toLowerCase(Locale.ENGLISH).hashCode();
+	}
+
+	/**
+	 * Store the index
+	 *
+	 * @param file
+	 *            The destination file
+	 * @throws IOException
+	 *             when the file cannot be written
+	 */
+	void write(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 8192));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(mFlags);
+			out.writeInt(mSize);
+			for (int i = 0; i < mSize; i++) {
+				out.writeLong(mIds[i]);
+				out.writeLong(mOffsets[i]);
+				out.writeInt(mLengths[i]);
+				out.writeInt(mNameHashes[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Load an index stored with {@link #write(File)}
+	 *
+	 * @param file
+	 *            The index file
+	 * @return The index
+	 * @throws IOException
+	 *             when the file cannot be read or is not an index
+	 */
+	static ContactIndex read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file), 8192));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(file + " is not a contact index");
+			}
+			int flags = in.readInt();
+			int size = in.readInt();
+			if (size < 0) {
+				throw new IOException(file + " is corrupt");
+			}
+			ContactIndex index = new ContactIndex(Math.max(size, 1));
+			index.mFlags = flags;
+			for (int i = 0; i < size; i++) {
+				index.add(in.readLong(), in.readLong(), in.readInt(), in
+						.readInt());
+			}
+			return index;
+		} finally {
+			in.close();
+		}
+	}
+
+	private void add(long id, long offset, int length, int nameHash) {
+		if (mSize == mIds.length) {
+			grow();
+		}
+		mIds[mSize] = id;
+		mOffsets[mSize] = offset;
+		mLengths[mSize] = length;
+		mNameHashes[mSize] = nameHash;
+		mSize++;
+	}
+
+	private void grow() {
+		int capacity = mIds.length * 2;
+		long[] ids = new long[capacity];
+		long[] offsets = new long[capacity];
+		int[] lengths = new int[capacity];
+		int[] nameHashes = new int[capacity];
+		System.arraycopy(mIds, 0, ids, 0, mSize);
+		System.arraycopy(mOffsets, 0, offsets, 0, mSize);
+		System.arraycopy(mLengths, 0, lengths, 0, mSize);
+		System.arraycopy(mNameHashes, 0, nameHashes, 0, mSize);
+		mIds = ids;
+		mOffsets = offsets;
+		mLengths = lengths;
+		mNameHashes = nameHashes;
+	}
+
+}
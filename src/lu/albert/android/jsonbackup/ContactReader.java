@@ -0,0 +1,277 @@
+package lu.albert.android.jsonbackup;
+
+import android.database.Cursor;
+import android.provider.Contacts.ContactMethods;
+import android.provider.Contacts.Organizations;
+import android.provider.Contacts.People;
+import android.provider.Contacts.Phones;
+import android.provider.Contacts.Photos;
+
+/**
+ * Reads the contact on which a People cursor is positioned, together with
+ * its sub-table rows, into a {@link Contact}.
+ *
+ * The People and sub-table cursors must contain the columns of
+ * {@link ProviderColumns}, which are exactly the columns read here.
+ *
+ * An instance is bound to one People cursor at a time (see
+ * {@link #setPeople(Cursor)}) and must only be used by one thread at a
+ * time.
+ *
+ * The time spent on each sub-table is recorded in a {@link RunStats}. As
+ * content provider cursors run their query when they are first moved, this
+ * includes the sub-table queries.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class ContactReader {
+
+	private Cursor mPeople;
+	private RunStats.Phase mContactMethodsPhase;
+	private RunStats.Phase mPhotosPhase;
+	private RunStats.Phase mPhonesPhase;
+	private RunStats.Phase mOrganizationsPhase;
+
+	/*
+	 * The column indexes are looked up once to prevent unnecessary method
+	 * calls for each contact
+	 */
+	private int mIdColumn;
+	private int mRingToneColumn;
+	private int mDisplayNameColumn;
+	private int mLastTimeContactedColumn;
+	private int mNameColumn;
+	private int mNotesColumn;
+	private int mPhoneticNameColumn;
+	private int mSendToVoiceMailColumn;
+	private int mStarredColumn;
+	private int mTimesContactedColumn;
+
+	/**
+	 * Constructor
+	 *
+	 * @param people
+	 *            The People cursor
+	 * @param stats
+	 *            Receives the time spent on each sub-table
+	 */
+	ContactReader(Cursor people, RunStats stats) {
+		this(stats);
+		setPeople(people);
+	}
+
+	/**
+	 * Constructor. Call {@link #setPeople(Cursor)} before reading.
+	 *
+	 * @param stats
+	 *            Receives the time spent on each sub-table
+	 */
+	ContactReader(RunStats stats) {
+		mContactMethodsPhase = stats.phase(RunStats.CONTACT_METHODS);
+		mPhotosPhase = stats.phase(RunStats.PHOTOS);
+		mPhonesPhase = stats.phase(RunStats.PHONES);
+		mOrganizationsPhase = stats.phase(RunStats.ORGANIZATIONS);
+	}
+
+	/**
+	 * Read from another People cursor, e.g. the next page of a
+	 * {@link PeoplePager}
+	 *
+	 * @param people
+	 *            The People cursor
+	 */
+	void setPeople(Cursor people) {
+		mPeople = people;
+		mIdColumn = people.getColumnIndex(People._ID);
+		mRingToneColumn = people.getColumnIndex(People.CUSTOM_RINGTONE);
+		mDisplayNameColumn = people.getColumnIndex(People.DISPLAY_NAME);
+		mLastTimeContactedColumn = people
+				.getColumnIndex(People.LAST_TIME_CONTACTED);
+		mNameColumn = people.getColumnIndex(People.NAME);
+		mNotesColumn = people.getColumnIndex(People.NOTES);
+		mPhoneticNameColumn = people.getColumnIndex(People.PHONETIC_NAME);
+		mSendToVoiceMailColumn = people
+				.getColumnIndex(People.SEND_TO_VOICEMAIL);
+		mStarredColumn = people.getColumnIndex(People.STARRED);
+		mTimesContactedColumn = people.getColumnIndex(People.TIMES_CONTACTED);
+	}
+
+	/**
+	 * @return The ID of the contact the People cursor is positioned on
+	 */
+	long getId() {
+		return mPeople.getLong(mIdColumn);
+	}
+
+	/**
+	 * Read the contact the People cursor is positioned on.
+	 *
+	 * @param contactMethods
+	 *            The contact methods sub-table cursor
+	 * @param photos
+	 *            The photos sub-table cursor
+	 * @param phones
+	 *            The phones sub-table cursor
+	 * @param organizations
+	 *            The organizations sub-table cursor
+	 * @return The contact
+	 */
+	Contact read(GroupedCursor contactMethods, GroupedCursor photos,
+			GroupedCursor phones, GroupedCursor organizations) {
+		Contact contact = new Contact();
+		contact.id = getId();
+		contact.name = mPeople.getString(mNameColumn);
+		contact.customRingTone = mPeople.getString(mRingToneColumn);
+		contact.displayName = mPeople.getString(mDisplayNameColumn);
+		contact.lastTimeContacted = mPeople.getString(mLastTimeContactedColumn);
+		contact.notes = mPeople.getString(mNotesColumn);
+		contact.phoneticName = mPeople.getString(mPhoneticNameColumn);
+		contact.sendToVoicemail = mPeople.getString(mSendToVoiceMailColumn);
+		contact.starred = mPeople.getString(mStarredColumn);
+		contact.timesContacted = mPeople.getString(mTimesContactedColumn);
+		// PHOTO_VERSION is not read (nor queried, see ProviderColumns).
+		// Reading it seems buggy...
+
+		long start = System.nanoTime();
+		readContactMethods(contact, contactMethods);
+		mContactMethodsPhase.add(start);
+		start = System.nanoTime();
+		readPhotos(contact, photos);
+		mPhotosPhase.add(start);
+		start = System.nanoTime();
+		readPhoneNumbers(contact, phones);
+		mPhonesPhase.add(start);
+		start = System.nanoTime();
+		readOrganizations(contact, organizations);
+		mOrganizationsPhase.add(start);
+		return contact;
+	}
+
+	/**
+	 * Read the photos of the contact
+	 *
+	 * @param contact
+	 *            The contact. Its "id" field must be set.
+	 * @param rows
+	 *            The sub-table cursor containing the rows of this contact
+	 */
+	private void readPhotos(Contact contact, GroupedCursor rows) {
+		Cursor cursor = rows.getCursor();
+		if (cursor == null) {
+			return;
+		}
+
+		int dataColumn = cursor.getColumnIndex(Photos.DATA);
+
+		if (rows.moveToGroup(contact.id)) {
+			do {
+				byte[] photo = cursor.getBlob(dataColumn);
+				if (photo != null) {
+					contact.photos.add(photo);
+				}
+			} while (rows.moveToNextInGroup(contact.id));
+		}
+	}
+
+	/**
+	 * Read all non-phone contact methods of the contact
+	 *
+	 * @param contact
+	 *            The contact. Its "id" field must be set.
+	 * @param rows
+	 *            The sub-table cursor containing the rows of this contact
+	 */
+	private void readContactMethods(Contact contact, GroupedCursor rows) {
+		Cursor cursor = rows.getCursor();
+		if (cursor == null) {
+			return;
+		}
+
+		int auxDataColumn = cursor.getColumnIndex(ContactMethods.AUX_DATA);
+		int dataColumn = cursor.getColumnIndex(ContactMethods.DATA);
+		int isPrimaryColumn = cursor.getColumnIndex(ContactMethods.ISPRIMARY);
+		int kindColumn = cursor.getColumnIndex(ContactMethods.KIND);
+		int labelColumn = cursor.getColumnIndex(ContactMethods.LABEL);
+		int typeColumn = cursor.getColumnIndex(ContactMethods.TYPE);
+
+		if (rows.moveToGroup(contact.id)) {
+			do {
+				Contact.ContactMethod method = new Contact.ContactMethod();
+				method.isPrimary = (cursor.getInt(isPrimaryColumn) != 0);
+				method.label = cursor.getString(labelColumn);
+				method.type = cursor.getString(typeColumn);
+				method.auxData = cursor.getString(auxDataColumn);
+				method.data = cursor.getString(dataColumn);
+				method.kind = cursor.getString(kindColumn);
+				contact.contactMethods.add(method);
+			} while (rows.moveToNextInGroup(contact.id));
+		}
+	}
+
+	/**
+	 * Read the phone numbers of the contact
+	 *
+	 * @param contact
+	 *            The contact. Its "id" field must be set.
+	 * @param rows
+	 *            The sub-table cursor containing the rows of this contact
+	 */
+	private void readPhoneNumbers(Contact contact, GroupedCursor rows) {
+		Cursor cursor = rows.getCursor();
+		if (cursor == null) {
+			return;
+		}
+
+		int isPrimaryColumn = cursor.getColumnIndex(Phones.ISPRIMARY);
+		int labelColumn = cursor.getColumnIndex(Phones.LABEL);
+		int numberColumn = cursor.getColumnIndex(Phones.NUMBER);
+		int numberKeyColumn = cursor.getColumnIndex(Phones.NUMBER_KEY);
+		int typeColumn = cursor.getColumnIndex(Phones.TYPE);
+
+		if (rows.moveToGroup(contact.id)) {
+			do {
+				Contact.Phone phone = new Contact.Phone();
+				phone.isPrimary = (cursor.getInt(isPrimaryColumn) != 0);
+				phone.label = cursor.getString(labelColumn);
+				phone.number = cursor.getString(numberColumn);
+				phone.numberKey = cursor.getString(numberKeyColumn);
+				phone.type = cursor.getString(typeColumn);
+				contact.phones.add(phone);
+			} while (rows.moveToNextInGroup(contact.id));
+		}
+	}
+
+	/**
+	 * Read the organizations of the contact
+	 *
+	 * @param contact
+	 *            The contact. Its "id" field must be set.
+	 * @param rows
+	 *            The sub-table cursor containing the rows of this contact
+	 */
+	private void readOrganizations(Contact contact, GroupedCursor rows) {
+		Cursor cursor = rows.getCursor();
+		if (cursor == null) {
+			return;
+		}
+
+		int isPrimaryColumn = cursor.getColumnIndex(Organizations.ISPRIMARY);
+		int labelColumn = cursor.getColumnIndex(Organizations.LABEL);
+		int typeColumn = cursor.getColumnIndex(Organizations.TYPE);
+		int companyColumn = cursor.getColumnIndex(Organizations.COMPANY);
+		int titleColumn = cursor.getColumnIndex(Organizations.TITLE);
+
+		if (rows.moveToGroup(contact.id)) {
+			do {
+				Contact.Organization org = new Contact.Organization();
+				org.isPrimary = (cursor.getInt(isPrimaryColumn) != 0);
+				org.label = cursor.getString(labelColumn);
+				org.title = cursor.getString(titleColumn);
+				org.company = cursor.getString(companyColumn);
+				org.type = cursor.getString(typeColumn);
+				contact.organizations.add(org);
+			} while (rows.moveToNextInGroup(contact.id));
+		}
+	}
+
+}
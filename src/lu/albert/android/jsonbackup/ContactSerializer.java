@@ -0,0 +1,242 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import lu.albert.android.jsonbackup.schema.ContactColumns;
+import lu.albert.android.jsonbackup.schema.ContactColumns.OrganizationColumns;
+import lu.albert.android.jsonbackup.schema.ShortContactColumns;
+
+/**
+ * Writes a {@link Contact} as JSON object, using the keys defined in
+ * {@link ContactColumns} (or {@link ShortContactColumns}, depending on the
+ * output profile).
+ * 
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class ContactSerializer {
+
+	private boolean mShortKeys;
+	private PhotoStore mPhotoStore;
+	private RunStats.Phase mBase64Phase;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param profile
+	 *            The output profile, one of the BackupThread.PROFILE_*
+	 *            constants
+	 * @param photoStore
+	 *            If not null, photos are put into this store and only their
+	 *            hashes are written
+	 * @param stats
+	 *            Receives the time spent encoding photos
+	 */
+	ContactSerializer(int profile, PhotoStore photoStore, RunStats stats) {
+		mShortKeys = (profile == BackupThread.PROFILE_SHORT_KEYS);
+		mPhotoStore = photoStore;
+		mBase64Phase = stats.phase(RunStats.BASE64);
+	}
+
+	/**
+	 * Create a JSON writer which is set up for the given output profile
+	 * 
+	 * @param stream
+	 *            The stream to write to
+	 * @param profile
+	 *            The output profile, one of the BackupThread.PROFILE_*
+	 *            constants
+	 * @return The new writer
+	 */
+	static JsonStreamWriter createWriter(OutputStream stream, int profile) {
+		JsonStreamWriter out = new JsonStreamWriter(stream);
+		if (profile == BackupThread.PROFILE_PRETTY) {
+			out.setIndent(3);
+		}
+		return out;
+	}
+
+	/**
+	 * Write a contact as JSON object.
+	 * 
+	 * @param out
+	 *            The JSON output
+	 * @param contact
+	 *            The contact
+	 * @throws IOException
+	 *             Thrown when the output cannot be written
+	 */
+	void write(JsonStreamWriter out, Contact contact) throws IOException {
+		out.beginObject();
+		out.name(key(ContactColumns.ID)).value(contact.id);
+		putString(out, ContactColumns.NAME, contact.name);
+		putString(out, ContactColumns.CUSTOM_RING_TONE, contact.customRingTone);
+		putString(out, ContactColumns.DISPLAY_NAME, contact.displayName);
+		putString(out, ContactColumns.LAST_TIME_CONTACTED,
+				contact.lastTimeContacted);
+		putString(out, ContactColumns.NOTES, contact.notes);
+		putString(out, ContactColumns.PHONETIC_NAME, contact.phoneticName);
+		putString(out, ContactColumns.SEND_TO_VOICEMAIL,
+				contact.sendToVoicemail);
+		putString(out, ContactColumns.STARRED, contact.starred);
+		putString(out, ContactColumns.TIMES_CONTACTED, contact.timesContacted);
+
+		appendContactMethods(out, contact);
+		appendPhotos(out, contact);
+		appendPhoneNumbers(out, contact);
+		appendOrganizations(out, contact);
+		out.endObject();
+	}
+
+	/**
+	 * Write a string member to the current object. Null values are left out
+	 * entirely, as org.json's JSONObject used to do.
+	 * 
+	 * @param out The JSON output
+	 * @param name The member name
+	 * @param value The value, may be null
+	 * @throws IOException when the output cannot be written
+	 */
+	private void putString(JsonStreamWriter out, String name,
+			String value) throws IOException {
+		if (value != null) {
+			out.name(key(name)).value(value);
+		}
+	}
+
+	/**
+	 * @param name A key as defined in {@link ContactColumns}
+	 * @return The key as it is written with the current output profile
+	 */
+	private String key(String name) {
+		if (mShortKeys) {
+			return ShortContactColumns.shorten(name);
+		}
+		return name;
+	}
+
+	/**
+	 * Append photos as Base64 encoded strings to the contact which is
+	 * currently written. The photos are encoded on the fly into the output
+	 * stream, so no encoded copy is held in memory.
+	 * 
+	 * If a photo store is used, the photos array is left empty (for readers
+	 * which do not know the store) and the hashes of the photos are written
+	 * instead.
+	 * 
+	 * @param out
+	 *            The JSON output, positioned inside the contact object
+	 * @param contact
+	 *            The contact
+	 * @throws IOException
+	 *             Thrown when the output cannot be written
+	 */
+	private void appendPhotos(JsonStreamWriter out, Contact contact)
+			throws IOException {
+		out.name(key(ContactColumns.PHOTOS)).beginArray();
+		if (mPhotoStore == null) {
+			for (byte[] photo : contact.photos) {
+				long start = System.nanoTime();
+				out.base64Value(photo);
+				mBase64Phase.add(start, photo.length);
+			}
+		}
+		out.endArray();
+
+		if (mPhotoStore != null && !contact.photos.isEmpty()) {
+			out.name(key(ContactColumns.PHOTO_REFS)).beginArray();
+			for (byte[] photo : contact.photos) {
+				out.value(mPhotoStore.put(photo));
+			}
+			out.endArray();
+		}
+	}
+	
+	/**
+	 * Append all non-phone contact methods to the contact which is currently
+	 * written
+	 * 
+	 * @param out
+	 *            The JSON output, positioned inside the contact object
+	 * @param contact
+	 *            The contact
+	 * @throws IOException
+	 *             Thrown when the output cannot be written
+	 */
+	private void appendContactMethods(JsonStreamWriter out, Contact contact)
+			throws IOException {
+		out.name(key(ContactColumns.CONTACT_METHODS)).beginArray();
+		for (Contact.ContactMethod method : contact.contactMethods) {
+			out.beginObject();
+			out.name(key(ContactColumns.ContactMethodColumns.IS_PRIMARY))
+					.value(method.isPrimary);
+			putString(out, ContactColumns.ContactMethodColumns.LABEL,
+					method.label);
+			putString(out, ContactColumns.ContactMethodColumns.TYPE,
+					method.type);
+			putString(out, ContactColumns.ContactMethodColumns.AUX_DATA,
+					method.auxData);
+			putString(out, ContactColumns.ContactMethodColumns.DATA,
+					method.data);
+			putString(out, ContactColumns.ContactMethodColumns.KIND,
+					method.kind);
+			out.endObject();
+		}
+		out.endArray();
+	}
+
+	/**
+	 * Append a list of phone numbers to the contact which is currently
+	 * written
+	 * 
+	 * @param out
+	 *            The JSON output, positioned inside the contact object
+	 * @param contact
+	 *            The contact
+	 * @throws IOException
+	 *             Thrown when the output cannot be written
+	 */
+	private void appendPhoneNumbers(JsonStreamWriter out, Contact contact)
+			throws IOException {
+		out.name(key(ContactColumns.PHONE_NUMBERS)).beginArray();
+		for (Contact.Phone phone : contact.phones) {
+			out.beginObject();
+			out.name(key(ContactColumns.PhoneColumns.IS_PRIMARY))
+					.value(phone.isPrimary);
+			putString(out, ContactColumns.PhoneColumns.LABEL, phone.label);
+			putString(out, ContactColumns.PhoneColumns.NUMBER, phone.number);
+			putString(out, ContactColumns.PhoneColumns.NUMBER_KEY,
+					phone.numberKey);
+			putString(out, ContactColumns.PhoneColumns.TYPE, phone.type);
+			out.endObject();
+		}
+		out.endArray();
+	}
+
+	/**
+	 * Append a list of organizations to the contact which is currently
+	 * written
+	 * 
+	 * @param out
+	 *            The JSON output, positioned inside the contact object
+	 * @param contact
+	 *            The contact
+	 * @throws IOException
+	 *             Thrown when the output cannot be written
+	 */
+	private void appendOrganizations(JsonStreamWriter out, Contact contact)
+			throws IOException {
+		out.name(key(ContactColumns.ORGANIZATIONS)).beginArray();
+		for (Contact.Organization org : contact.organizations) {
+			out.beginObject();
+			out.name(key(OrganizationColumns.IS_PRIMARY)).value(org.isPrimary);
+			putString(out, OrganizationColumns.LABEL, org.label);
+			putString(out, OrganizationColumns.TITLE, org.title);
+			putString(out, OrganizationColumns.COMPANY, org.company);
+			putString(out, OrganizationColumns.TYPE, org.type);
+			out.endObject();
+		}
+		out.endArray();
+	}
+
+}
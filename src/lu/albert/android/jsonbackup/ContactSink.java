@@ -0,0 +1,44 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.IOException;
+
+/**
+ * Receives the contacts read from a backup file. The restore logic only
+ * depends on this interface, so it can be run against the device's contact
+ * provider ({@link ProviderContactSink}) or against memory
+ * ({@link MemoryContactSink}).
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+interface ContactSink {
+
+	/**
+	 * Store one contact
+	 *
+	 * @param contact
+	 *            The contact
+	 * @throws IOException
+	 *             when the contact cannot be stored
+	 */
+	void store(Contact contact) throws IOException;
+
+	/**
+	 * Delete a contact which has been stored before, e.g. by an earlier
+	 * restore. Deleting a contact which does not exist is not an error.
+	 *
+	 * @param id
+	 *            The ID of the contact
+	 * @throws IOException
+	 *             when the contact cannot be deleted
+	 */
+	void delete(long id) throws IOException;
+
+	/**
+	 * Finish storing contacts and release all resources held by this sink
+	 *
+	 * @throws IOException
+	 *             when pending contacts cannot be stored
+	 */
+	void close() throws IOException;
+
+}
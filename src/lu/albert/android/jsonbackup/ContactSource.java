@@ -0,0 +1,35 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.IOException;
+
+/**
+ * Supplies the contacts to back up, one at a time, in ascending ID order.
+ * The backup logic only depends on this interface, so it can be run
+ * against the device's contact provider ({@link ProviderContactSource}) or
+ * against contacts held in memory ({@link MemoryContactSource}).
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+interface ContactSource {
+
+	/**
+	 * @return The number of contacts this source will return, or -1 if it
+	 *         is not known
+	 */
+	int getCount();
+
+	/**
+	 * Read the next contact
+	 *
+	 * @return The contact, or null if there are no more contacts
+	 * @throws IOException
+	 *             when the contacts cannot be read
+	 */
+	Contact next() throws IOException;
+
+	/**
+	 * Release all resources held by this source
+	 */
+	void close();
+
+}
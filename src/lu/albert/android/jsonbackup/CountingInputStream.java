@@ -0,0 +1,63 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from a stream
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class CountingInputStream extends FilterInputStream {
+
+	private long mCount;
+
+	/**
+	 * Constructor
+	 *
+	 * @param in
+	 *            The underlying stream
+	 */
+	CountingInputStream(InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b >= 0) {
+			mCount++;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		int read = super.read(buffer, offset, length);
+		if (read > 0) {
+			mCount += read;
+		}
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		mCount += skipped;
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	/**
+	 * @return The number of bytes read or skipped so far
+	 */
+	long getCount() {
+		return mCount;
+	}
+
+}
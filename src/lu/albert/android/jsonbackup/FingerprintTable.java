@@ -0,0 +1,344 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A compact table with one entry per contact of a backup file: the contact
+ * ID, a hash of the contact's content and the position of the serialized
+ * contact in the backup file.
+ *
+ * The entries are kept in parallel arrays sorted by contact ID, which needs
+ * far less memory than one object per entry.
+ *
+ * File format (big endian):
+ *
+ * <pre>
+ * int  magic ("JBFP")
+ * int  version
+ * int  output format of the backup file
+ * long size of the backup file
+ * int  number of entries
+ * entries: long id, long hash, long offset, int length
+ * </pre>
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class FingerprintTable {
+
+	private static final int MAGIC = 0x4a424650;
+	private static final int VERSION = 1;
+
+	private int mFormat;
+	private long mFileSize;
+	private int mSize;
+	private long[] mIds;
+	private long[] mHashes;
+	private long[] mOffsets;
+	private int[] mLengths;
+
+	/**
+	 * Constructor
+	 *
+	 * @param format
+	 *            The output format of the backup file: the output profile,
+	 *            plus flags for all other options which change the
+	 *            serialized bytes
+	 */
+	FingerprintTable(int format) {
+		this(format, 256);
+	}
+
+	private FingerprintTable(int format, int capacity) {
+		mFormat = format;
+		mSize = 0;
+		mIds = new long[capacity];
+		mHashes = new long[capacity];
+		mOffsets = new long[capacity];
+		mLengths = new int[capacity];
+	}
+
+	/**
+	 * Add an entry. Entries must be added in ascending ID order.
+	 *
+	 * @param id
+	 *            The contact ID
+	 * @param hash
+	 *            The hash of the contact, see {@link #fingerprint(Contact)}
+	 * @param offset
+	 *            The position of the serialized contact in the backup file
+	 * @param length
+	 *            The number of bytes of the serialized contact
+	 */
+	void add(long id, long hash, long offset, int length) {
+		if (mSize > 0 && id <= mIds[mSize - 1]) {
+			throw new IllegalArgumentException("IDs must be added in ascending order");
+		}
+		if (mSize == mIds.length) {
+			grow();
+		}
+		mIds[mSize] = id;
+		mHashes[mSize] = hash;
+		mOffsets[mSize] = offset;
+		mLengths[mSize] = length;
+		mSize++;
+	}
+
+	/**
+	 * @param id
+	 *            A contact ID
+	 * @return The index of the entry of this contact, or -1 if there is none
+	 */
+	int find(long id) {
+		return SortedIds.find(mIds, mSize, id);
+	}
+
+	long getHash(int index) {
+		return mHashes[index];
+	}
+
+	long getOffset(int index) {
+		return mOffsets[index];
+	}
+
+	int getLength(int index) {
+		return mLengths[index];
+	}
+
+	int size() {
+		return mSize;
+	}
+
+	int getFormat() {
+		return mFormat;
+	}
+
+	/**
+	 * @return The size of the backup file this table describes
+	 */
+	long getFileSize() {
+		return mFileSize;
+	}
+
+	/**
+	 * @param size
+	 *            The size of the backup file this table describes
+	 */
+	void setFileSize(long size) {
+		mFileSize = size;
+	}
+
+	/**
+	 * Store the table. It is written to a temporary file first, so a
+	 * failure never leaves a truncated table behind.
+	 *
+	 * @param file
+	 *            The destination file
+	 * @throws IOException
+	 *             when the file cannot be written
+	 */
+	void write(File file) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(temp), 8192));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(mFormat);
+			out.writeLong(mFileSize);
+			out.writeInt(mSize);
+			for (int i = 0; i < mSize; i++) {
+				out.writeLong(mIds[i]);
+				out.writeLong(mHashes[i]);
+				out.writeLong(mOffsets[i]);
+				out.writeInt(mLengths[i]);
+			}
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Unable to replace " + file);
+		}
+	}
+
+	/**
+	 * Load a table stored with {@link #write(File)}
+	 *
+	 * @param file
+	 *            The table file
+	 * @return The table, or null if the file does not exist or is not a
+	 *         valid table
+	 */
+	static FingerprintTable read(File file) {
+		if (!file.exists()) {
+			return null;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file), 8192));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null;
+			}
+			int format = in.readInt();
+			long fileSize = in.readLong();
+			int size = in.readInt();
+			if (size < 0) {
+				return null;
+			}
+			FingerprintTable table = new FingerprintTable(format, Math.max(
+					size, 1));
+			table.mFileSize = fileSize;
+			for (int i = 0; i < size; i++) {
+				table.add(in.readLong(), in.readLong(), in.readLong(),
+						in.readInt());
+			}
+			return table;
+		} catch (IOException e) {
+			return null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// nothing left to do
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compute a hash over all values of a contact which end up in the backup
+	 * file. Two contacts with the same hash are serialized to the same bytes
+	 * (using the same output format).
+	 *
+	 * @param contact
+	 *            The contact
+	 * @return The first 64 bits of the MD5 digest of the contact
+	 */
+	static long fingerprint(Contact contact) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("MD5 is not available", e);
+		}
+		DataOutputStream out = new DataOutputStream(new DigestOutputStream(
+				new NullOutputStream(), digest));
+		try {
+			out.writeLong(contact.id);
+			putString(out, contact.name);
+			putString(out, contact.customRingTone);
+			putString(out, contact.displayName);
+			putString(out, contact.lastTimeContacted);
+			putString(out, contact.notes);
+			putString(out, contact.phoneticName);
+			putString(out, contact.sendToVoicemail);
+			putString(out, contact.starred);
+			putString(out, contact.timesContacted);
+
+			out.writeInt(contact.contactMethods.size());
+			for (Contact.ContactMethod method : contact.contactMethods) {
+				out.writeBoolean(method.isPrimary);
+				putString(out, method.label);
+				putString(out, method.type);
+				putString(out, method.auxData);
+				putString(out, method.data);
+				putString(out, method.kind);
+			}
+
+			out.writeInt(contact.photos.size());
+			for (byte[] photo : contact.photos) {
+				out.writeInt(photo.length);
+				out.write(photo);
+			}
+
+			out.writeInt(contact.phones.size());
+			for (Contact.Phone phone : contact.phones) {
+				out.writeBoolean(phone.isPrimary);
+				putString(out, phone.label);
+				putString(out, phone.number);
+				putString(out, phone.numberKey);
+				putString(out, phone.type);
+			}
+
+			out.writeInt(contact.organizations.size());
+			for (Contact.Organization org : contact.organizations) {
+				out.writeBoolean(org.isPrimary);
+				putString(out, org.label);
+				putString(out, org.title);
+				putString(out, org.company);
+				putString(out, org.type);
+			}
+			out.flush();
+		} catch (IOException e) {
+			// cannot happen, nothing is written to disk
+			throw new RuntimeException(e);
+		}
+
+		byte[] hash = digest.digest();
+		long result = 0;
+		for (int i = 0; i < 8; i++) {
+			result = (result << 8) | (hash[i] & 0xff);
+		}
+		return result;
+	}
+
+	/**
+	 * Hash a string so that null, "" and adjacent values cannot be confused
+	 */
+	private static void putString(DataOutputStream out, String value)
+			throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(value.length());
+			out.writeChars(value);
+		}
+	}
+
+	private void grow() {
+		int capacity = mIds.length * 2;
+		mIds = grow(mIds, capacity);
+		mHashes = grow(mHashes, capacity);
+		mOffsets = grow(mOffsets, capacity);
+		int[] lengths = new int[capacity];
+		System.arraycopy(mLengths, 0, lengths, 0, mSize);
+		mLengths = lengths;
+	}
+
+	private long[] grow(long[] values, int capacity) {
+		long[] grown = new long[capacity];
+		System.arraycopy(values, 0, grown, 0, mSize);
+		return grown;
+	}
+
+	/**
+	 * Discards everything. Only the digest of the data is needed.
+	 */
+	private static class NullOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+
+	}
+
+}
@@ -0,0 +1,94 @@
+package lu.albert.android.jsonbackup;
+
+import android.database.Cursor;
+
+/**
+ * Walks a cursor over one of the contact sub-tables (phones, photos, ...)
+ * which is sorted by the person ID. The cursor is advanced in lock-step with
+ * the People cursor (sorted by _ID) so that all rows of one contact can be
+ * read without issuing a new query for each contact (a "merge-join").
+ *
+ * A cursor which has been filtered on one person ID can also be wrapped. In
+ * that case every row simply belongs to the requested contact.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class GroupedCursor {
+
+	private Cursor mCursor;
+	private int mPersonColumn;
+	private boolean mHasRow;
+
+	/**
+	 * Constructor
+	 *
+	 * @param cursor
+	 *            The cursor to wrap. It must be sorted ascending on the
+	 *            person ID. May be null, in which case the wrapper behaves
+	 *            like an empty cursor.
+	 * @param personIdColumn
+	 *            The name of the column containing the person ID
+	 */
+	GroupedCursor(Cursor cursor, String personIdColumn) {
+		mCursor = cursor;
+		if (cursor != null) {
+			mPersonColumn = cursor.getColumnIndex(personIdColumn);
+			mHasRow = cursor.moveToFirst();
+		} else {
+			mPersonColumn = -1;
+			mHasRow = false;
+		}
+	}
+
+	/**
+	 * Skips all rows belonging to contacts with a lower ID than the given one.
+	 *
+	 * @param personId
+	 *            The ID of the contact which is currently dumped
+	 * @return true if the cursor now points to the first row of the given
+	 *         contact, false if that contact has no rows.
+	 */
+	boolean moveToGroup(long personId) {
+		while (mHasRow && mCursor.getLong(mPersonColumn) < personId) {
+			mHasRow = mCursor.moveToNext();
+		}
+		return belongsTo(personId);
+	}
+
+	/**
+	 * Moves to the next row of the given contact
+	 *
+	 * @param personId
+	 *            The ID of the contact which is currently dumped
+	 * @return false if there are no more rows for that contact
+	 */
+	boolean moveToNextInGroup(long personId) {
+		if (mHasRow) {
+			mHasRow = mCursor.moveToNext();
+		}
+		return belongsTo(personId);
+	}
+
+	/**
+	 * @return The underlying cursor. Use it to read the column values of the
+	 *         current row. It must not be moved directly!
+	 */
+	Cursor getCursor() {
+		return mCursor;
+	}
+
+	/**
+	 * Close the underlying cursor
+	 */
+	void close() {
+		if (mCursor != null) {
+			mCursor.close();
+		}
+		mHasRow = false;
+	}
+
+	private boolean belongsTo(long personId) {
+		return mHasRow && mCursor.getLong(mPersonColumn) == personId;
+	}
+
+}
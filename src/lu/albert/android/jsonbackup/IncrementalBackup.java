@@ -0,0 +1,221 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.Contacts.ContactMethods;
+import android.provider.Contacts.Organizations;
+import android.provider.Contacts.Phones;
+import android.provider.Contacts.Photos;
+import android.util.Log;
+
+/**
+ * A backup engine which only serializes contacts that changed since the
+ * previous backup.
+ *
+ * Next to the backup file, a {@link FingerprintTable} is stored. It holds a
+ * hash of every contact and the position of its bytes in the backup file.
+ * On the next run, each contact is read and hashed. If the hash matches the
+ * table of the previous backup, the bytes of the contact are copied from the
+ * previous file verbatim. Only new and changed contacts are encoded again.
+ *
+ * The old contacts API has no modification timestamps, so all contacts still
+ * have to be read (using one merge-joined query per table). The savings come
+ * from skipping the encoding of unchanged contacts.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class IncrementalBackup {
+
+	/** The file containing the fingerprints of the last backup */
+	static final String FINGERPRINT_FILE_NAME = "contacts.fingerprints";
+
+	/** The previous backup is kept under this suffix while a backup runs */
+	static final String PREVIOUS_SUFFIX = ".prev";
+
+	private BackupThread mThread;
+	private ContentResolver mResolver;
+	private ContactCodec mCodec;
+	private File mFolder;
+	private FingerprintTable mTable;
+
+	/**
+	 * Constructor
+	 *
+	 * @param thread
+	 *            The backup thread. Used to report progress and to check if
+	 *            the backup has been cancelled.
+	 * @param resolver
+	 *            The content resolver used to query the sub-tables
+	 * @param codec
+	 *            The codec used to encode the contacts
+	 * @param folder
+	 *            The folder containing the backup and fingerprint files
+	 */
+	IncrementalBackup(BackupThread thread, ContentResolver resolver,
+			ContactCodec codec, File folder) {
+		mThread = thread;
+		mResolver = resolver;
+		mCodec = codec;
+		mFolder = folder;
+	}
+
+	/**
+	 * Move an existing backup file out of the way, so its contents can be
+	 * copied into the new backup file. This must be called before the new
+	 * backup file is created.
+	 *
+	 * @param backup
+	 *            The backup file
+	 * @return The previous backup file, or null if there was none
+	 */
+	static File keepPrevious(File backup) {
+		File previous = new File(backup.getPath() + PREVIOUS_SUFFIX);
+		if (backup.exists() && backup.renameTo(previous)) {
+			return previous;
+		}
+		return null;
+	}
+
+	/**
+	 * Delete the fingerprints of the last backup. This must be called when
+	 * the backup file is written without updating the fingerprints, as they
+	 * would no longer match the file.
+	 *
+	 * @param folder
+	 *            The folder containing the backup and fingerprint files
+	 */
+	static void discardFingerprints(File folder) {
+		new File(folder, FINGERPRINT_FILE_NAME).delete();
+	}
+
+	/**
+	 * Serialize all contacts and append them to the output. Call
+	 * {@link #commit(File)} once the backup file is complete.
+	 *
+	 * @param people
+	 *            The People cursor, sorted by ID
+	 * @param out
+	 *            The backup file
+	 * @param previous
+	 *            The previous backup file, or null
+	 * @throws IOException
+	 *             when the output cannot be written
+	 */
+	void write(Cursor people, RecordWriter out, File previous)
+			throws IOException {
+		FingerprintTable old = FingerprintTable.read(new File(mFolder,
+				FINGERPRINT_FILE_NAME));
+		int format = mCodec.getFormat();
+		RandomAccessFile source = null;
+		if (old != null && old.getFormat() == format && previous != null
+				&& previous.length() == old.getFileSize()) {
+			source = new RandomAccessFile(previous, "r");
+		} else {
+			old = null;
+		}
+
+		int total = people.getCount();
+		FingerprintTable table = new FingerprintTable(format);
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		ContactIndex entry = new ContactIndex();
+		byte[] copy = new byte[0];
+		int copied = 0;
+
+		GroupedCursor contactMethods = query(ContactMethods.CONTENT_URI,
+				ProviderColumns.CONTACT_METHODS, ContactMethods.PERSON_ID);
+		GroupedCursor photos = query(Photos.CONTENT_URI,
+				ProviderColumns.PHOTOS, Photos.PERSON_ID);
+		GroupedCursor phones = query(Phones.CONTENT_URI,
+				ProviderColumns.PHONES, Phones.PERSON_ID);
+		GroupedCursor organizations = query(Organizations.CONTENT_URI,
+				ProviderColumns.ORGANIZATIONS, Organizations.PERSON_ID);
+		try {
+			if (people.moveToFirst()) {
+				ContactReader reader = new ContactReader(people, mThread
+						.getStats());
+				do {
+					Contact contact = reader.read(contactMethods, photos,
+							phones, organizations);
+					long hash = FingerprintTable.fingerprint(contact);
+
+					byte[] data;
+					int length;
+					int index = old == null ? -1 : old.find(contact.id);
+					if (index >= 0 && old.getHash(index) == hash) {
+						length = old.getLength(index);
+						if (copy.length < length) {
+							copy = new byte[length];
+						}
+						source.seek(old.getOffset(index));
+						source.readFully(copy, 0, length);
+						data = copy;
+						copied++;
+					} else {
+						buffer.reset();
+						RecordWriter element = mCodec
+								.newFragmentWriter(buffer);
+						element.write(contact);
+						element.close();
+						data = buffer.toByteArray();
+						length = data.length;
+					}
+
+					entry.clear();
+					entry.add(contact.id, contact.name, 0, length);
+					out.append(data, 0, length, entry);
+					table.add(contact.id, hash, out.getPosition() - length,
+							length);
+					mThread.reportProgress(people.getPosition() + 1, total);
+				} while (mThread.isRunning() && people.moveToNext());
+			}
+		} finally {
+			if (source != null) {
+				source.close();
+			}
+			contactMethods.close();
+			photos.close();
+			phones.close();
+			organizations.close();
+		}
+
+		Log.i(JsonBackup.TAG, String.format(
+				"Incremental backup: %d of %d contacts copied", copied, table
+						.size()));
+
+		/* A cancelled backup is incomplete, its fingerprints are useless */
+		mTable = (table.size() == total) ? table : null;
+	}
+
+	/**
+	 * Store the fingerprints of the new backup file, or delete the old ones
+	 * if the backup was cancelled.
+	 *
+	 * @param backup
+	 *            The new backup file, which must be closed
+	 * @throws IOException
+	 *             when the fingerprint file cannot be written
+	 */
+	void commit(File backup) throws IOException {
+		File fingerprintFile = new File(mFolder, FINGERPRINT_FILE_NAME);
+		if (mTable == null) {
+			fingerprintFile.delete();
+			return;
+		}
+		mTable.setFileSize(backup.length());
+		mTable.write(fingerprintFile);
+	}
+
+	private GroupedCursor query(Uri uri, String[] projection,
+			String personIdColumn) {
+		Cursor cursor = mResolver.query(uri, projection, null, null,
+				personIdColumn + " ASC");
+		return new GroupedCursor(cursor, personIdColumn);
+	}
+
+}
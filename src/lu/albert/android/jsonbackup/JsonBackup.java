@@ -42,6 +42,7 @@ public class JsonBackup extends Activity {
 	private static final int MENU_EULA = Menu.FIRST;
 	private static final int MENU_LICENSE = Menu.FIRST + 1;
 	private static final int MENU_USAGE = Menu.FIRST + 2;
+	private static final int MENU_SETTINGS = Menu.FIRST + 3;
 	
 	private static final int DIALOG_CONFIRM_OVERWRITE = 0;
 	private static final int DIALOG_CANCELLED = 1;
@@ -56,8 +57,15 @@ public class JsonBackup extends Activity {
 
 	private static int ACTIVITY_VIEW_LICENSE = 0;
 	
+	/**
+	 * A handler message type for the restore progress, sent through a
+	 * {@link ProgressReporter}: the position is in arg1, the total in arg2,
+	 * and the name of the last restored contact (if any) in obj.
+	 */
 	protected static final int RESTORE_MSG_PROGRESS = 0;
-	protected static final int RESTORE_MSG_INFO = 1;
+
+	/** The backup progress, laid out as {@link #RESTORE_MSG_PROGRESS} */
+	protected static final int BACKUP_MSG_PROGRESS = 0;
 	
 	/** 
 	 * A handler message type for errors. If a message of this kind is
@@ -70,6 +78,61 @@ public class JsonBackup extends Activity {
 	/** The preferences name */
 	public static final String PREFS_NAME = "lu.albert.android.jsonbackup.prefs";
 
+	/**
+	 * The preference key for the backup output profile. The value is one of
+	 * the BackupThread.PROFILE_* constants, stored as string.
+	 */
+	public static final String PREF_OUTPUT_PROFILE = "outputProfile";
+
+	/**
+	 * The preference key for the backup engine. The value is one of the
+	 * BackupThread.ENGINE_* constants, stored as string.
+	 */
+	public static final String PREF_BACKUP_ENGINE = "backupEngine";
+
+	/**
+	 * The preference key for keeping photos in a separate photo store
+	 */
+	public static final String PREF_PHOTO_STORE = "photoStore";
+
+	/**
+	 * The preference key for the compression level of the backup file
+	 */
+	public static final String PREF_COMPRESSION_LEVEL = "compressionLevel";
+
+	/**
+	 * The preference key for the encoding of the backup file
+	 */
+	public static final String PREF_BACKUP_FORMAT = "backupFormat";
+
+	/**
+	 * The preference key for the size of the backup output buffer (bytes)
+	 */
+	public static final String PREF_BUFFER_SIZE = "bufferSize";
+
+	/**
+	 * The preference key for the number of contacts read per query
+	 */
+	public static final String PREF_PAGE_SIZE = "pageSize";
+
+	/**
+	 * The preference key for the number of rows written per provider call
+	 * during a restore. 0 adapts the batch size to the commit latency.
+	 */
+	public static final String PREF_BATCH_SIZE = "batchSize";
+
+	/**
+	 * The preference key for decoding the backup file on a thread of its
+	 * own during a restore
+	 */
+	public static final String PREF_PIPELINED_RESTORE = "pipelinedRestore";
+
+	/**
+	 * The preference key for restoring only the contacts which differ from
+	 * those on the device, instead of replacing all contacts
+	 */
+	public static final String PREF_MERGE_RESTORE = "mergeRestore";
+
 	/** The tag used in the logging facility */
 	public static final String TAG = "JsonBackup";
 
@@ -87,8 +150,8 @@ public class JsonBackup extends Activity {
 	 */
 	final Handler dumpHandler = new Handler() {
 		public void handleMessage(Message msg) {
-			int position = msg.getData().getInt("position");
-			int total = msg.getData().getInt("total");
+			int position = msg.arg1;
+			int total = msg.arg2;
 			mProgressDialog.setProgress(position);
 			mProgressDialog.setIndeterminate(false);
 			mProgressDialog.setMax(total);
@@ -109,11 +172,14 @@ public class JsonBackup extends Activity {
 			
 			switch ( msg.what ){
 			case RESTORE_MSG_PROGRESS:
-				long position = msg.getData().getLong("position");
-				long total = msg.getData().getLong("total");
-				mProgressDialog.setProgress((int)position);
+				int position = msg.arg1;
+				int total = msg.arg2;
+				if (msg.obj != null) {
+					mProgressDialog.setMessage( getString( R.string.restored_s, msg.obj ) );
+				}
+				mProgressDialog.setProgress(position);
 				mProgressDialog.setIndeterminate(false);
-				mProgressDialog.setMax((int)total);
+				mProgressDialog.setMax(total);
 				if (position >= total) {
 					removeDialog(DIALOG_RESTORE_PROGRESS);
 					mRestoreThread.setState(BackupThread.STATE_DONE);
@@ -121,14 +187,13 @@ public class JsonBackup extends Activity {
 				}
 				break;
 			case RESTORE_SHOW_ERROR:
+				/* A failed restore never reports its end */
+				removeDialog(DIALOG_RESTORE_PROGRESS);
+				mRestoreThread.setState(BackupThread.STATE_DONE);
 				String message = msg.getData().getString("message");
 				mErrorDialog.setMessage(message);
 				showDialog(DIALOG_ERROR);
 				break;
-			case RESTORE_MSG_INFO:
-				String name = msg.getData().getString("name");
-				mProgressDialog.setMessage( getString( R.string.restored_s, name ) );
-				break;
 			default:
 				// do nothing
 				break;
@@ -144,6 +209,8 @@ public class JsonBackup extends Activity {
 		.setIcon(android.R.drawable.ic_menu_help);
 	    menu.add(0, MENU_LICENSE, 0, "License")
 	    	.setIcon(android.R.drawable.ic_menu_agenda);
+	    menu.add(0, MENU_SETTINGS, 0, R.string.settings)
+	    	.setIcon(android.R.drawable.ic_menu_preferences);
 	    return true;
 	}
 
@@ -164,6 +231,9 @@ public class JsonBackup extends Activity {
 	    	intent.putExtra(HtmlView.KEY_DOC_ID, R.raw.usage);
 	    	startActivityForResult(intent, ACTIVITY_VIEW_LICENSE );
 	        return true;
+	    case MENU_SETTINGS:
+	    	startActivity(new Intent(this, Preferences.class));
+	        return true;
 	    }
 	    return false;
 	}
@@ -198,6 +268,26 @@ public class JsonBackup extends Activity {
 		return new File( Environment.getExternalStorageDirectory(), DATA_FOLDER );
 	}
 	
+	/**
+	 * Read an integer setting. ListPreference stores its values as strings,
+	 * so they have to be converted.
+	 * 
+	 * @param key The preference key
+	 * @param defaultValue The value used if the setting is missing or invalid
+	 * @return The setting value
+	 */
+	protected int getIntPreference( String key, int defaultValue ){
+		String value = getSharedPreferences(PREFS_NAME, 0).getString(key, null);
+		if ( value == null ){
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+	
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
@@ -383,6 +473,20 @@ public class JsonBackup extends Activity {
 			mProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
 			mProgressDialog.setMessage(getString(R.string.serializing));
 			mProgressThread = new BackupThread(dumpHandler, this);
+			mProgressThread.setOutputProfile(getIntPreference(
+					PREF_OUTPUT_PROFILE, BackupThread.PROFILE_PRETTY));
+			mProgressThread.setEngine(getIntPreference(
+					PREF_BACKUP_ENGINE, BackupThread.ENGINE_SEQUENTIAL));
+			mProgressThread.setPhotoStore(getSharedPreferences(PREFS_NAME, 0)
+					.getBoolean(PREF_PHOTO_STORE, false));
+			mProgressThread.setCodec(getIntPreference(
+					PREF_BACKUP_FORMAT, ContactCodec.JSON));
+			mProgressThread.setCompressionLevel(getIntPreference(
+					PREF_COMPRESSION_LEVEL, Compression.LEVEL_NONE));
+			mProgressThread.setBufferSize(getIntPreference(
+					PREF_BUFFER_SIZE, BudgetedOutputStream.DEFAULT_BUDGET));
+			mProgressThread.setPageSize(getIntPreference(
+					PREF_PAGE_SIZE, PeoplePager.DEFAULT_PAGE_SIZE));
 			mProgressDialog.setIndeterminate(true);
 			mProgressThread.start();
 			dialog = mProgressDialog;
@@ -396,6 +500,12 @@ public class JsonBackup extends Activity {
 			mProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
 			mProgressDialog.setMessage(getString(R.string.restoring));
 			mRestoreThread = new RestoreThread(restore_handler, this);
+			mRestoreThread.setBatchSize(getIntPreference(
+					PREF_BATCH_SIZE, BatchInserter.ADAPTIVE));
+			mRestoreThread.setPipelined(getSharedPreferences(PREFS_NAME, 0)
+					.getBoolean(PREF_PIPELINED_RESTORE, true));
+			mRestoreThread.setMerge(getSharedPreferences(PREFS_NAME, 0)
+					.getBoolean(PREF_MERGE_RESTORE, false));
 			mProgressDialog.setIndeterminate(true);
 			mRestoreThread.start();
 			dialog = mProgressDialog;
@@ -0,0 +1,382 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+import lu.albert.android.jsonbackup.schema.ContactColumns;
+import lu.albert.android.jsonbackup.schema.ShortContactColumns;
+import lu.albert.android.jsonbackup.schema.ContactColumns.ContactMethodColumns;
+import lu.albert.android.jsonbackup.schema.ContactColumns.OrganizationColumns;
+import lu.albert.android.jsonbackup.schema.ContactColumns.PhoneColumns;
+
+/**
+ * Reads the contacts of a JSON backup file. The file is streamed through a
+ * {@link JsonStreamReader}: each contact is decoded from the tokens in a
+ * single pass, so neither the complete array nor the text of one contact is
+ * held in memory.
+ *
+ * Member names are looked up in tables holding both the long keys and the
+ * short keys (see {@link ShortContactColumns}), so files written with any
+ * output profile are read, and no string is created for a name. Unknown
+ * members are skipped.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class JsonRecordReader implements RecordReader {
+
+	/* The members of a contact, see CONTACT_KEYS */
+	private static final int ID = 0;
+	private static final int NAME = 1;
+	private static final int CUSTOM_RING_TONE = 2;
+	private static final int DISPLAY_NAME = 3;
+	private static final int LAST_TIME_CONTACTED = 4;
+	private static final int NOTES = 5;
+	private static final int PHONETIC_NAME = 6;
+	private static final int SEND_TO_VOICEMAIL = 7;
+	private static final int STARRED = 8;
+	private static final int TIMES_CONTACTED = 9;
+	private static final int CONTACT_METHODS = 10;
+	private static final int PHOTOS = 11;
+	private static final int PHOTO_REFS = 12;
+	private static final int PHONE_NUMBERS = 13;
+	private static final int ORGANIZATIONS = 14;
+
+	private static final String[] CONTACT_KEYS = keys(ContactColumns.ID,
+			ContactColumns.NAME, ContactColumns.CUSTOM_RING_TONE,
+			ContactColumns.DISPLAY_NAME, ContactColumns.LAST_TIME_CONTACTED,
+			ContactColumns.NOTES, ContactColumns.PHONETIC_NAME,
+			ContactColumns.SEND_TO_VOICEMAIL, ContactColumns.STARRED,
+			ContactColumns.TIMES_CONTACTED, ContactColumns.CONTACT_METHODS,
+			ContactColumns.PHOTOS, ContactColumns.PHOTO_REFS,
+			ContactColumns.PHONE_NUMBERS, ContactColumns.ORGANIZATIONS);
+
+	/*
+	 * The members of contact methods, phones and organizations. Where the
+	 * tables share a member, it has the same index in all of them.
+	 */
+	private static final int IS_PRIMARY = 0;
+	private static final int LABEL = 1;
+	private static final int TYPE = 2;
+	private static final int DATA = 3;
+	private static final int AUX_DATA = 4;
+	private static final int KIND = 5;
+	private static final int NUMBER = 3;
+	private static final int NUMBER_KEY = 4;
+	private static final int TITLE = 3;
+	private static final int COMPANY = 4;
+
+	private static final String[] CONTACT_METHOD_KEYS = keys(
+			ContactMethodColumns.IS_PRIMARY, ContactMethodColumns.LABEL,
+			ContactMethodColumns.TYPE, ContactMethodColumns.DATA,
+			ContactMethodColumns.AUX_DATA, ContactMethodColumns.KIND);
+
+	private static final String[] PHONE_KEYS = keys(PhoneColumns.IS_PRIMARY,
+			PhoneColumns.LABEL, PhoneColumns.TYPE, PhoneColumns.NUMBER,
+			PhoneColumns.NUMBER_KEY);
+
+	private static final String[] ORGANIZATION_KEYS = keys(
+			OrganizationColumns.IS_PRIMARY, OrganizationColumns.LABEL,
+			OrganizationColumns.TYPE, OrganizationColumns.TITLE,
+			OrganizationColumns.COMPANY);
+
+	private JsonStreamReader mIn;
+	private boolean mStarted;
+	private RunStats.Phase mParsePhase;
+	private RunStats.Phase mBase64Phase;
+
+	/**
+	 * Constructor
+	 *
+	 * @param stream
+	 *            The stream to read from. It need not be buffered.
+	 * @param stats
+	 *            Receives the time spent parsing contacts
+	 */
+	JsonRecordReader(InputStream stream, RunStats stats) {
+		mIn = new JsonStreamReader(new InputStreamReader(stream, Charset
+				.forName("UTF-8")));
+		mParsePhase = stats.phase(RunStats.PARSE);
+		mBase64Phase = stats.phase(RunStats.BASE64_DECODE);
+	}
+
+	public Contact read() throws IOException {
+		return read(new Contact());
+	}
+
+	public Contact read(Contact contact) throws IOException {
+		long start = System.nanoTime();
+		try {
+			if (!mStarted) {
+				if (mIn.peek() == JsonStreamReader.END_DOCUMENT) {
+					return null;
+				}
+				mIn.beginArray();
+				mStarted = true;
+			}
+			if (!mIn.hasNext()) {
+				return null;
+			}
+			contact.clear();
+			readContact(contact);
+			mParsePhase.add(start);
+			return contact;
+		} catch (IOException e) {
+			IOException error = new IOException("Corrupt backup: "
+					+ e.getMessage());
+			error.initCause(e);
+			throw error;
+		}
+	}
+
+	public void close() throws IOException {
+		mIn.close();
+	}
+
+	/**
+	 * @return The long keys, followed by the short keys in the same order
+	 */
+	private static String[] keys(String... names) {
+		String[] keys = new String[names.length * 2];
+		for (int i = 0; i < names.length; i++) {
+			keys[i] = names[i];
+			keys[names.length + i] = ShortContactColumns.shorten(names[i]);
+		}
+		return keys;
+	}
+
+	/**
+	 * @return The index of the next member in a table built by
+	 *         {@link #keys(String...)}, ignoring the key style, or -1 if it
+	 *         is unknown
+	 */
+	private int nextName(String[] keys) throws IOException {
+		int index = mIn.nextName(keys);
+		if (index < 0) {
+			return -1;
+		}
+		return index % (keys.length / 2);
+	}
+
+	private void readContact(Contact contact) throws IOException {
+		boolean hasId = false;
+		mIn.beginObject();
+		while (mIn.hasNext()) {
+			switch (nextName(CONTACT_KEYS)) {
+			case ID:
+				contact.id = mIn.nextLong();
+				hasId = true;
+				break;
+			case NAME:
+				contact.name = nextString();
+				break;
+			case CUSTOM_RING_TONE:
+				contact.customRingTone = nextString();
+				break;
+			case DISPLAY_NAME:
+				contact.displayName = nextString();
+				break;
+			case LAST_TIME_CONTACTED:
+				contact.lastTimeContacted = nextString();
+				break;
+			case NOTES:
+				contact.notes = nextString();
+				break;
+			case PHONETIC_NAME:
+				contact.phoneticName = nextString();
+				break;
+			case SEND_TO_VOICEMAIL:
+				contact.sendToVoicemail = nextString();
+				break;
+			case STARRED:
+				contact.starred = nextString();
+				break;
+			case TIMES_CONTACTED:
+				contact.timesContacted = nextString();
+				break;
+			case CONTACT_METHODS:
+				readContactMethods(contact);
+				break;
+			case PHOTOS:
+				readPhotos(contact);
+				break;
+			case PHOTO_REFS:
+				if (beginArray()) {
+					while (mIn.hasNext()) {
+						contact.photoRefs.add(mIn.nextString());
+					}
+					mIn.endArray();
+				}
+				break;
+			case PHONE_NUMBERS:
+				readPhoneNumbers(contact);
+				break;
+			case ORGANIZATIONS:
+				readOrganizations(contact);
+				break;
+			default:
+				mIn.skipValue();
+			}
+		}
+		mIn.endObject();
+		if (!hasId) {
+			throw new IOException("Contact without ID");
+		}
+	}
+
+	private void readContactMethods(Contact contact) throws IOException {
+		if (!beginArray()) {
+			return;
+		}
+		while (mIn.hasNext()) {
+			Contact.ContactMethod method = contact.addContactMethod();
+			mIn.beginObject();
+			while (mIn.hasNext()) {
+				switch (nextName(CONTACT_METHOD_KEYS)) {
+				case IS_PRIMARY:
+					method.isPrimary = nextBoolean();
+					break;
+				case LABEL:
+					method.label = nextString();
+					break;
+				case TYPE:
+					method.type = nextString();
+					break;
+				case DATA:
+					method.data = nextString();
+					break;
+				case AUX_DATA:
+					method.auxData = nextString();
+					break;
+				case KIND:
+					method.kind = nextString();
+					break;
+				default:
+					mIn.skipValue();
+				}
+			}
+			mIn.endObject();
+		}
+		mIn.endArray();
+	}
+
+	private void readPhotos(Contact contact) throws IOException {
+		if (!beginArray()) {
+			return;
+		}
+		while (mIn.hasNext()) {
+			String photo = nextString();
+			if (photo != null && photo.length() > 0) {
+				long start = System.nanoTime();
+				byte[] data = Base64.decode(photo);
+				mBase64Phase.add(start, data.length);
+				contact.photos.add(data);
+			}
+		}
+		mIn.endArray();
+	}
+
+	private void readPhoneNumbers(Contact contact) throws IOException {
+		if (!beginArray()) {
+			return;
+		}
+		while (mIn.hasNext()) {
+			Contact.Phone phone = contact.addPhone();
+			mIn.beginObject();
+			while (mIn.hasNext()) {
+				switch (nextName(PHONE_KEYS)) {
+				case IS_PRIMARY:
+					phone.isPrimary = nextBoolean();
+					break;
+				case LABEL:
+					phone.label = nextString();
+					break;
+				case TYPE:
+					phone.type = nextString();
+					break;
+				case NUMBER:
+					phone.number = nextString();
+					break;
+				case NUMBER_KEY:
+					phone.numberKey = nextString();
+					break;
+				default:
+					mIn.skipValue();
+				}
+			}
+			mIn.endObject();
+		}
+		mIn.endArray();
+	}
+
+	private void readOrganizations(Contact contact) throws IOException {
+		if (!beginArray()) {
+			return;
+		}
+		while (mIn.hasNext()) {
+			Contact.Organization org = contact.addOrganization();
+			mIn.beginObject();
+			while (mIn.hasNext()) {
+				switch (nextName(ORGANIZATION_KEYS)) {
+				case IS_PRIMARY:
+					org.isPrimary = nextBoolean();
+					break;
+				case LABEL:
+					org.label = nextString();
+					break;
+				case TYPE:
+					org.type = nextString();
+					break;
+				case TITLE:
+					org.title = nextString();
+					break;
+				case COMPANY:
+					org.company = nextString();
+					break;
+				default:
+					mIn.skipValue();
+				}
+			}
+			mIn.endObject();
+		}
+		mIn.endArray();
+	}
+
+	/**
+	 * Open an array which may be null
+	 *
+	 * @return false if the value is null
+	 */
+	private boolean beginArray() throws IOException {
+		if (mIn.peek() == JsonStreamReader.NULL) {
+			mIn.nextNull();
+			return false;
+		}
+		mIn.beginArray();
+		return true;
+	}
+
+	/**
+	 * @return The next string value, or null if the value is null
+	 */
+	private String nextString() throws IOException {
+		if (mIn.peek() == JsonStreamReader.NULL) {
+			mIn.nextNull();
+			return null;
+		}
+		return mIn.nextString();
+	}
+
+	/**
+	 * @return The next boolean value, or false if the value is null
+	 */
+	private boolean nextBoolean() throws IOException {
+		if (mIn.peek() == JsonStreamReader.NULL) {
+			mIn.nextNull();
+			return false;
+		}
+		return mIn.nextBoolean();
+	}
+
+}
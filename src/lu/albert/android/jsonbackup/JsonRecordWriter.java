@@ -0,0 +1,138 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes contacts as JSON objects. A backup file is one JSON array of
+ * contacts; a fragment contains the array elements without the brackets
+ * (see {@link JsonStreamWriter#beginElements()}).
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class JsonRecordWriter implements RecordWriter {
+
+	private JsonStreamWriter mOut;
+	private ContactSerializer mSerializer;
+	private boolean mFragment;
+	private ContactIndex mIndex;
+	private boolean mEmpty;
+	private RunStats.Phase mEncodePhase;
+
+	/**
+	 * Constructor
+	 *
+	 * @param stream
+	 *            The stream to write to
+	 * @param profile
+	 *            The output profile, one of the BackupThread.PROFILE_*
+	 *            constants
+	 * @param photoStore
+	 *            The photo store, or null if photos are embedded
+	 * @param fragment
+	 *            True to write a fragment instead of a complete file
+	 * @param stats
+	 *            Receives the time spent encoding contacts
+	 * @throws IOException
+	 *             when the output cannot be written
+	 */
+	JsonRecordWriter(OutputStream stream, int profile, PhotoStore photoStore,
+			boolean fragment, RunStats stats) throws IOException {
+		this(stream, profile, photoStore, fragment, new ContactIndex(), stats);
+		if (fragment) {
+			mOut.beginElements();
+		} else {
+			mOut.beginArray();
+		}
+	}
+
+	/**
+	 * Constructor for a writer which continues a backup file. The file has
+	 * been cut after the last complete contact, and the stream appends to
+	 * it.
+	 *
+	 * @param stream
+	 *            The stream to write to
+	 * @param profile
+	 *            The output profile of the file
+	 * @param photoStore
+	 *            The photo store, or null if photos are embedded
+	 * @param position
+	 *            The size of the file
+	 * @param count
+	 *            The number of contacts in the file
+	 * @param index
+	 *            The index of the contacts in the file. New entries are
+	 *            added to it.
+	 * @param stats
+	 *            Receives the time spent encoding contacts
+	 * @throws IOException
+	 *             when the output cannot be written
+	 */
+	JsonRecordWriter(OutputStream stream, int profile, PhotoStore photoStore,
+			long position, int count, ContactIndex index, RunStats stats)
+			throws IOException {
+		this(stream, profile, photoStore, false, index, stats);
+		mEmpty = (count == 0);
+		mOut.resumeArray(position, mEmpty);
+	}
+
+	private JsonRecordWriter(OutputStream stream, int profile,
+			PhotoStore photoStore, boolean fragment, ContactIndex index,
+			RunStats stats) {
+		mOut = ContactSerializer.createWriter(stream, profile);
+		mSerializer = new ContactSerializer(profile, photoStore, stats);
+		mEncodePhase = stats.phase(RunStats.ENCODE);
+		mFragment = fragment;
+		mIndex = index;
+		mEmpty = true;
+	}
+
+	public void write(Contact contact) throws IOException {
+		long startNanos = System.nanoTime();
+		long start = mOut.getPosition();
+		if (!mEmpty) {
+			/* Index entries start after the separating comma */
+			start += 1;
+		}
+		mSerializer.write(mOut, contact);
+		mEmpty = false;
+		mEncodePhase.add(startNanos);
+		mIndex.add(contact.id, contact.name, start,
+				(int) (mOut.getPosition() - start));
+	}
+
+	public void append(byte[] data, int offset, int length,
+			ContactIndex index) throws IOException {
+		mOut.appendElements(data, offset, length);
+		if (length > 0) {
+			mEmpty = false;
+		}
+		if (index != null) {
+			mIndex.addAll(index, mOut.getPosition() - length);
+		}
+	}
+
+	public long getPosition() {
+		return mOut.getPosition();
+	}
+
+	public ContactIndex getIndex() {
+		return mIndex;
+	}
+
+	public void flush() throws IOException {
+		mOut.flush();
+	}
+
+	public void close() throws IOException {
+		if (mFragment) {
+			mOut.endElements();
+			mOut.flush();
+		} else {
+			mOut.endArray();
+			mOut.close();
+		}
+	}
+
+}
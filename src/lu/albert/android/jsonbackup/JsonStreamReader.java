@@ -0,0 +1,648 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads JSON tokens from a character stream, one at a time, without
+ * building an object tree in memory. This is the counterpart of
+ * {@link JsonStreamWriter}: the caller walks the document with the methods
+ * matching its structure, and skips the values it does not need.
+ *
+ * The characters are read in large blocks into a buffer, and strings are
+ * taken from the buffer directly unless they contain escapes or cross a
+ * block boundary.
+ *
+ * Example:
+ *
+ * <pre>
+ * in.beginObject();
+ * while (in.hasNext()) {
+ * 	String name = in.nextName();
+ * 	if (name.equals(&quot;id&quot;)) {
+ * 		id = in.nextLong();
+ * 	} else {
+ * 		in.skipValue();
+ * 	}
+ * }
+ * in.endObject();
+ * </pre>
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+public class JsonStreamReader {
+
+	/** The next token opens an array */
+	public static final int BEGIN_ARRAY = 0;
+
+	/** The next token closes an array */
+	public static final int END_ARRAY = 1;
+
+	/** The next token opens an object */
+	public static final int BEGIN_OBJECT = 2;
+
+	/** The next token closes an object */
+	public static final int END_OBJECT = 3;
+
+	/** The next token is the name of an object member */
+	public static final int NAME = 4;
+
+	/** The next token is a string value */
+	public static final int STRING = 5;
+
+	/** The next token is a number */
+	public static final int NUMBER = 6;
+
+	/** The next token is true or false */
+	public static final int BOOLEAN = 7;
+
+	/** The next token is null */
+	public static final int NULL = 8;
+
+	/** There are no more tokens */
+	public static final int END_DOCUMENT = 9;
+
+	private static final int PEEKED_NONE = -1;
+
+	/* Scopes which can be found on the nesting stack */
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_ARRAY = 2;
+	private static final int NONEMPTY_ARRAY = 3;
+	private static final int EMPTY_OBJECT = 4;
+	private static final int DANGLING_NAME = 5;
+	private static final int NONEMPTY_OBJECT = 6;
+
+	private Reader mIn;
+	private char[] mBuffer;
+	private int mPos;
+	private int mLimit;
+	private long mBufferStart;
+	private int[] mStack;
+	private int mDepth;
+	private StringBuilder mString;
+
+	/*
+	 * The next token, if it has been peeked. Strings and names are read when
+	 * they are consumed, numbers and literals when they are peeked.
+	 */
+	private int mPeeked;
+	private String mPeekedNumber;
+	private boolean mPeekedBoolean;
+
+	/**
+	 * Constructor
+	 *
+	 * @param in
+	 *            The stream from which the JSON text is read. It need not
+	 *            be buffered.
+	 */
+	public JsonStreamReader(Reader in) {
+		mIn = in;
+		mBuffer = new char[8192];
+		mPos = 0;
+		mLimit = 0;
+		mStack = new int[16];
+		mStack[0] = EMPTY_DOCUMENT;
+		mDepth = 1;
+		mString = new StringBuilder();
+		mPeeked = PEEKED_NONE;
+	}
+
+	/**
+	 * @return The type of the next token, one of the constants of this class
+	 * @throws IOException
+	 *             when the stream cannot be read or is not valid JSON
+	 */
+	public int peek() throws IOException {
+		if (mPeeked == PEEKED_NONE) {
+			mPeeked = doPeek();
+		}
+		return mPeeked;
+	}
+
+	/**
+	 * @return true if the current array or object has more elements
+	 * @throws IOException
+	 *             when the stream cannot be read or is not valid JSON
+	 */
+	public boolean hasNext() throws IOException {
+		int token = peek();
+		return token != END_ARRAY && token != END_OBJECT
+				&& token != END_DOCUMENT;
+	}
+
+	/**
+	 * Consume the opening bracket of an array
+	 *
+	 * @throws IOException
+	 *             when the next token is something else
+	 */
+	public void beginArray() throws IOException {
+		expect(BEGIN_ARRAY, "[");
+		push(EMPTY_ARRAY);
+	}
+
+	/**
+	 * Consume the closing bracket of the current array
+	 *
+	 * @throws IOException
+	 *             when the next token is something else
+	 */
+	public void endArray() throws IOException {
+		expect(END_ARRAY, "]");
+		mDepth--;
+	}
+
+	/**
+	 * Consume the opening brace of an object
+	 *
+	 * @throws IOException
+	 *             when the next token is something else
+	 */
+	public void beginObject() throws IOException {
+		expect(BEGIN_OBJECT, "{");
+		push(EMPTY_OBJECT);
+	}
+
+	/**
+	 * Consume the closing brace of the current object
+	 *
+	 * @throws IOException
+	 *             when the next token is something else
+	 */
+	public void endObject() throws IOException {
+		expect(END_OBJECT, "}");
+		mDepth--;
+	}
+
+	/**
+	 * @return The name of the next object member
+	 * @throws IOException
+	 *             when the next token is something else
+	 */
+	public String nextName() throws IOException {
+		expect(NAME, "a name");
+		return readString();
+	}
+
+	/**
+	 * Read the name of the next object member and look it up in a table.
+	 * Unless the name contains escapes or crosses a block boundary, it is
+	 * compared in the buffer and no string is created for it.
+	 *
+	 * @param names
+	 *            The names to look for
+	 * @return The index of the name in the table, or -1 if it is not in it
+	 * @throws IOException
+	 *             when the next token is not a name
+	 */
+	public int nextName(String[] names) throws IOException {
+		expect(NAME, "a name");
+		char[] buffer = mBuffer;
+		for (int p = mPos; p < mLimit; p++) {
+			char c = buffer[p];
+			if (c == '"') {
+				int start = mPos;
+				mPos = p + 1;
+				return find(names, buffer, start, p - start);
+			} else if (c == '\\') {
+				break;
+			}
+		}
+		String name = readString();
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The next value as a string. Numbers and booleans are
+	 *         converted.
+	 * @throws IOException
+	 *             when the next token is not a string, number or boolean
+	 */
+	public String nextString() throws IOException {
+		int token = peek();
+		mPeeked = PEEKED_NONE;
+		if (token == STRING) {
+			return readString();
+		} else if (token == NUMBER) {
+			return mPeekedNumber;
+		} else if (token == BOOLEAN) {
+			return String.valueOf(mPeekedBoolean);
+		}
+		mPeeked = token;
+		throw syntaxError("Expected a string");
+	}
+
+	/**
+	 * @return The next value as a boolean. The strings "true" and "false"
+	 *         are converted.
+	 * @throws IOException
+	 *             when the next token is not a boolean or a string
+	 */
+	public boolean nextBoolean() throws IOException {
+		int token = peek();
+		mPeeked = PEEKED_NONE;
+		if (token == BOOLEAN) {
+			return mPeekedBoolean;
+		} else if (token == STRING) {
+			return "true".equalsIgnoreCase(readString());
+		}
+		mPeeked = token;
+		throw syntaxError("Expected a boolean");
+	}
+
+	/**
+	 * @return The next value as a long. Strings are converted.
+	 * @throws IOException
+	 *             when the next token is not a number, or a string which
+	 *             cannot be converted
+	 */
+	public long nextLong() throws IOException {
+		int token = peek();
+		String text;
+		if (token == NUMBER) {
+			mPeeked = PEEKED_NONE;
+			text = mPeekedNumber;
+		} else if (token == STRING) {
+			mPeeked = PEEKED_NONE;
+			text = readString();
+		} else {
+			throw syntaxError("Expected a number");
+		}
+		try {
+			return Long.parseLong(text);
+		} catch (NumberFormatException e) {
+			try {
+				return (long) Double.parseDouble(text);
+			} catch (NumberFormatException e2) {
+				throw syntaxError("Invalid number " + text);
+			}
+		}
+	}
+
+	/**
+	 * Consume a null value
+	 *
+	 * @throws IOException
+	 *             when the next token is something else
+	 */
+	public void nextNull() throws IOException {
+		expect(NULL, "null");
+	}
+
+	/**
+	 * Skip the next value, including all nested arrays and objects
+	 *
+	 * @throws IOException
+	 *             when the stream cannot be read or is not valid JSON
+	 */
+	public void skipValue() throws IOException {
+		int depth = 0;
+		do {
+			switch (peek()) {
+			case BEGIN_ARRAY:
+				beginArray();
+				depth++;
+				break;
+			case BEGIN_OBJECT:
+				beginObject();
+				depth++;
+				break;
+			case END_ARRAY:
+				endArray();
+				depth--;
+				break;
+			case END_OBJECT:
+				endObject();
+				depth--;
+				break;
+			case NAME:
+			case STRING:
+				mPeeked = PEEKED_NONE;
+				skipString();
+				break;
+			case END_DOCUMENT:
+				throw syntaxError("Unexpected end of document");
+			default:
+				mPeeked = PEEKED_NONE;
+				break;
+			}
+		} while (depth > 0);
+	}
+
+	/**
+	 * Close the underlying stream
+	 *
+	 * @throws IOException
+	 *             when the stream cannot be closed
+	 */
+	public void close() throws IOException {
+		mPeeked = PEEKED_NONE;
+		mDepth = 0;
+		mIn.close();
+	}
+
+	private static int find(String[] names, char[] buffer, int start,
+			int length) {
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i];
+			if (name.length() != length) {
+				continue;
+			}
+			int j = 0;
+			while (j < length && name.charAt(j) == buffer[start + j]) {
+				j++;
+			}
+			if (j == length) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void expect(int token, String what) throws IOException {
+		if (peek() != token) {
+			throw syntaxError("Expected " + what);
+		}
+		mPeeked = PEEKED_NONE;
+	}
+
+	private int doPeek() throws IOException {
+		int scope = mStack[mDepth - 1];
+		int c;
+		switch (scope) {
+		case EMPTY_ARRAY:
+			mStack[mDepth - 1] = NONEMPTY_ARRAY;
+			break;
+		case NONEMPTY_ARRAY:
+			c = nextNonWhitespace(true);
+			if (c == ']') {
+				return END_ARRAY;
+			} else if (c != ',') {
+				throw syntaxError("Unterminated array");
+			}
+			break;
+		case EMPTY_OBJECT:
+		case NONEMPTY_OBJECT:
+			mStack[mDepth - 1] = DANGLING_NAME;
+			c = nextNonWhitespace(true);
+			if (scope == NONEMPTY_OBJECT) {
+				if (c == '}') {
+					return END_OBJECT;
+				} else if (c != ',') {
+					throw syntaxError("Unterminated object");
+				}
+				c = nextNonWhitespace(true);
+			} else if (c == '}') {
+				return END_OBJECT;
+			}
+			if (c != '"') {
+				throw syntaxError("Expected a name");
+			}
+			return NAME;
+		case DANGLING_NAME:
+			mStack[mDepth - 1] = NONEMPTY_OBJECT;
+			if (nextNonWhitespace(true) != ':') {
+				throw syntaxError("Expected ':'");
+			}
+			break;
+		case EMPTY_DOCUMENT:
+			mStack[mDepth - 1] = NONEMPTY_DOCUMENT;
+			break;
+		case NONEMPTY_DOCUMENT:
+			if (nextNonWhitespace(false) == -1) {
+				return END_DOCUMENT;
+			}
+			throw syntaxError("JSON must have only one root value");
+		default:
+			throw new IllegalStateException("JsonStreamReader is closed");
+		}
+
+		c = nextNonWhitespace(scope != EMPTY_DOCUMENT);
+		switch (c) {
+		case -1:
+			return END_DOCUMENT;
+		case ']':
+			if (scope == EMPTY_ARRAY) {
+				return END_ARRAY;
+			}
+			throw syntaxError("Unexpected ']'");
+		case '[':
+			return BEGIN_ARRAY;
+		case '{':
+			return BEGIN_OBJECT;
+		case '"':
+			return STRING;
+		case 't':
+			readLiteral("rue");
+			mPeekedBoolean = true;
+			return BOOLEAN;
+		case 'f':
+			readLiteral("alse");
+			mPeekedBoolean = false;
+			return BOOLEAN;
+		case 'n':
+			readLiteral("ull");
+			return NULL;
+		default:
+			if (c == '-' || (c >= '0' && c <= '9')) {
+				mPeekedNumber = readNumber((char) c);
+				return NUMBER;
+			}
+			throw syntaxError("Unexpected character '" + (char) c + "'");
+		}
+	}
+
+	/**
+	 * Read the rest of a string whose opening quote has been consumed
+	 */
+	private String readString() throws IOException {
+		StringBuilder builder = null;
+		while (true) {
+			char[] buffer = mBuffer;
+			int p = mPos;
+			int l = mLimit;
+			int start = p;
+			while (p < l) {
+				char c = buffer[p++];
+				if (c == '"') {
+					mPos = p;
+					if (builder == null) {
+						return new String(buffer, start, p - start - 1);
+					}
+					builder.append(buffer, start, p - start - 1);
+					return builder.toString();
+				} else if (c == '\\') {
+					mPos = p;
+					if (builder == null) {
+						builder = mString;
+						builder.setLength(0);
+					}
+					builder.append(buffer, start, p - start - 1);
+					builder.append(readEscape());
+					buffer = mBuffer;
+					p = mPos;
+					l = mLimit;
+					start = p;
+				}
+			}
+			if (builder == null) {
+				builder = mString;
+				builder.setLength(0);
+			}
+			builder.append(buffer, start, p - start);
+			mPos = p;
+			if (!fill(1)) {
+				throw syntaxError("Unterminated string");
+			}
+		}
+	}
+
+	/**
+	 * Skip the rest of a string whose opening quote has been consumed
+	 */
+	private void skipString() throws IOException {
+		while (true) {
+			while (mPos < mLimit) {
+				char c = mBuffer[mPos++];
+				if (c == '"') {
+					return;
+				} else if (c == '\\') {
+					readEscape();
+				}
+			}
+			if (!fill(1)) {
+				throw syntaxError("Unterminated string");
+			}
+		}
+	}
+
+	/**
+	 * Decode an escape sequence whose backslash has been consumed
+	 */
+	private char readEscape() throws IOException {
+		if (mPos == mLimit && !fill(1)) {
+			throw syntaxError("Unterminated escape sequence");
+		}
+		char c = mBuffer[mPos++];
+		switch (c) {
+		case 'u':
+			if (mPos + 4 > mLimit && !fill(4)) {
+				throw syntaxError("Unterminated escape sequence");
+			}
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				int digit = Character.digit(mBuffer[mPos++], 16);
+				if (digit < 0) {
+					throw syntaxError("Invalid escape sequence");
+				}
+				value = (value << 4) | digit;
+			}
+			return (char) value;
+		case 't':
+			return '\t';
+		case 'b':
+			return '\b';
+		case 'n':
+			return '\n';
+		case 'r':
+			return '\r';
+		case 'f':
+			return '\f';
+		default:
+			return c;
+		}
+	}
+
+	private void readLiteral(String rest) throws IOException {
+		for (int i = 0; i < rest.length(); i++) {
+			if (mPos == mLimit && !fill(1)) {
+				throw syntaxError("Unexpected end of document");
+			}
+			if (mBuffer[mPos++] != rest.charAt(i)) {
+				throw syntaxError("Invalid literal");
+			}
+		}
+	}
+
+	private String readNumber(char first) throws IOException {
+		StringBuilder builder = mString;
+		builder.setLength(0);
+		builder.append(first);
+		while (mPos < mLimit || fill(1)) {
+			char c = mBuffer[mPos];
+			if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E'
+					|| c == '+' || c == '-') {
+				builder.append(c);
+				mPos++;
+			} else {
+				break;
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * @param required
+	 *            If true, the end of the stream is an error
+	 * @return The next character which is not whitespace, or -1 at the end
+	 *         of the stream
+	 */
+	private int nextNonWhitespace(boolean required) throws IOException {
+		while (mPos < mLimit || fill(1)) {
+			char c = mBuffer[mPos++];
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+				return c;
+			}
+		}
+		if (required) {
+			throw syntaxError("Unexpected end of document");
+		}
+		return -1;
+	}
+
+	/**
+	 * Move the unread characters to the start of the buffer and read more
+	 *
+	 * @param minimum
+	 *            The number of unread characters needed
+	 * @return false if the stream ends before that
+	 */
+	private boolean fill(int minimum) throws IOException {
+		mBufferStart += mPos;
+		if (mPos != mLimit) {
+			System.arraycopy(mBuffer, mPos, mBuffer, 0, mLimit - mPos);
+		}
+		mLimit -= mPos;
+		mPos = 0;
+		while (mLimit < minimum) {
+			int count = mIn.read(mBuffer, mLimit, mBuffer.length - mLimit);
+			if (count == -1) {
+				return false;
+			}
+			mLimit += count;
+		}
+		return true;
+	}
+
+	private void push(int scope) {
+		if (mDepth == mStack.length) {
+			int[] grown = new int[mDepth * 2];
+			System.arraycopy(mStack, 0, grown, 0, mDepth);
+			mStack = grown;
+		}
+		mStack[mDepth++] = scope;
+	}
+
+	private IOException syntaxError(String message) {
+		return new IOException(message + " at character "
+				+ (mBufferStart + mPos));
+	}
+
+}
@@ -0,0 +1,525 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes JSON tokens straight to a byte stream (UTF-8 encoded) without
+ * building an object tree in memory first. The writer keeps track of the
+ * nesting and inserts the commas and colons required by the JSON grammar.
+ *
+ * Binary values (photos) can be Base64 encoded on the fly, directly into
+ * the output stream.
+ *
+ * Example:
+ *
+ * <pre>
+ * out.beginObject();
+ * out.name(&quot;id&quot;).value(1);
+ * out.name(&quot;phone_numbers&quot;).beginArray();
+ * out.endArray();
+ * out.endObject();
+ * </pre>
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+public class JsonStreamWriter {
+
+	/* Scopes which can be found on the nesting stack */
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_ARRAY = 2;
+	private static final int NONEMPTY_ARRAY = 3;
+	private static final int EMPTY_OBJECT = 4;
+	private static final int DANGLING_NAME = 5;
+	private static final int NONEMPTY_OBJECT = 6;
+
+	private static final String[] ESCAPES = new String[128];
+	static {
+		for (int i = 0; i < 0x20; i++) {
+			ESCAPES[i] = String.format("\\u%04x", i);
+		}
+		ESCAPES['"'] = "\\\"";
+		ESCAPES['\\'] = "\\\\";
+		ESCAPES['\t'] = "\\t";
+		ESCAPES['\b'] = "\\b";
+		ESCAPES['\n'] = "\\n";
+		ESCAPES['\r'] = "\\r";
+		ESCAPES['\f'] = "\\f";
+	}
+
+	private OutputStream mOut;
+	private byte[] mBuffer;
+	private int mCount;
+	private long mWritten;
+	private int[] mStack;
+	private int mDepth;
+	private int mIndent;
+
+	/**
+	 * Constructor
+	 *
+	 * @param out
+	 *            The stream to which the JSON tokens are written
+	 */
+	public JsonStreamWriter(OutputStream out) {
+		mOut = out;
+		mBuffer = new byte[1024];
+		mCount = 0;
+		mWritten = 0;
+		mStack = new int[16];
+		mStack[0] = EMPTY_DOCUMENT;
+		mDepth = 1;
+		mIndent = 0;
+	}
+
+	/**
+	 * Set the number of spaces used to indent nested elements. If set to 0
+	 * (the default), the output is written on one line without any
+	 * whitespace.
+	 *
+	 * @param spaces
+	 *            The number of spaces per nesting level
+	 */
+	public void setIndent(int spaces) {
+		mIndent = spaces;
+	}
+
+	/**
+	 * Open a new JSON array
+	 *
+	 * @return this writer
+	 * @throws IOException
+	 *             when the underlying stream cannot be written
+	 */
+	public JsonStreamWriter beginArray() throws IOException {
+		beforeValue();
+		push(EMPTY_ARRAY);
+		write('[');
+		return this;
+	}
+
+	/**
+	 * Close the current JSON array
+	 *
+	 * @return this writer
+	 * @throws IOException
+	 *             when the underlying stream cannot be written
+	 */
+	public JsonStreamWriter endArray() throws IOException {
+		return close(EMPTY_ARRAY, NONEMPTY_ARRAY, ']');
+	}
+
+	/**
+	 * Continue an array which has been opened, but not closed, by an earlier
+	 * writer whose output precedes the output of this one (e.g. when
+	 * appending to a file). The opening bracket is not written again, and
+	 * positions continue from the end of the earlier output. The array is
+	 * closed with {@link #endArray()} as usual.
+	 *
+	 * @param position
+	 *            The number of bytes written by the earlier writer
+	 * @param empty
+	 *            True if the earlier writer has not written any elements
+	 * @return this writer
+	 * @throws IOException
+	 *             when the underlying stream cannot be written
+	 */
+	public JsonStreamWriter resumeArray(long position, boolean empty)
+			throws IOException {
+		beforeValue();
+		push(empty ? EMPTY_ARRAY : NONEMPTY_ARRAY);
+		mWritten = position - mCount;
+		return this;
+	}
+
+	/**
+	 * Start writing the elements of an array which is opened and closed by
+	 * another writer. The brackets are not written. Use
+	 * {@link #appendElements(byte[], int, int)} on the other writer to add
+	 * the resulting bytes to the array. This way, several parts of an array
+	 * can be serialized independently.
+	 *
+	 * @return this writer
+	 * @throws IOException
+	 *             when the underlying stream cannot be written
+	 */
+	public JsonStreamWriter beginElements() throws IOException {
+		beforeValue();
+		push(EMPTY_ARRAY);
+		return this;
+	}
+
+	/**
+	 * Finish writing array elements started with {@link #beginElements()}.
+	 * The closing bracket is not written.
+	 *
+	 * @return this writer
+	 * @throws IOException
+	 *             when the underlying stream cannot be written
+	 */
+	public JsonStreamWriter endElements() throws IOException {
+		int context = peek();
+		if (context != EMPTY_ARRAY && context != NONEMPTY_ARRAY) {
+			throw new IllegalStateException("Nesting problem: not inside an array");
+		}
+		mDepth--;
+		return this;
+	}
+
+	/**
+	 * Append array elements which have been written by another writer
+	 * between {@link #beginElements()} and {@link #endElements()}. The other
+	 * writer must use the same indentation and the same nesting depth.
+	 *
+	 * @param data
+	 *            The serialized elements. May be empty.
+	 * @param offset
+	 *            The start offset in data
+	 * @param length
+	 *            The number of bytes to append
+	 * @return this writer
+	 * @throws IOException
+	 *             when the underlying stream cannot be written
+	 */
+	public JsonStreamWriter appendElements(byte[] data, int offset, int length)
+			throws IOException {
+		int context = peek();
+		if (context != EMPTY_ARRAY && context != NONEMPTY_ARRAY) {
+			throw new IllegalStateException("Nesting problem: not inside an array");
+		}
+		if (length == 0) {
+			return this;
+		}
+		if (context == NONEMPTY_ARRAY) {
+			write(',');
+		}
+		flushBuffer();
+		mOut.write(data, offset, length);
+		mWritten += length;
+		mStack[mDepth - 1] = NONEMPTY_ARRAY;
+		return this;
+	}
+
+	/**
+	 * Open a new JSON object
+	 *
+	 * @return this writer
+	 * @throws IOException
+	 *             when the underlying stream cannot be written
+	 */
+	public JsonStreamWriter beginObject() throws IOException {
+		beforeValue();
+		push(EMPTY_OBJECT);
+		write('{');
+		return this;
+	}
+
+	/**
+	 * Close the current JSON object
+	 *
+	 * @return this writer
+	 * @throws IOException
+	 *             when the underlying stream cannot be written
+	 */
+	public JsonStreamWriter endObject() throws IOException {
+		return close(EMPTY_OBJECT, NONEMPTY_OBJECT, '}');
+	}
+
+	/**
+	 * Write the name of the next object member. It must be followed by
+	 * exactly one value.
+	 *
+	 * @param name
+	 *            The member name
+	 * @return this writer
+	 * @throws IOException
+	 *             when the underlying stream cannot be written
+	 */
+	public JsonStreamWriter name(String name) throws IOException {
+		int context = peek();
+		if (context == NONEMPTY_OBJECT) {
+			write(',');
+		} else if (context != EMPTY_OBJECT) {
+			throw new IllegalStateException("Nesting problem: name outside of an object");
+		}
+		newline();
+		mStack[mDepth - 1] = DANGLING_NAME;
+		string(name);
+		return this;
+	}
+
+	/**
+	 * Write a string value. A null value is written as JSON null.
+	 *
+	 * @param value
+	 *            The value
+	 * @return this writer
+	 * @throws IOException
+	 *             when the underlying stream cannot be written
+	 */
+	public JsonStreamWriter value(String value) throws IOException {
+		if (value == null) {
+			return nullValue();
+		}
+		beforeValue();
+		string(value);
+		return this;
+	}
+
+	/**
+	 * Write a numeric value
+	 *
+	 * @param value
+	 *            The value
+	 * @return this writer
+	 * @throws IOException
+	 *             when the underlying stream cannot be written
+	 */
+	public JsonStreamWriter value(long value) throws IOException {
+		beforeValue();
+		write(Long.toString(value));
+		return this;
+	}
+
+	/**
+	 * Write a boolean value
+	 *
+	 * @param value
+	 *            The value
+	 * @return this writer
+	 * @throws IOException
+	 *             when the underlying stream cannot be written
+	 */
+	public JsonStreamWriter value(boolean value) throws IOException {
+		beforeValue();
+		write(value ? "true" : "false");
+		return this;
+	}
+
+	/**
+	 * Write binary data as Base64 encoded string value. The data is encoded
+	 * on the fly into the output stream, so no intermediate String is
+	 * created.
+	 *
+	 * @param data
+	 *            The raw bytes
+	 * @return this writer
+	 * @throws IOException
+	 *             when the underlying stream cannot be written
+	 */
+	public JsonStreamWriter base64Value(byte[] data) throws IOException {
+		beforeValue();
+		write('"');
+		flushBuffer();
+		Base64.OutputStream encoder = new Base64.OutputStream(mOut,
+				Base64.ENCODE);
+		encoder.write(data, 0, data.length);
+		encoder.flushBase64();
+		/* 4 characters for each started group of 3 bytes, no line breaks */
+		mWritten += 4 * ((data.length + 2) / 3);
+		write('"');
+		return this;
+	}
+
+	/**
+	 * Write a JSON null value
+	 *
+	 * @return this writer
+	 * @throws IOException
+	 *             when the underlying stream cannot be written
+	 */
+	public JsonStreamWriter nullValue() throws IOException {
+		beforeValue();
+		write("null");
+		return this;
+	}
+
+	/**
+	 * @return The number of bytes written so far, including those which are
+	 *         still buffered
+	 */
+	public long getPosition() {
+		return mWritten + mCount;
+	}
+
+	/**
+	 * Flush the underlying stream
+	 *
+	 * @throws IOException
+	 *             when the underlying stream cannot be written
+	 */
+	public void flush() throws IOException {
+		flushBuffer();
+		mOut.flush();
+	}
+
+	/**
+	 * Write a newline after the root element and close the underlying
+	 * stream.
+	 *
+	 * @throws IOException
+	 *             when the underlying stream cannot be written, or if the
+	 *             document is incomplete.
+	 */
+	public void close() throws IOException {
+		if (mDepth > 1 || peek() != NONEMPTY_DOCUMENT) {
+			throw new IOException("Incomplete JSON document");
+		}
+		write('\n');
+		flushBuffer();
+		mOut.close();
+	}
+
+	/**
+	 * Prepare the stream for a new value. This writes the separators
+	 * required by the enclosing scope.
+	 */
+	private void beforeValue() throws IOException {
+		switch (peek()) {
+		case EMPTY_DOCUMENT:
+			mStack[mDepth - 1] = NONEMPTY_DOCUMENT;
+			break;
+		case EMPTY_ARRAY:
+			mStack[mDepth - 1] = NONEMPTY_ARRAY;
+			newline();
+			break;
+		case NONEMPTY_ARRAY:
+			write(',');
+			newline();
+			break;
+		case DANGLING_NAME:
+			write(mIndent > 0 ? ": " : ":");
+			mStack[mDepth - 1] = NONEMPTY_OBJECT;
+			break;
+		case NONEMPTY_DOCUMENT:
+			throw new IllegalStateException("JSON must have only one root value");
+		default:
+			throw new IllegalStateException("Nesting problem: value without a name");
+		}
+	}
+
+	private JsonStreamWriter close(int empty, int nonempty, char bracket)
+			throws IOException {
+		int context = peek();
+		if (context != empty && context != nonempty) {
+			throw new IllegalStateException("Nesting problem: unexpected " + bracket);
+		}
+		mDepth--;
+		if (context == nonempty) {
+			newline();
+		}
+		write(bracket);
+		return this;
+	}
+
+	private void push(int scope) {
+		if (mDepth == mStack.length) {
+			int[] grown = new int[mDepth * 2];
+			System.arraycopy(mStack, 0, grown, 0, mDepth);
+			mStack = grown;
+		}
+		mStack[mDepth++] = scope;
+	}
+
+	private int peek() {
+		return mStack[mDepth - 1];
+	}
+
+	private void newline() throws IOException {
+		if (mIndent == 0) {
+			return;
+		}
+		write('\n');
+		for (int i = (mDepth - 1) * mIndent; i > 0; i--) {
+			write(' ');
+		}
+	}
+
+	/**
+	 * Write a quoted string, escaping it as required. Runs of characters
+	 * which need no escaping are written in one go.
+	 */
+	private void string(String value) throws IOException {
+		write('"');
+		int last = 0;
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			String replacement;
+			if (c < 128) {
+				replacement = ESCAPES[c];
+			} else if (c == '\u2028') {
+				replacement = "\\u2028";
+			} else if (c == '\u2029') {
+				replacement = "\\u2029";
+			} else {
+				replacement = null;
+			}
+			if (replacement == null) {
+				continue;
+			}
+			if (last < i) {
+				write(value, last, i);
+			}
+			write(replacement);
+			last = i + 1;
+		}
+		if (last < length) {
+			write(value, last, length);
+		}
+		write('"');
+	}
+
+	private void write(char c) throws IOException {
+		if (mCount == mBuffer.length) {
+			flushBuffer();
+		}
+		mBuffer[mCount++] = (byte) c;
+	}
+
+	private void write(String value) throws IOException {
+		write(value, 0, value.length());
+	}
+
+	/**
+	 * UTF-8 encode a range of characters into the buffer
+	 */
+	private void write(String value, int start, int end) throws IOException {
+		for (int i = start; i < end; i++) {
+			if (mCount > mBuffer.length - 4) {
+				flushBuffer();
+			}
+			int c = value.charAt(i);
+			if (c < 0x80) {
+				mBuffer[mCount++] = (byte) c;
+			} else if (c < 0x800) {
+				mBuffer[mCount++] = (byte) (0xc0 | (c >> 6));
+				mBuffer[mCount++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate((char) c) && i + 1 < end
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				c = Character.toCodePoint((char) c, value.charAt(++i));
+				mBuffer[mCount++] = (byte) (0xf0 | (c >> 18));
+				mBuffer[mCount++] = (byte) (0x80 | ((c >> 12) & 0x3f));
+				mBuffer[mCount++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				mBuffer[mCount++] = (byte) (0x80 | (c & 0x3f));
+			} else if (c >= 0xd800 && c <= 0xdfff) {
+				/* unpaired surrogate */
+				mBuffer[mCount++] = (byte) '?';
+			} else {
+				mBuffer[mCount++] = (byte) (0xe0 | (c >> 12));
+				mBuffer[mCount++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				mBuffer[mCount++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		if (mCount > 0) {
+			mOut.write(mBuffer, 0, mCount);
+			mWritten += mCount;
+			mCount = 0;
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects restored contacts in memory. Like {@link MemoryContactSource},
+ * it does not depend on the Android platform and can simulate the cost of
+ * storing a contact with a latency.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class MemoryContactSink implements ContactSink {
+
+	private ArrayList<Contact> mContacts;
+	private long mLatencyMicros;
+
+	/**
+	 * Constructor
+	 */
+	MemoryContactSink() {
+		mContacts = new ArrayList<Contact>();
+	}
+
+	/**
+	 * Add a delay to each contact which is stored
+	 *
+	 * @param micros
+	 *            The delay (microseconds)
+	 */
+	void setLatency(long micros) {
+		mLatencyMicros = micros;
+	}
+
+	public void store(Contact contact) throws IOException {
+		MemoryContactSource.delay(mLatencyMicros);
+		mContacts.add(contact);
+	}
+
+	public void delete(long id) throws IOException {
+		MemoryContactSource.delay(mLatencyMicros);
+		for (int i = 0; i < mContacts.size(); i++) {
+			if (mContacts.get(i).id == id) {
+				mContacts.remove(i);
+				return;
+			}
+		}
+	}
+
+	public void close() {
+		// nothing to release
+	}
+
+	/**
+	 * @return The contacts stored so far
+	 */
+	List<Contact> getContacts() {
+		return mContacts;
+	}
+
+}
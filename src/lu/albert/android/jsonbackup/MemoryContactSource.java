@@ -0,0 +1,123 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Supplies contacts held in memory. It does not depend on the Android
+ * platform, so backups can be run and measured on a plain JVM. A latency
+ * can be added to each contact to simulate the cost of reading it from the
+ * contact provider.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class MemoryContactSource implements ContactSource {
+
+	private List<Contact> mContacts;
+	private int mNext;
+	private long mLatencyMicros;
+
+	/**
+	 * Constructor
+	 *
+	 * @param contacts
+	 *            The contacts, sorted by ID
+	 */
+	MemoryContactSource(List<Contact> contacts) {
+		mContacts = contacts;
+		mNext = 0;
+	}
+
+	/**
+	 * Create a source of simple synthetic contacts. Each has a name, a
+	 * note, a phone number, an e-mail address and optionally a photo.
+	 *
+	 * @param count
+	 *            The number of contacts
+	 * @param photoSize
+	 *            The size of each photo (bytes), or 0 for no photos
+	 * @return The source
+	 */
+	static MemoryContactSource synthetic(int count, int photoSize) {
+		ArrayList<Contact> contacts = new ArrayList<Contact>(count);
+		for (int i = 1; i <= count; i++) {
+			Contact contact = new Contact();
+			contact.id = i;
+			contact.name = "Contact " + i;
+			contact.notes = "Synthetic contact number " + i;
+			contact.starred = "0";
+			contact.timesContacted = String.valueOf(i % 10);
+
+			Contact.Phone phone = new Contact.Phone();
+			phone.isPrimary = true;
+			phone.number = String.format("+352 %08d", i);
+			phone.type = "2";
+			contact.phones.add(phone);
+
+			Contact.ContactMethod method = new Contact.ContactMethod();
+			method.isPrimary = true;
+			method.kind = "1";
+			method.type = "1";
+			method.data = "contact" + i + "@example.com";
+			contact.contactMethods.add(method);
+
+			if (photoSize > 0) {
+				byte[] photo = new byte[photoSize];
+				for (int j = 0; j < photoSize; j++) {
+					photo[j] = (byte) (i + j * 31);
+				}
+				contact.photos.add(photo);
+			}
+			contacts.add(contact);
+		}
+		return new MemoryContactSource(contacts);
+	}
+
+	/**
+	 * Add a delay to each contact which is read
+	 *
+	 * @param micros
+	 *            The delay (microseconds)
+	 */
+	void setLatency(long micros) {
+		mLatencyMicros = micros;
+	}
+
+	public int getCount() {
+		return mContacts.size();
+	}
+
+	public Contact next() throws IOException {
+		if (mNext >= mContacts.size()) {
+			return null;
+		}
+		delay(mLatencyMicros);
+		return mContacts.get(mNext++);
+	}
+
+	public void close() {
+		// nothing to release
+	}
+
+	/**
+	 * Sleep for the given time
+	 *
+	 * @param micros
+	 *            The delay (microseconds), may be 0
+	 * @throws InterruptedIOException
+	 *             when the thread is interrupted
+	 */
+	static void delay(long micros) throws InterruptedIOException {
+		if (micros <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(micros / 1000, (int) (micros % 1000) * 1000);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted");
+		}
+	}
+
+}
@@ -0,0 +1,262 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Restores a backup on top of the contacts which are already on the device,
+ * changing only what differs, instead of deleting all contacts first and
+ * inserting every contact of the backup.
+ *
+ * Before the restore, the contacts on the device are read once and indexed
+ * by ID and a hash of the values a restore writes (see
+ * {@link #fingerprint(Contact)}). Only the index is kept in memory. Each
+ * contact of the backup is then
+ *
+ * <ul>
+ * <li>skipped, if a contact with the same ID and hash exists,</li>
+ * <li>deleted and stored again, if its ID exists with another hash,</li>
+ * <li>stored, if its ID does not exist.</li>
+ * </ul>
+ *
+ * Contacts on the device which are not in the backup are only deleted by
+ * {@link #deleteRemaining()}, once the whole backup has been restored. A
+ * restore which is interrupted leaves them alone, and can simply be run
+ * again.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class MergingContactSink implements ContactSink {
+
+	private ContactSink mTarget;
+	private MessageDigest mDigest;
+	private byte[] mScratch = new byte[4];
+	private RunStats.Phase mIndexPhase;
+
+	/* The index of the device's contacts, sorted by ID */
+	private int mSize;
+	private long[] mIds;
+	private long[] mHashes;
+	private boolean[] mSeen;
+
+	private int mUnchanged;
+	private int mUpdated;
+	private int mAdded;
+	private int mDeleted;
+
+	/**
+	 * Constructor
+	 *
+	 * @param target
+	 *            Stores and deletes the contacts which differ
+	 * @param stats
+	 *            Receives the time spent indexing
+	 */
+	MergingContactSink(ContactSink target, RunStats stats) {
+		mTarget = target;
+		try {
+			mDigest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("MD5 is not available", e);
+		}
+		mIndexPhase = stats.phase(RunStats.MERGE_INDEX);
+		mIds = new long[256];
+		mHashes = new long[256];
+	}
+
+	/**
+	 * Index the contacts on the device. Call this once, before the first
+	 * contact is stored.
+	 *
+	 * @param device
+	 *            The contacts on the device. It is closed when done.
+	 * @throws IOException
+	 *             when the contacts cannot be read
+	 */
+	void index(ContactSource device) throws IOException {
+		long start = System.nanoTime();
+		try {
+			Contact contact;
+			while ((contact = device.next()) != null) {
+				if (mSize > 0 && contact.id <= mIds[mSize - 1]) {
+					throw new IOException("Contacts are not sorted by ID");
+				}
+				if (mSize == mIds.length) {
+					grow();
+				}
+				mIds[mSize] = contact.id;
+				mHashes[mSize] = fingerprint(contact);
+				mSize++;
+			}
+		} finally {
+			device.close();
+		}
+		mSeen = new boolean[mSize];
+		mIndexPhase.add(start);
+	}
+
+	public void store(Contact contact) throws IOException {
+		int index = find(contact.id);
+		if (index < 0) {
+			mTarget.store(contact);
+			mAdded++;
+			return;
+		}
+		mSeen[index] = true;
+		if (mHashes[index] == fingerprint(contact)) {
+			mUnchanged++;
+			return;
+		}
+		mTarget.delete(contact.id);
+		mTarget.store(contact);
+		mUpdated++;
+	}
+
+	public void delete(long id) throws IOException {
+		mTarget.delete(id);
+	}
+
+	public void close() throws IOException {
+		mTarget.close();
+	}
+
+	/**
+	 * Delete the contacts of the device which were not in the backup. Only
+	 * call this if the whole backup has been restored.
+	 *
+	 * @throws IOException
+	 *             when a contact cannot be deleted
+	 */
+	void deleteRemaining() throws IOException {
+		for (int i = 0; i < mSize; i++) {
+			if (!mSeen[i]) {
+				mTarget.delete(mIds[i]);
+				mDeleted++;
+			}
+		}
+	}
+
+	int getUnchanged() {
+		return mUnchanged;
+	}
+
+	int getUpdated() {
+		return mUpdated;
+	}
+
+	int getAdded() {
+		return mAdded;
+	}
+
+	int getDeleted() {
+		return mDeleted;
+	}
+
+	/**
+	 * Compute a hash over the values {@link ProviderContactSink} restores,
+	 * in the form they have in the provider. A contact which was restored
+	 * from a backup has the same hash as the contact in the backup, even
+	 * though the provider computes values of its own (such as the number
+	 * key) which a backup contains as well. Photos are compared by the hash
+	 * of the photo store, so referenced photos need not be read.
+	 *
+	 * Unlike {@link FingerprintTable#fingerprint(Contact)}, this must be
+	 * changed whenever the sink restores more values.
+	 *
+	 * @param contact
+	 *            The contact
+	 * @return The first 64 bits of the MD5 digest of the values
+	 */
+	long fingerprint(Contact contact) {
+		mDigest.reset();
+		putString(contact.name);
+		putInt(ProviderContactSink.toInt(contact.timesContacted));
+		putInt(ProviderContactSink.toInt(contact.starred));
+
+		putInt(contact.phones.size());
+		for (Contact.Phone phone : contact.phones) {
+			putInt(ProviderContactSink.toInt(phone.type));
+			putString(phone.number);
+			putInt(phone.isPrimary ? 1 : 0);
+		}
+
+		putInt(contact.contactMethods.size());
+		for (Contact.ContactMethod method : contact.contactMethods) {
+			putInt(ProviderContactSink.toInt(method.kind));
+			putInt(ProviderContactSink.toInt(method.type));
+			putString(method.label);
+			putString(method.data);
+			putString(method.auxData);
+			putInt(method.isPrimary ? 1 : 0);
+		}
+
+		putInt(contact.organizations.size());
+		for (Contact.Organization org : contact.organizations) {
+			putString(org.company);
+			putString(org.title);
+			putInt(ProviderContactSink.toInt(org.type));
+			putString(org.label);
+			putInt(org.isPrimary ? 1 : 0);
+		}
+
+		if (!contact.photos.isEmpty()) {
+			putString(PhotoStore.hash(contact.photos.get(0)));
+		} else if (!contact.photoRefs.isEmpty()) {
+			putString(contact.photoRefs.get(0));
+		} else {
+			putString(null);
+		}
+
+		byte[] hash = mDigest.digest();
+		long result = 0;
+		for (int i = 0; i < 8; i++) {
+			result = (result << 8) | (hash[i] & 0xff);
+		}
+		return result;
+	}
+
+	/**
+	 * @return The index of a contact of the device, or -1 if there is none
+	 */
+	private int find(long id) {
+		return SortedIds.find(mIds, mSize, id);
+	}
+
+	private void putInt(int value) {
+		mScratch[0] = (byte) (value >>> 24);
+		mScratch[1] = (byte) (value >>> 16);
+		mScratch[2] = (byte) (value >>> 8);
+		mScratch[3] = (byte) value;
+		mDigest.update(mScratch, 0, 4);
+	}
+
+	/**
+	 * Hash a string so that null, "" and adjacent values cannot be confused
+	 */
+	private void putString(String value) {
+		if (value == null) {
+			putInt(-1);
+			return;
+		}
+		int length = value.length();
+		putInt(length);
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			mScratch[0] = (byte) (c >>> 8);
+			mScratch[1] = (byte) c;
+			mDigest.update(mScratch, 0, 2);
+		}
+	}
+
+	private void grow() {
+		int capacity = mIds.length * 2;
+		long[] ids = new long[capacity];
+		long[] hashes = new long[capacity];
+		System.arraycopy(mIds, 0, ids, 0, mSize);
+		System.arraycopy(mHashes, 0, hashes, 0, mSize);
+		mIds = ids;
+		mHashes = hashes;
+	}
+
+}
@@ -0,0 +1,337 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.Contacts.ContactMethods;
+import android.provider.Contacts.Organizations;
+import android.provider.Contacts.People;
+import android.provider.Contacts.Phones;
+import android.provider.Contacts.Photos;
+
+/**
+ * A backup engine which splits the contacts into ranges of IDs. Each range
+ * is serialized on a worker pool sized to the number of available cores.
+ * The serialized ranges are then written to the output in ascending ID
+ * order, so the result is byte-identical to the sequential engine.
+ *
+ * Each worker runs its own queries (one per table, restricted to its ID
+ * range) and merge-joins them like the sequential engine does.
+ *
+ * A worker does not hold the encoded contacts of its whole range: every
+ * {@link #FRAGMENT_SIZE} bytes, it hands a fragment to the writer. The
+ * fragments which wait to be written may take up at most
+ * {@link #MAX_PENDING_BYTES}; a worker which is ahead of the writer waits
+ * until the writer has caught up. The worker of the range which is being
+ * written never waits while none of its fragments is pending, so the
+ * writer can always proceed. Memory use thus depends on these limits and
+ * the number of workers, not on the size of the contacts (e.g. photos).
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class ParallelBackup {
+
+	/** The number of contacts in one range */
+	private static final int PARTITION_SIZE = 200;
+
+	/**
+	 * The number of ranges per worker which may be submitted ahead of the
+	 * writer. Ranges which have not started yet do not use any memory.
+	 */
+	private static final int PENDING_PER_WORKER = 2;
+
+	/** The size after which a worker hands its contacts to the writer */
+	static final int FRAGMENT_SIZE = 64 * 1024;
+
+	/** The maximum size of all fragments waiting to be written */
+	static final int MAX_PENDING_BYTES = 1024 * 1024;
+
+	private BackupThread mThread;
+	private ContentResolver mResolver;
+	private ContactCodec mCodec;
+
+	/* Guards the fragments of all ranges, mHead and mPendingBytes */
+	private final Object mLock = new Object();
+	private Partition mHead;
+	private int mPendingBytes;
+
+	/**
+	 * Constructor
+	 *
+	 * @param thread
+	 *            The backup thread. Used to report progress and to check if
+	 *            the backup has been cancelled.
+	 * @param resolver
+	 *            The content resolver used by the workers
+	 * @param codec
+	 *            The codec used to encode the contacts
+	 */
+	ParallelBackup(BackupThread thread, ContentResolver resolver,
+			ContactCodec codec) {
+		mThread = thread;
+		mResolver = resolver;
+		mCodec = codec;
+	}
+
+	/**
+	 * Serialize all contacts and append them to the output.
+	 *
+	 * @param people
+	 *            The People cursor, sorted by ID. It is only used to split
+	 *            the ID space into ranges.
+	 * @param out
+	 *            The backup file
+	 * @throws IOException
+	 *             when the output cannot be written, or a worker failed
+	 */
+	void write(Cursor people, RecordWriter out) throws IOException {
+		int total = people.getCount();
+		ArrayList<Partition> partitions = split(people);
+
+		int workers = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		LinkedList<Partition> pending = new LinkedList<Partition>();
+		int next = 0;
+		int written = 0;
+
+		try {
+			while (next < partitions.size()
+					&& pending.size() < workers * PENDING_PER_WORKER) {
+				submit(pool, partitions.get(next++), pending);
+			}
+
+			while (!pending.isEmpty()) {
+				Partition partition = pending.removeFirst();
+				writePartition(partition, out);
+				partition.mResult.get();
+				partition.mResult = null;
+
+				written += partition.mCount;
+				mThread.reportProgress(written, total);
+
+				if (!mThread.isRunning()) {
+					break;
+				}
+				if (next < partitions.size()) {
+					submit(pool, partitions.get(next++), pending);
+				}
+			}
+		} catch (InterruptedException e) {
+			throw wrap(e);
+		} catch (ExecutionException e) {
+			throw wrap(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Append the fragments of a range as they are handed over by its worker
+	 */
+	private void writePartition(Partition partition, RecordWriter out)
+			throws IOException, InterruptedException {
+		while (true) {
+			Fragment fragment;
+			synchronized (mLock) {
+				mHead = partition;
+				mLock.notifyAll();
+				while (partition.mFragments.isEmpty() && !partition.mDone) {
+					mLock.wait();
+				}
+				fragment = partition.mFragments.poll();
+			}
+			if (fragment == null) {
+				return;
+			}
+			out.append(fragment.mData, 0, fragment.mData.length,
+					fragment.mIndex);
+			synchronized (mLock) {
+				mPendingBytes -= fragment.mData.length;
+				mLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Hand a fragment to the writer, waiting while the pending fragments of
+	 * all ranges take up too much memory. A range with no pending fragments
+	 * does not wait if it is being written, or if nothing is pending at
+	 * all, so the writer and single large contacts always make progress.
+	 */
+	private void publish(Partition partition, Fragment fragment)
+			throws InterruptedException {
+		int size = fragment.mData.length;
+		synchronized (mLock) {
+			while (mPendingBytes > 0
+					&& mPendingBytes + size > MAX_PENDING_BYTES
+					&& (partition != mHead || !partition.mFragments.isEmpty())) {
+				mLock.wait();
+			}
+			mPendingBytes += size;
+			partition.mFragments.add(fragment);
+			mLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Split the ID space into ranges of {@link #PARTITION_SIZE} contacts.
+	 */
+	private ArrayList<Partition> split(Cursor people) {
+		ArrayList<Partition> partitions = new ArrayList<Partition>();
+		int idColumn = people.getColumnIndex(People._ID);
+		Partition current = null;
+		if (people.moveToFirst()) {
+			do {
+				long id = people.getLong(idColumn);
+				if (current == null || current.mCount == PARTITION_SIZE) {
+					current = new Partition(id);
+					partitions.add(current);
+				}
+				current.mLastId = id;
+				current.mCount++;
+			} while (people.moveToNext());
+		}
+		return partitions;
+	}
+
+	private void submit(ExecutorService pool, Partition partition,
+			LinkedList<Partition> pending) {
+		partition.mResult = pool.submit(partition);
+		pending.addLast(partition);
+	}
+
+	private static IOException wrap(Throwable cause) {
+		if (cause instanceof IOException) {
+			return (IOException) cause;
+		}
+		IOException e = new IOException("Backup worker failed: " + cause);
+		e.initCause(cause);
+		return e;
+	}
+
+	/**
+	 * A range of contact IDs, and the task serializing it.
+	 */
+	private class Partition implements Callable<Void> {
+
+		long mFirstId;
+		long mLastId;
+		int mCount;
+		Future<Void> mResult;
+
+		/* Guarded by mLock */
+		LinkedList<Fragment> mFragments = new LinkedList<Fragment>();
+		boolean mDone;
+
+		Partition(long firstId) {
+			mFirstId = firstId;
+			mLastId = firstId;
+			mCount = 0;
+		}
+
+		/**
+		 * Serialize all contacts of this range, handing them to the writer
+		 * in fragments (see {@link RecordWriter})
+		 */
+		public Void call() throws IOException {
+			try {
+				serialize();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Backup worker interrupted");
+			} finally {
+				synchronized (mLock) {
+					mDone = true;
+					mLock.notifyAll();
+				}
+			}
+			return null;
+		}
+
+		private void serialize() throws IOException, InterruptedException {
+			String range = " BETWEEN " + mFirstId + " AND " + mLastId;
+			/* A bare _id is ambiguous in the joined People view */
+			Cursor people = mResolver.query(People.CONTENT_URI,
+					ProviderColumns.PEOPLE, "people._id" + range, null,
+					People._ID + " ASC");
+			GroupedCursor contactMethods = query(ContactMethods.CONTENT_URI,
+					ProviderColumns.CONTACT_METHODS, ContactMethods.PERSON_ID,
+					range);
+			GroupedCursor photos = query(Photos.CONTENT_URI,
+					ProviderColumns.PHOTOS, Photos.PERSON_ID, range);
+			GroupedCursor phones = query(Phones.CONTENT_URI,
+					ProviderColumns.PHONES, Phones.PERSON_ID, range);
+			GroupedCursor organizations = query(Organizations.CONTENT_URI,
+					ProviderColumns.ORGANIZATIONS, Organizations.PERSON_ID,
+					range);
+
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			try {
+				RecordWriter out = mCodec.newFragmentWriter(buffer);
+				if (people != null && people.moveToFirst()) {
+					ContactReader reader = new ContactReader(people, mThread
+							.getStats());
+					do {
+						out.write(reader.read(contactMethods, photos, phones,
+								organizations));
+						if (buffer.size() >= FRAGMENT_SIZE) {
+							out.close();
+							publish(this, new Fragment(buffer.toByteArray(),
+									out.getIndex()));
+							buffer.reset();
+							out = mCodec.newFragmentWriter(buffer);
+						}
+					} while (mThread.isRunning() && people.moveToNext());
+				}
+				out.close();
+				if (buffer.size() > 0) {
+					publish(this, new Fragment(buffer.toByteArray(), out
+							.getIndex()));
+				}
+			} finally {
+				if (people != null) {
+					people.close();
+				}
+				contactMethods.close();
+				photos.close();
+				phones.close();
+				organizations.close();
+			}
+		}
+
+		private GroupedCursor query(Uri uri, String[] projection,
+				String personIdColumn, String range) {
+			Cursor cursor = mResolver.query(uri, projection, personIdColumn
+					+ range, null, personIdColumn + " ASC");
+			return new GroupedCursor(cursor, personIdColumn);
+		}
+
+	}
+
+	/**
+	 * Encoded contacts and their index entries, as written by a fragment
+	 * writer
+	 */
+	private static class Fragment {
+
+		final byte[] mData;
+		final ContactIndex mIndex;
+
+		Fragment(byte[] data, ContactIndex index) {
+			mData = data;
+			mIndex = index;
+		}
+
+	}
+
+}
@@ -0,0 +1,136 @@
+package lu.albert.android.jsonbackup;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.Contacts.People;
+
+/**
+ * Reads the People table in pages of a fixed number of rows, sorted by ID.
+ * Each page is queried with "people._id &gt; last ID of the previous
+ * page", so the provider never has to skip over rows which have already
+ * been read (as it would with an OFFSET), and the memory held by the cursor
+ * window does not depend on the number of contacts.
+ *
+ * Only the current page is open. It is closed as soon as the next page is
+ * requested, instead of staying open until the Activity is destroyed like
+ * a managed cursor.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class PeoplePager {
+
+	/** The default number of contacts per page */
+	static final int DEFAULT_PAGE_SIZE = 500;
+
+	private static final String[] ID_PROJECTION = { People._ID };
+
+	private ContentResolver mResolver;
+	private int mPageSize;
+	private long mLastId;
+	private Cursor mPage;
+	private RunStats.Phase mQueryPhase;
+
+	/**
+	 * Constructor
+	 *
+	 * @param resolver
+	 *            The content resolver
+	 * @param pageSize
+	 *            The maximum number of contacts per page
+	 * @param stats
+	 *            Receives the time spent on the queries
+	 */
+	PeoplePager(ContentResolver resolver, int pageSize, RunStats stats) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("Invalid page size "
+					+ pageSize);
+		}
+		mResolver = resolver;
+		mPageSize = pageSize;
+		mLastId = -1;
+		mQueryPhase = stats.phase(RunStats.PEOPLE_QUERY);
+	}
+
+	/**
+	 * Skip the contacts up to an ID, e.g. to continue an interrupted backup.
+	 * Call this before reading the first page.
+	 *
+	 * @param id
+	 *            The ID of the last contact which is not returned
+	 */
+	void startAfter(long id) {
+		mLastId = id;
+	}
+
+	/**
+	 * Count the contacts which have not been read yet. This runs a query of
+	 * its own which only returns the IDs, so call it once.
+	 *
+	 * @return The number of contacts after the current page
+	 */
+	int count() {
+		long start = System.nanoTime();
+		Cursor cursor = mResolver.query(People.CONTENT_URI, ID_PROJECTION,
+				where(), null, null);
+		if (cursor == null) {
+			return 0;
+		}
+		try {
+			return cursor.getCount();
+		} finally {
+			cursor.close();
+			mQueryPhase.add(start);
+		}
+	}
+
+	/**
+	 * Close the current page and query the next one. The returned cursor
+	 * uses the projection {@link ProviderColumns#PEOPLE}, is positioned
+	 * before its first row and must not be closed by the caller.
+	 *
+	 * @return The next page, or null if all contacts have been read
+	 */
+	Cursor nextPage() {
+		close();
+		long start = System.nanoTime();
+		Cursor page = mResolver.query(People.CONTENT_URI,
+				ProviderColumns.PEOPLE, where(), null, People._ID
+						+ " ASC LIMIT " + mPageSize);
+		if (page == null) {
+			return null;
+		}
+		if (!page.moveToLast()) {
+			page.close();
+			mQueryPhase.add(start);
+			return null;
+		}
+		mLastId = page.getLong(page.getColumnIndex(People._ID));
+		page.moveToPosition(-1);
+		mQueryPhase.add(start);
+		mPage = page;
+		return page;
+	}
+
+	/**
+	 * Close the current page
+	 */
+	void close() {
+		if (mPage != null) {
+			mPage.close();
+			mPage = null;
+		}
+	}
+
+	/**
+	 * The People URI queries a join of people, phones and presence, so the
+	 * ID column must be qualified with its table. (A bare _id is ambiguous
+	 * and the query fails.)
+	 */
+	private String where() {
+		if (mLastId < 0) {
+			return null;
+		}
+		return "people._id>" + mLastId;
+	}
+
+}
@@ -0,0 +1,145 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+
+/**
+ * A content-addressed store for contact photos. Each photo is stored once,
+ * in a file named after the SHA-1 hash of its bytes. The backup file only
+ * references photos by their hash (see {@link
+ * lu.albert.android.jsonbackup.schema.ContactColumns#PHOTO_REFS}).
+ *
+ * Photos rarely change and make up most of a backup. Storing them this way,
+ * a photo which is already in the store (from a previous backup, or shared
+ * with another contact) is never written again.
+ *
+ * The store may be used by several threads at once.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class PhotoStore {
+
+	/** The sub-folder of the storage folder containing the photos */
+	static final String FOLDER_NAME = "photos";
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private File mFolder;
+
+	/** Hashes of the photos known to be in the store */
+	private HashSet<String> mKnown;
+
+	/**
+	 * Constructor
+	 *
+	 * @param storageFolder
+	 *            The folder containing the backup file
+	 */
+	PhotoStore(File storageFolder) {
+		mFolder = new File(storageFolder, FOLDER_NAME);
+		mKnown = new HashSet<String>();
+	}
+
+	/**
+	 * Add a photo to the store, unless it is already there.
+	 *
+	 * @param photo
+	 *            The raw photo bytes
+	 * @return The hash by which the photo can be retrieved
+	 * @throws IOException
+	 *             when the photo cannot be written
+	 */
+	String put(byte[] photo) throws IOException {
+		String hash = hash(photo);
+		synchronized (mKnown) {
+			if (mKnown.contains(hash)) {
+				return hash;
+			}
+		}
+
+		File file = new File(mFolder, hash);
+		if (!file.exists() || file.length() != photo.length) {
+			mFolder.mkdirs();
+			/*
+			 * Write to a temporary file first, so a failed write never leaves
+			 * a truncated photo under a valid hash
+			 */
+			File temp = new File(mFolder, hash + "."
+					+ Thread.currentThread().getId() + ".tmp");
+			FileOutputStream out = new FileOutputStream(temp);
+			try {
+				out.write(photo);
+			} finally {
+				out.close();
+			}
+			if (!temp.renameTo(file)) {
+				temp.delete();
+				throw new IOException("Unable to store photo " + hash);
+			}
+		}
+
+		synchronized (mKnown) {
+			mKnown.add(hash);
+		}
+		return hash;
+	}
+
+	/**
+	 * Read a photo from the store
+	 *
+	 * @param hash
+	 *            The hash returned by {@link #put(byte[])}
+	 * @return The raw photo bytes
+	 * @throws IOException
+	 *             when the photo is missing or cannot be read
+	 */
+	byte[] get(String hash) throws IOException {
+		File file = new File(mFolder, hash);
+		if (hash.indexOf(File.separatorChar) >= 0 || !file.isFile()) {
+			throw new IOException("Photo " + hash + " is missing from "
+					+ mFolder);
+		}
+		byte[] photo = new byte[(int) file.length()];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			int position = 0;
+			while (position < photo.length) {
+				int read = in.read(photo, position, photo.length - position);
+				if (read < 0) {
+					throw new IOException("Photo " + hash + " is truncated");
+				}
+				position += read;
+			}
+		} finally {
+			in.close();
+		}
+		return photo;
+	}
+
+	/**
+	 * @param photo
+	 *            The raw photo bytes
+	 * @return The SHA-1 hash of the photo as lower-case hex string
+	 */
+	static String hash(byte[] photo) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-1 is not available", e);
+		}
+		byte[] hash = digest.digest(photo);
+		char[] hex = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			hex[2 * i] = HEX[(hash[i] >> 4) & 0x0f];
+			hex[2 * i + 1] = HEX[hash[i] & 0x0f];
+		}
+		return new String(hex);
+	}
+
+}
@@ -0,0 +1,429 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.Contacts.ContactMethods;
+import android.provider.Contacts.Organizations;
+import android.provider.Contacts.Phones;
+import android.provider.Contacts.Photos;
+import android.util.Log;
+
+/**
+ * A backup engine which runs in three stages, each on its own thread:
+ *
+ * <ol>
+ * <li>The reader stage reads the contacts from the provider</li>
+ * <li>The serializer stage encodes each contact</li>
+ * <li>The writer stage (the calling thread) appends the encoded contacts to
+ * the output</li>
+ * </ol>
+ *
+ * The stages are connected by bounded queues. A stage which runs ahead
+ * blocks until the next stage catches up, so memory use stays bounded. Each
+ * queue is bounded both by the number of items and by their size (see
+ * {@link #MAX_QUEUED_BYTES}), as contacts with photos can be large.
+ *
+ * For each stage, the time spent working and the time spent waiting on the
+ * queues is measured. The stage with the highest utilisation is the
+ * bottleneck.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class PipelinedBackup {
+
+	/** The capacity of each hand-off queue */
+	private static final int QUEUE_CAPACITY = 32;
+
+	/** The maximum size of the contacts (or encoded contacts) in a queue */
+	static final int MAX_QUEUED_BYTES = 1024 * 1024;
+
+	/** The assumed size of a contact without its photos */
+	private static final int CONTACT_OVERHEAD = 512;
+
+	/** How often a blocked stage checks if the pipeline was aborted (ms) */
+	private static final long POLL_TIMEOUT = 100;
+
+	/* Markers for the end of a queue */
+	private static final Contact END_OF_CONTACTS = new Contact();
+	private static final Chunk END_OF_CHUNKS = new Chunk(null, null);
+
+	private BackupThread mThread;
+	private ContentResolver mResolver;
+	private ContactCodec mCodec;
+	private ArrayBlockingQueue<Contact> mContacts;
+	private ArrayBlockingQueue<Chunk> mChunks;
+	private ByteBudget mContactBytes;
+	private ByteBudget mChunkBytes;
+	private volatile boolean mAborted;
+	private volatile Throwable mError;
+	private StageMetrics mReaderMetrics;
+	private StageMetrics mSerializerMetrics;
+	private StageMetrics mWriterMetrics;
+
+	/**
+	 * Constructor
+	 *
+	 * @param thread
+	 *            The backup thread. Used to report progress and to check if
+	 *            the backup has been cancelled.
+	 * @param resolver
+	 *            The content resolver used to query the sub-tables
+	 * @param codec
+	 *            The codec used to encode the contacts
+	 */
+	PipelinedBackup(BackupThread thread, ContentResolver resolver,
+			ContactCodec codec) {
+		mThread = thread;
+		mResolver = resolver;
+		mCodec = codec;
+		mContacts = new ArrayBlockingQueue<Contact>(QUEUE_CAPACITY);
+		mChunks = new ArrayBlockingQueue<Chunk>(QUEUE_CAPACITY);
+		mContactBytes = new ByteBudget(MAX_QUEUED_BYTES);
+		mChunkBytes = new ByteBudget(MAX_QUEUED_BYTES);
+		mReaderMetrics = new StageMetrics("read");
+		mSerializerMetrics = new StageMetrics("serialize");
+		mWriterMetrics = new StageMetrics("write");
+	}
+
+	/**
+	 * Serialize all contacts and append them to the output.
+	 *
+	 * @param people
+	 *            The People cursor, sorted by ID. From now on, it is only
+	 *            used by the reader stage.
+	 * @param out
+	 *            The backup file
+	 * @throws IOException
+	 *             when the output cannot be written, or a stage failed
+	 */
+	void write(Cursor people, RecordWriter out) throws IOException {
+		int total = people.getCount();
+		Thread reader = new Thread(new ReaderStage(people), "backup-reader");
+		Thread serializer = new Thread(new SerializerStage(),
+				"backup-serializer");
+		reader.start();
+		serializer.start();
+
+		int written = 0;
+		try {
+			while (true) {
+				Chunk chunk = take(mChunks, mWriterMetrics);
+				if (chunk == null || chunk == END_OF_CHUNKS) {
+					break;
+				}
+				long start = System.nanoTime();
+				out.append(chunk.mData, 0, chunk.mData.length, chunk.mIndex);
+				mWriterMetrics.addBusy(start);
+				mChunkBytes.release(chunk.mData.length);
+
+				written++;
+				mThread.reportProgress(written, total);
+				if (!mThread.isRunning()) {
+					break;
+				}
+			}
+		} finally {
+			/* Stops the other stages if the writer left early */
+			mAborted = true;
+			join(reader);
+			join(serializer);
+			Log.i(JsonBackup.TAG, mReaderMetrics.toString());
+			Log.i(JsonBackup.TAG, mSerializerMetrics.toString());
+			Log.i(JsonBackup.TAG, mWriterMetrics.toString());
+		}
+
+		if (mError != null) {
+			if (mError instanceof IOException) {
+				throw (IOException) mError;
+			}
+			IOException e = new IOException("Backup stage failed: " + mError);
+			e.initCause(mError);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return The utilisation metrics of the reader, serializer and writer
+	 *         stage (in that order)
+	 */
+	StageMetrics[] getMetrics() {
+		return new StageMetrics[] { mReaderMetrics, mSerializerMetrics,
+				mWriterMetrics };
+	}
+
+	/**
+	 * Take the next item from a queue
+	 *
+	 * @return The item, or null if the pipeline was aborted
+	 */
+	private <T> T take(ArrayBlockingQueue<T> queue, StageMetrics metrics) {
+		long start = System.nanoTime();
+		try {
+			while (!mAborted) {
+				T item = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+				if (item != null) {
+					return item;
+				}
+			}
+			return null;
+		} catch (InterruptedException e) {
+			mAborted = true;
+			return null;
+		} finally {
+			metrics.addWait(start);
+		}
+	}
+
+	/**
+	 * Put an item into a queue, waiting for space to become available
+	 *
+	 * @param budget
+	 *            Limits the size of the queued items
+	 * @param size
+	 *            The size of the item, released by the consumer
+	 * @return false if the pipeline was aborted
+	 */
+	private <T> boolean put(ArrayBlockingQueue<T> queue, T item,
+			ByteBudget budget, long size, StageMetrics metrics) {
+		long start = System.nanoTime();
+		try {
+			while (!budget.reserve(size, POLL_TIMEOUT)) {
+				if (mAborted) {
+					return false;
+				}
+			}
+			while (!mAborted) {
+				if (queue.offer(item, POLL_TIMEOUT, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			}
+			return false;
+		} catch (InterruptedException e) {
+			mAborted = true;
+			return false;
+		} finally {
+			metrics.addWait(start);
+		}
+	}
+
+	/**
+	 * @return The memory a contact is assumed to take up in a queue
+	 */
+	private static long sizeOf(Contact contact) {
+		long size = CONTACT_OVERHEAD;
+		for (byte[] photo : contact.photos) {
+			size += photo.length;
+		}
+		return size;
+	}
+
+	private void fail(Throwable error) {
+		if (mError == null) {
+			mError = error;
+		}
+		mAborted = true;
+	}
+
+	private static void join(Thread thread) {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			// The stage will notice the abort flag and exit on its own
+		}
+	}
+
+	/**
+	 * Reads the contacts from the provider, merge-joining the sub-tables with
+	 * the People cursor.
+	 */
+	private class ReaderStage implements Runnable {
+
+		private Cursor mPeople;
+
+		ReaderStage(Cursor people) {
+			mPeople = people;
+		}
+
+		public void run() {
+			GroupedCursor contactMethods = query(ContactMethods.CONTENT_URI,
+					ProviderColumns.CONTACT_METHODS, ContactMethods.PERSON_ID);
+			GroupedCursor photos = query(Photos.CONTENT_URI,
+					ProviderColumns.PHOTOS, Photos.PERSON_ID);
+			GroupedCursor phones = query(Phones.CONTENT_URI,
+					ProviderColumns.PHONES, Phones.PERSON_ID);
+			GroupedCursor organizations = query(Organizations.CONTENT_URI,
+					ProviderColumns.ORGANIZATIONS, Organizations.PERSON_ID);
+			try {
+				if (mPeople.moveToFirst()) {
+					ContactReader reader = new ContactReader(mPeople, mThread
+							.getStats());
+					do {
+						long start = System.nanoTime();
+						Contact contact = reader.read(contactMethods, photos,
+								phones, organizations);
+						mReaderMetrics.addBusy(start);
+						if (!put(mContacts, contact, mContactBytes,
+								sizeOf(contact), mReaderMetrics)) {
+							return;
+						}
+					} while (mPeople.moveToNext());
+				}
+				put(mContacts, END_OF_CONTACTS, mContactBytes, 0,
+						mReaderMetrics);
+			} catch (RuntimeException e) {
+				fail(e);
+			} finally {
+				contactMethods.close();
+				photos.close();
+				phones.close();
+				organizations.close();
+			}
+		}
+
+		private GroupedCursor query(Uri uri, String[] projection,
+				String personIdColumn) {
+			Cursor cursor = mResolver.query(uri, projection, null, null,
+					personIdColumn + " ASC");
+			return new GroupedCursor(cursor, personIdColumn);
+		}
+
+	}
+
+	/**
+	 * Encodes each contact into a fragment of its own.
+	 */
+	private class SerializerStage implements Runnable {
+
+		public void run() {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			try {
+				while (true) {
+					Contact contact = take(mContacts, mSerializerMetrics);
+					if (contact == null) {
+						return;
+					}
+					if (contact == END_OF_CONTACTS) {
+						put(mChunks, END_OF_CHUNKS, mChunkBytes, 0,
+								mSerializerMetrics);
+						return;
+					}
+
+					long start = System.nanoTime();
+					buffer.reset();
+					RecordWriter out = mCodec.newFragmentWriter(buffer);
+					out.write(contact);
+					out.close();
+					Chunk chunk = new Chunk(buffer.toByteArray(), out
+							.getIndex());
+					mSerializerMetrics.addBusy(start);
+					mContactBytes.release(sizeOf(contact));
+
+					if (!put(mChunks, chunk, mChunkBytes, chunk.mData.length,
+							mSerializerMetrics)) {
+						return;
+					}
+				}
+			} catch (IOException e) {
+				fail(e);
+			} catch (RuntimeException e) {
+				fail(e);
+			}
+		}
+
+	}
+
+	/**
+	 * An encoded contact and its index entry, as passed from the serializer
+	 * to the writer stage
+	 */
+	private static class Chunk {
+
+		final byte[] mData;
+		final ContactIndex mIndex;
+
+		Chunk(byte[] data, ContactIndex index) {
+			mData = data;
+			mIndex = index;
+		}
+
+	}
+
+	/**
+	 * Time and item counters of one pipeline stage. The counters of a stage
+	 * are only updated by the thread running that stage.
+	 */
+	static class StageMetrics {
+
+		private String mName;
+		private volatile long mBusyNanos;
+		private volatile long mWaitNanos;
+		private volatile int mItems;
+
+		StageMetrics(String name) {
+			mName = name;
+		}
+
+		/**
+		 * Record the processing of one item
+		 *
+		 * @param start The value of System.nanoTime() when processing started
+		 */
+		void addBusy(long start) {
+			mBusyNanos += System.nanoTime() - start;
+			mItems++;
+		}
+
+		/**
+		 * Record time spent blocked on a queue
+		 *
+		 * @param start The value of System.nanoTime() when waiting started
+		 */
+		void addWait(long start) {
+			mWaitNanos += System.nanoTime() - start;
+		}
+
+		String getName() {
+			return mName;
+		}
+
+		long getBusyMillis() {
+			return mBusyNanos / 1000000;
+		}
+
+		long getWaitMillis() {
+			return mWaitNanos / 1000000;
+		}
+
+		int getItems() {
+			return mItems;
+		}
+
+		/**
+		 * @return The percentage of time this stage spent working instead of
+		 *         waiting for the other stages
+		 */
+		int getUtilisation() {
+			long total = mBusyNanos + mWaitNanos;
+			if (total == 0) {
+				return 0;
+			}
+			return (int) (100 * mBusyNanos / total);
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"Pipeline stage '%s': %d items, busy %d ms, waiting %d ms, %d%% utilised",
+					mName, mItems, getBusyMillis(), getWaitMillis(),
+					getUtilisation());
+		}
+
+	}
+
+}
@@ -0,0 +1,352 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
+/**
+ * A restore engine which runs in two stages, each on its own thread:
+ *
+ * <ol>
+ * <li>The parse stage reads and decodes the backup file</li>
+ * <li>The store stage (the calling thread) hands the contacts to a
+ * {@link ContactSink}</li>
+ * </ol>
+ *
+ * The stages are connected by a bounded queue, so the file is decoded while
+ * the provider stores the previous contacts. Contacts are passed in batches,
+ * so the stages switch threads once per batch rather than once per contact.
+ * The stored batches are returned to the parse stage through a second queue
+ * and refilled, so the number of contacts in flight is fixed.
+ *
+ * Before each batch is taken, the store stage samples how full the queue
+ * is. A queue which stays nearly empty means the parse stage is the
+ * bottleneck, a queue which stays nearly full means the sink is. The
+ * average is logged and kept in the {@link RunStats}, together with the
+ * time each stage spent waiting for the other.
+ *
+ * Like {@link SequentialRestore}, it does not depend on the Android
+ * platform, apart from logging.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class PipelinedRestore {
+
+	/** The number of contacts per batch */
+	static final int BATCH_SIZE = 8;
+
+	/** The number of batches in flight, and the capacity of the queue */
+	static final int QUEUE_CAPACITY = 4;
+
+	/** How often a blocked stage checks if the pipeline was aborted (ms) */
+	private static final long POLL_TIMEOUT = 100;
+
+	/* Marker for the end of the queue */
+	private static final Batch END_OF_CONTACTS = new Batch();
+
+	private ContactSink mSink;
+	private ProgressListener mListener;
+	private RunStats mStats;
+	private boolean mReuseContacts;
+	private ArrayBlockingQueue<Batch> mParsed;
+	private ArrayBlockingQueue<Batch> mFree;
+	private volatile boolean mCancelled;
+	private volatile boolean mAborted;
+	private volatile Throwable mError;
+	private PipelinedBackup.StageMetrics mParseMetrics;
+	private PipelinedBackup.StageMetrics mStoreMetrics;
+	private RunStats.Phase mParseWaitPhase;
+	private RunStats.Phase mStoreWaitPhase;
+	private long mFillSum;
+	private int mFillSamples;
+	private int mEmptySamples;
+
+	/**
+	 * Constructor
+	 *
+	 * @param sink
+	 *            Receives the contacts. Only used by the calling thread.
+	 * @param listener
+	 *            Receives the position in the backup file (KB, see
+	 *            {@link SequentialRestore#toKilobytes(long)}) and the name
+	 *            of each restored contact, on the calling thread
+	 * @param stats
+	 *            Receives the time spent reading, decoding and waiting
+	 */
+	PipelinedRestore(ContactSink sink, ProgressListener listener,
+			RunStats stats) {
+		mSink = sink;
+		mListener = listener;
+		mStats = stats;
+		mParsed = new ArrayBlockingQueue<Batch>(QUEUE_CAPACITY + 1);
+		mFree = new ArrayBlockingQueue<Batch>(QUEUE_CAPACITY);
+		mParseMetrics = new PipelinedBackup.StageMetrics("parse");
+		mStoreMetrics = new PipelinedBackup.StageMetrics("store");
+		mParseWaitPhase = stats.phase(RunStats.PARSE_WAIT);
+		mStoreWaitPhase = stats.phase(RunStats.STORE_WAIT);
+	}
+
+	/**
+	 * Decode each contact into one of a fixed set of {@link Contact}
+	 * objects, instead of a new one per contact. Only enable this if the
+	 * sink is done with a contact when {@link ContactSink#store(Contact)}
+	 * returns.
+	 *
+	 * @param reuse
+	 *            Whether to reuse the contacts
+	 */
+	void setReuseContacts(boolean reuse) {
+		mReuseContacts = reuse;
+	}
+
+	/**
+	 * Restore all contacts of a backup file. The file and the sink are
+	 * closed when done.
+	 *
+	 * @param file
+	 *            The contents of the backup file
+	 * @param length
+	 *            The size of the backup file (bytes)
+	 * @return The number of restored contacts
+	 * @throws IOException
+	 *             when the file cannot be read, or a contact cannot be
+	 *             stored
+	 */
+	int restore(InputStream file, long length) throws IOException {
+		int total = SequentialRestore.toKilobytes(length);
+		CountingInputStream counter = new CountingInputStream(file);
+		int restored = 0;
+		try {
+			/* Compressed files are detected and decompressed on the fly */
+			RecordReader reader = ContactCodec.open(Compression
+					.decompress(counter), mStats);
+			Thread parser = new Thread(new ParseStage(reader, counter,
+					total), "restore-parser");
+			for (int i = 0; i < QUEUE_CAPACITY; i++) {
+				mFree.add(new Batch());
+			}
+			parser.start();
+			try {
+				while (!mCancelled) {
+					mFillSum += mParsed.size();
+					mFillSamples++;
+					if (mParsed.isEmpty()) {
+						mEmptySamples++;
+					}
+					Batch batch = take(mParsed, mStoreMetrics,
+							mStoreWaitPhase);
+					if (batch == null || batch == END_OF_CONTACTS) {
+						break;
+					}
+					for (int i = 0; i < batch.mCount && !mCancelled; i++) {
+						Contact contact = batch.mContacts[i];
+						long start = System.nanoTime();
+						mSink.store(contact);
+						mStoreMetrics.addBusy(start);
+						restored++;
+						mListener.onProgress(batch.mPositions[i], total,
+								contact.name);
+					}
+					mFree.add(batch);
+				}
+			} finally {
+				/* Stops the parse stage if the store stage left early */
+				mAborted = true;
+				join(parser);
+				reader.close();
+				report();
+			}
+		} finally {
+			counter.close();
+			mSink.close();
+		}
+
+		if (mError != null) {
+			if (mError instanceof IOException) {
+				throw (IOException) mError;
+			}
+			IOException e = new IOException("Restore stage failed: "
+					+ mError);
+			e.initCause(mError);
+			throw e;
+		}
+		mListener.onProgress(total, total, null);
+		return restored;
+	}
+
+	/**
+	 * Stop after the current contact. May be called from any thread.
+	 */
+	void cancel() {
+		mCancelled = true;
+	}
+
+	/**
+	 * @return The average number of decoded batches waiting in the queue,
+	 *         as a percentage of its capacity
+	 */
+	int getQueueFill() {
+		if (mFillSamples == 0) {
+			return 0;
+		}
+		return (int) (100 * mFillSum / ((long) mFillSamples * QUEUE_CAPACITY));
+	}
+
+	/**
+	 * @return The utilisation metrics of the parse and store stage (in that
+	 *         order)
+	 */
+	PipelinedBackup.StageMetrics[] getMetrics() {
+		return new PipelinedBackup.StageMetrics[] { mParseMetrics,
+				mStoreMetrics };
+	}
+
+	private void report() {
+		int starved = mFillSamples == 0 ? 0 : 100 * mEmptySamples
+				/ mFillSamples;
+		mStats.setQueueFill(getQueueFill());
+		Log.i(JsonBackup.TAG, mParseMetrics.toString());
+		Log.i(JsonBackup.TAG, mStoreMetrics.toString());
+		Log.i(JsonBackup.TAG, "Restore queue " + getQueueFill()
+				+ "% full on average, empty " + starved + "% of the time");
+	}
+
+	/**
+	 * Take the next item from a queue
+	 *
+	 * @return The batch, or null if the pipeline was aborted
+	 */
+	private Batch take(ArrayBlockingQueue<Batch> queue,
+			PipelinedBackup.StageMetrics metrics, RunStats.Phase waitPhase) {
+		long start = System.nanoTime();
+		try {
+			while (!mAborted) {
+				Batch batch = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+				if (batch != null) {
+					return batch;
+				}
+			}
+			return null;
+		} catch (InterruptedException e) {
+			mAborted = true;
+			return null;
+		} finally {
+			metrics.addWait(start);
+			waitPhase.add(start);
+		}
+	}
+
+	private void fail(Throwable error) {
+		if (mError == null) {
+			mError = error;
+		}
+		mAborted = true;
+	}
+
+	private static void join(Thread thread) {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			// The stage will notice the abort flag and exit on its own
+		}
+	}
+
+	/**
+	 * Decodes the contacts into free batches and queues the full batches
+	 * for the store stage. The parsed queue holds one more batch than there
+	 * are batches in circulation, so adding to it never blocks: the parse
+	 * stage waits for a free batch instead.
+	 */
+	private class ParseStage implements Runnable {
+
+		private RecordReader mReader;
+		private CountingInputStream mCounter;
+		private int mTotal;
+
+		ParseStage(RecordReader reader, CountingInputStream counter,
+				int total) {
+			mReader = reader;
+			mCounter = counter;
+			mTotal = total;
+		}
+
+		public void run() {
+			try {
+				boolean done = false;
+				while (!done && !mCancelled) {
+					Batch batch = take(mFree, mParseMetrics, mParseWaitPhase);
+					if (batch == null) {
+						return;
+					}
+					batch.mCount = 0;
+					while (batch.mCount < BATCH_SIZE) {
+						done = !read(batch);
+						if (done) {
+							break;
+						}
+					}
+					if (batch.mCount > 0) {
+						mParsed.add(batch);
+					}
+				}
+				mParsed.add(END_OF_CONTACTS);
+			} catch (IOException e) {
+				fail(e);
+			} catch (RuntimeException e) {
+				fail(e);
+			}
+		}
+
+		/**
+		 * Decode the next contact into a batch
+		 *
+		 * @return false at the end of the file
+		 */
+		private boolean read(Batch batch) throws IOException {
+			int i = batch.mCount;
+			long start = System.nanoTime();
+			Contact contact = mReuseContacts ? mReader
+					.read(batch.mContacts[i]) : mReader.read();
+			mParseMetrics.addBusy(start);
+			if (contact == null) {
+				return false;
+			}
+			batch.mContacts[i] = contact;
+
+			/*
+			 * The position is taken from the file, as the amount of decoded
+			 * data does not match the file size if the file is compressed.
+			 * The file is read ahead, so the end is only reported once the
+			 * restore has finished. If the length is given as 0, so is the
+			 * total, and the position must not drop below 0.
+			 */
+			batch.mPositions[i] = (int) Math.max(0, Math.min(mCounter
+					.getCount() / 1024, mTotal - 1));
+			batch.mCount++;
+			return true;
+		}
+
+	}
+
+	/**
+	 * Decoded contacts and the positions of their ends in the backup file
+	 * (KB), as passed from the parse to the store stage
+	 */
+	private static class Batch {
+
+		final Contact[] mContacts = new Contact[BATCH_SIZE];
+		final int[] mPositions = new int[BATCH_SIZE];
+		int mCount;
+
+		Batch() {
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				mContacts[i] = new Contact();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,21 @@
+package lu.albert.android.jsonbackup;
+
+import android.os.Bundle;
+import android.preference.PreferenceActivity;
+
+/**
+ * Lets the user change the application settings. The values are stored in
+ * the preferences file named {@link JsonBackup#PREFS_NAME}.
+ * 
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+public class Preferences extends PreferenceActivity {
+
+	@Override
+	public void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		getPreferenceManager().setSharedPreferencesName(JsonBackup.PREFS_NAME);
+		addPreferencesFromResource(R.xml.preferences);
+	}
+
+}
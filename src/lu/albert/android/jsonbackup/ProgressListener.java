@@ -0,0 +1,24 @@
+package lu.albert.android.jsonbackup;
+
+/**
+ * Receives the progress of a backup or restore
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+interface ProgressListener {
+
+	/**
+	 * Called after each step of the operation. The operation is complete
+	 * once position reaches total.
+	 *
+	 * @param position
+	 *            The amount of work done
+	 * @param total
+	 *            The total amount of work
+	 * @param label
+	 *            A text describing the last step (e.g. the name of the
+	 *            last contact), or null
+	 */
+	void onProgress(int position, int total, String label);
+
+}
@@ -0,0 +1,112 @@
+package lu.albert.android.jsonbackup;
+
+import android.os.Handler;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Sends progress updates from a worker thread to a handler on the UI
+ * thread, coalescing them so that at most one message is sent per interval.
+ * Updates which arrive in between only replace the pending state. An update
+ * which reaches the total is always sent, as the UI uses it to detect the
+ * end of the operation.
+ *
+ * The message carries the position in arg1, the total in arg2 and an
+ * optional label (e.g. the name of the last contact) in obj. Messages are
+ * taken from the handler's pool and no Bundle is allocated, so an update
+ * never allocates on its own and the worker never waits for the UI.
+ *
+ * A reporter must only be used by one thread.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class ProgressReporter implements ProgressListener {
+
+	/** The default minimum time between two messages (ms) */
+	static final long DEFAULT_INTERVAL = 50;
+
+	private Handler mHandler;
+	private int mWhat;
+	private long mInterval;
+	private long mLastSent;
+
+	/* The latest state, and whether it has been sent */
+	private int mPosition;
+	private int mTotal;
+	private String mLabel;
+	private boolean mPending;
+
+	private int mUpdates;
+	private int mMessages;
+
+	/**
+	 * Constructor
+	 *
+	 * @param handler
+	 *            The handler receiving the messages
+	 * @param what
+	 *            The message code
+	 * @param interval
+	 *            The minimum time between two messages (ms)
+	 */
+	ProgressReporter(Handler handler, int what, long interval) {
+		mHandler = handler;
+		mWhat = what;
+		mInterval = interval;
+		mLastSent = -interval;
+	}
+
+	/**
+	 * Record the current progress, and send it if the interval has elapsed
+	 */
+	public void onProgress(int position, int total, String label) {
+		mPosition = position;
+		mTotal = total;
+		mLabel = label;
+		mPending = true;
+		mUpdates++;
+
+		long now = SystemClock.uptimeMillis();
+		if (position >= total || now - mLastSent >= mInterval) {
+			send(now);
+		}
+	}
+
+	/**
+	 * Send the latest state if it has been held back, and log how many
+	 * updates have been coalesced. Call this when the operation ends.
+	 */
+	void finish() {
+		if (mPending) {
+			send(SystemClock.uptimeMillis());
+		}
+		Log.i(JsonBackup.TAG, String.format(
+				"Progress: %d updates sent as %d messages", mUpdates,
+				mMessages));
+	}
+
+	/**
+	 * @return The number of calls to
+	 *         {@link #onProgress(int, int, String)}
+	 */
+	int getUpdateCount() {
+		return mUpdates;
+	}
+
+	/**
+	 * @return The number of messages sent to the handler
+	 */
+	int getMessageCount() {
+		return mMessages;
+	}
+
+	private void send(long now) {
+		Message msg = mHandler.obtainMessage(mWhat, mPosition, mTotal, mLabel);
+		mHandler.sendMessage(msg);
+		mLastSent = now;
+		mPending = false;
+		mMessages++;
+	}
+
+}
@@ -0,0 +1,56 @@
+package lu.albert.android.jsonbackup;
+
+import android.provider.Contacts.ContactMethods;
+import android.provider.Contacts.Organizations;
+import android.provider.Contacts.People;
+import android.provider.Contacts.Phones;
+import android.provider.Contacts.Photos;
+
+/**
+ * The projections of all backup queries: the provider columns which
+ * {@link ContactReader} reads, and nothing else.
+ *
+ * Without a projection, the provider copies every column of every row into
+ * the cursor window, including columns which are never backed up (such as
+ * PHOTO_VERSION, or the sync and presence columns the People and sub-table
+ * views join in). With a projection, more rows fit into one window, so the
+ * window is refilled (and copied from the provider process) less often.
+ * The person ID column of each sub-table is only needed to group the rows
+ * by contact (see {@link GroupedCursor}).
+ *
+ * When ContactReader reads another column, add it here. A column which is
+ * missing from the projection has the index -1 in the cursor.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class ProviderColumns {
+
+	/** The projection of People queries */
+	static final String[] PEOPLE = { People._ID, People.NAME,
+			People.CUSTOM_RINGTONE, People.DISPLAY_NAME,
+			People.LAST_TIME_CONTACTED, People.NOTES, People.PHONETIC_NAME,
+			People.SEND_TO_VOICEMAIL, People.STARRED, People.TIMES_CONTACTED };
+
+	/** The projection of ContactMethods queries */
+	static final String[] CONTACT_METHODS = { ContactMethods.PERSON_ID,
+			ContactMethods.ISPRIMARY, ContactMethods.LABEL,
+			ContactMethods.TYPE, ContactMethods.AUX_DATA, ContactMethods.DATA,
+			ContactMethods.KIND };
+
+	/** The projection of Photos queries */
+	static final String[] PHOTOS = { Photos.PERSON_ID, Photos.DATA };
+
+	/** The projection of Phones queries */
+	static final String[] PHONES = { Phones.PERSON_ID, Phones.ISPRIMARY,
+			Phones.LABEL, Phones.NUMBER, Phones.NUMBER_KEY, Phones.TYPE };
+
+	/** The projection of Organizations queries */
+	static final String[] ORGANIZATIONS = { Organizations.PERSON_ID,
+			Organizations.ISPRIMARY, Organizations.LABEL, Organizations.TITLE,
+			Organizations.COMPANY, Organizations.TYPE };
+
+	private ProviderColumns() {
+		// only static members
+	}
+
+}
@@ -0,0 +1,192 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.IOException;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.provider.Contacts;
+import android.provider.Contacts.ContactMethods;
+import android.provider.Contacts.Organizations;
+import android.provider.Contacts.People;
+import android.provider.Contacts.Phones;
+import android.util.Log;
+
+/**
+ * Stores restored contacts in the device's contact provider.
+ *
+ * The person is created right away, as the provider assigns its ID and adds
+ * it to the "My Contacts" group. Phones, contact methods and organizations
+ * only need that ID, so their rows are collected across contacts and
+ * inserted in batches (see {@link BatchInserter}). The last batches are
+ * inserted by {@link #close()}.
+ *
+ * The ContentValues objects are cleared and refilled for every row.
+ * Together with a reader which reuses the {@link Contact} (see
+ * {@link RecordReader#read(Contact)}), a restore allocates little more than
+ * the strings of the contacts.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class ProviderContactSink implements ContactSink {
+
+	private ContentResolver mResolver;
+	private PhotoStore mPhotoStore;
+	private RunStats.Phase mCreatePersonPhase;
+	private RunStats.Phase mSetPhotoPhase;
+	private RunStats.Phase mDeletePersonPhase;
+	private ContentValues mPeopleValues = new ContentValues();
+	private BatchInserter mPhones;
+	private BatchInserter mContactMethods;
+	private BatchInserter mOrganizations;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param resolver
+	 *            The content resolver
+	 * @param photoStore
+	 *            The photo store used to look up referenced photos
+	 * @param batchSize
+	 *            The number of rows per insert, or
+	 *            {@link BatchInserter#ADAPTIVE}
+	 * @param stats
+	 *            Receives the time spent in the provider
+	 */
+	ProviderContactSink(ContentResolver resolver, PhotoStore photoStore,
+			int batchSize, RunStats stats) {
+		mResolver = resolver;
+		mPhotoStore = photoStore;
+		mCreatePersonPhase = stats.phase(RunStats.CREATE_PERSON);
+		mPhones = new BatchInserter(resolver, Phones.CONTENT_URI, batchSize,
+				stats.phase(RunStats.PHONE_INSERT));
+		mContactMethods = new BatchInserter(resolver,
+				ContactMethods.CONTENT_URI, batchSize, stats
+						.phase(RunStats.CONTACT_METHOD_INSERT));
+		mOrganizations = new BatchInserter(resolver,
+				Organizations.CONTENT_URI, batchSize, stats
+						.phase(RunStats.ORGANIZATION_INSERT));
+		mSetPhotoPhase = stats.phase(RunStats.SET_PHOTO);
+		mDeletePersonPhase = stats.phase(RunStats.DELETE_PERSON);
+	}
+
+	/**
+	 * Create a new contact on the device
+	 * 
+	 * @param contact The contact to be created
+	 */
+	public void store(Contact contact) {
+		
+		ContentResolver cr = mResolver;
+		
+		/*
+		 * Store base values
+		 */
+		ContentValues values = mPeopleValues;
+		values.clear();
+		values.put( People._ID, contact.id );
+		values.put( People.NAME, contact.name );
+		values.put( People.TIMES_CONTACTED, contact.timesContacted );
+		// TODO: values.put( People.DISPLAY_NAME, contact.displayName );
+		values.put( People.STARRED, toInt( contact.starred ) );
+		
+		long start = System.nanoTime();
+		Uri uri = Contacts.People
+		  .createPersonInMyContactsGroup(cr, values);
+		mCreatePersonPhase.add(start);
+		
+		if ( uri == null) {
+			return;
+		}
+		
+		/*
+		 * Queue phone numbers, contact methods (e-mail and postal
+		 * addresses, IM) and organizations
+		 */
+		long personId = ContentUris.parseId(uri);
+		for( Contact.Phone phone : contact.phones ){
+			values = mPhones.add();
+			values.put(Phones.PERSON_ID, personId);
+			values.put(Phones.TYPE, toInt( phone.type ));
+			values.put(Phones.NUMBER, phone.number);
+			values.put(Phones.ISPRIMARY, (phone.isPrimary ? 1 : 0));
+		}
+		for( Contact.ContactMethod method : contact.contactMethods ){
+			values = mContactMethods.add();
+			values.put(ContactMethods.PERSON_ID, personId);
+			values.put(ContactMethods.KIND, toInt( method.kind ));
+			values.put(ContactMethods.TYPE, toInt( method.type ));
+			values.put(ContactMethods.LABEL, method.label);
+			values.put(ContactMethods.DATA, method.data);
+			values.put(ContactMethods.AUX_DATA, method.auxData);
+			values.put(ContactMethods.ISPRIMARY, (method.isPrimary ? 1 : 0));
+		}
+		for( Contact.Organization org : contact.organizations ){
+			values = mOrganizations.add();
+			values.put(Organizations.PERSON_ID, personId);
+			values.put(Organizations.COMPANY, org.company);
+			values.put(Organizations.TITLE, org.title);
+			values.put(Organizations.TYPE, toInt( org.type ));
+			values.put(Organizations.LABEL, org.label);
+			values.put(Organizations.ISPRIMARY, (org.isPrimary ? 1 : 0));
+		}
+		
+		/*
+		 * Store photo. It is either embedded, or referenced by its hash in
+		 * the photo store. Only the photo which is actually restored is read
+		 * from the store. A missing photo does not stop the restore.
+		 */
+		start = System.nanoTime();
+		if ( !contact.photos.isEmpty() ) {
+			Contacts.People.setPhotoData(cr, uri, contact.photos.get(0));
+			mSetPhotoPhase.add(start);
+		} else if ( !contact.photoRefs.isEmpty() ) {
+			try {
+				Contacts.People.setPhotoData(cr, uri,
+						mPhotoStore.get( contact.photoRefs.get(0) ));
+				mSetPhotoPhase.add(start);
+			} catch (IOException e) {
+				Log.w(JsonBackup.TAG, "Photo of contact " + contact.id
+						+ " not restored: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Delete a person, together with its phones, contact methods,
+	 * organizations and photo. This is done right away, so it may also be
+	 * called after {@link #close()}.
+	 */
+	public void delete(long id) {
+		long start = System.nanoTime();
+		mResolver.delete(ContentUris.withAppendedId(People.CONTENT_URI, id),
+				null, null);
+		mDeletePersonPhase.add(start);
+	}
+
+	/**
+	 * Insert the rows which are still queued
+	 */
+	public void close() {
+		mPhones.flush();
+		mContactMethods.flush();
+		mOrganizations.flush();
+	}
+	
+	/**
+	 * @param value A numeric string as stored in the backup, or null
+	 * @return The value, or 0 if it is missing or not a number
+	 */
+	static int toInt( String value ){
+		if ( value == null ){
+			return 0;
+		}
+		try {
+			return Integer.parseInt( value.trim() );
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+}
@@ -0,0 +1,149 @@
+package lu.albert.android.jsonbackup;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.Contacts.ContactMethods;
+import android.provider.Contacts.Organizations;
+import android.provider.Contacts.Phones;
+import android.provider.Contacts.Photos;
+
+/**
+ * Reads the contacts from the device's contact provider. The People table is
+ * read in pages (see {@link PeoplePager}), so only one page of contacts is
+ * held by a cursor at any time.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class ProviderContactSource implements ContactSource {
+
+	private ContentResolver mResolver;
+	private PeoplePager mPager;
+	private Cursor mPeople;
+	private int mCount;
+	private int mMode;
+	private ContactReader mReader;
+
+	/*
+	 * In merge-join mode, the sub-tables are queried only once. These
+	 * cursors are then advanced together with the People cursor.
+	 */
+	private GroupedCursor mAllContactMethods;
+	private GroupedCursor mAllPhotos;
+	private GroupedCursor mAllPhones;
+	private GroupedCursor mAllOrganizations;
+
+	/**
+	 * Constructor
+	 *
+	 * @param resolver
+	 *            The content resolver used to query the sub-tables
+	 * @param pager
+	 *            Reads the People table
+	 * @param mode
+	 *            The query strategy. Either
+	 *            {@link BackupThread#MODE_MERGE_JOIN} or
+	 *            {@link BackupThread#MODE_PER_CONTACT}
+	 * @param stats
+	 *            Receives the time spent on each sub-table
+	 */
+	ProviderContactSource(ContentResolver resolver, PeoplePager pager,
+			int mode, RunStats stats) {
+		mResolver = resolver;
+		mPager = pager;
+		mCount = -1;
+		mMode = mode;
+		mReader = new ContactReader(stats);
+		if (mode == BackupThread.MODE_MERGE_JOIN) {
+			mAllContactMethods = queryChildren(ContactMethods.CONTENT_URI,
+					ProviderColumns.CONTACT_METHODS, ContactMethods.PERSON_ID,
+					null);
+			mAllPhotos = queryChildren(Photos.CONTENT_URI,
+					ProviderColumns.PHOTOS, Photos.PERSON_ID, null);
+			mAllPhones = queryChildren(Phones.CONTENT_URI,
+					ProviderColumns.PHONES, Phones.PERSON_ID, null);
+			mAllOrganizations = queryChildren(Organizations.CONTENT_URI,
+					ProviderColumns.ORGANIZATIONS, Organizations.PERSON_ID,
+					null);
+		}
+	}
+
+	public int getCount() {
+		if (mCount < 0) {
+			mCount = mPager.count();
+		}
+		return mCount;
+	}
+
+	public Contact next() {
+		if (mPeople == null || !mPeople.moveToNext()) {
+			mPeople = mPager.nextPage();
+			if (mPeople == null || !mPeople.moveToNext()) {
+				return null;
+			}
+			mReader.setPeople(mPeople);
+		}
+		if (mMode == BackupThread.MODE_MERGE_JOIN) {
+			return mReader.read(mAllContactMethods, mAllPhotos, mAllPhones,
+					mAllOrganizations);
+		}
+
+		long id = mReader.getId();
+		GroupedCursor contactMethods = queryChildren(
+				ContactMethods.CONTENT_URI, ProviderColumns.CONTACT_METHODS,
+				ContactMethods.PERSON_ID, id);
+		GroupedCursor photos = queryChildren(Photos.CONTENT_URI,
+				ProviderColumns.PHOTOS, Photos.PERSON_ID, id);
+		GroupedCursor phones = queryChildren(Phones.CONTENT_URI,
+				ProviderColumns.PHONES, Phones.PERSON_ID, id);
+		GroupedCursor organizations = queryChildren(
+				Organizations.CONTENT_URI, ProviderColumns.ORGANIZATIONS,
+				Organizations.PERSON_ID, id);
+		try {
+			return mReader.read(contactMethods, photos, phones,
+					organizations);
+		} finally {
+			contactMethods.close();
+			photos.close();
+			phones.close();
+			organizations.close();
+		}
+	}
+
+	public void close() {
+		mPager.close();
+		mPeople = null;
+		if (mMode == BackupThread.MODE_MERGE_JOIN) {
+			mAllContactMethods.close();
+			mAllPhotos.close();
+			mAllPhones.close();
+			mAllOrganizations.close();
+		}
+	}
+
+	/**
+	 * Query one of the contact sub-tables, sorted by person ID.
+	 * 
+	 * @param uri
+	 *            The content URI of the sub-table
+	 * @param projection
+	 *            The columns to read, see {@link ProviderColumns}
+	 * @param personIdColumn
+	 *            The name of the column referencing the contact
+	 * @param personId
+	 *            If not null, only rows of this contact are returned
+	 * @return A cursor wrapper which can be used to iterate over the rows of
+	 *         each contact
+	 */
+	private GroupedCursor queryChildren(Uri uri, String[] projection,
+			String personIdColumn, Long personId) {
+		String where = null;
+		if (personId != null) {
+			where = personIdColumn + "=" + personId;
+		}
+		Cursor cursor = mResolver.query(uri, projection, where, null,
+				personIdColumn + " ASC");
+		return new GroupedCursor(cursor, personIdColumn);
+	}
+
+}
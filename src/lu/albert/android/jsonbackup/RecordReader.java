@@ -0,0 +1,44 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.IOException;
+
+/**
+ * Reads the contacts of a backup file one by one, decoded by a
+ * {@link ContactCodec}.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+interface RecordReader {
+
+	/**
+	 * Read the next contact
+	 *
+	 * @return The contact, or null at the end of the file
+	 * @throws IOException
+	 *             when the file cannot be read, or is corrupt
+	 */
+	Contact read() throws IOException;
+
+	/**
+	 * Read the next contact into an existing object. The object is cleared
+	 * first (see {@link Contact#clear()}), and its sub-objects are reused,
+	 * so reading into the same object again and again allocates little more
+	 * than the decoded strings and photos.
+	 *
+	 * @param contact
+	 *            The contact to fill
+	 * @return The contact, or null at the end of the file
+	 * @throws IOException
+	 *             when the file cannot be read, or is corrupt
+	 */
+	Contact read(Contact contact) throws IOException;
+
+	/**
+	 * Close the underlying stream
+	 *
+	 * @throws IOException
+	 *             when the stream cannot be closed
+	 */
+	void close() throws IOException;
+
+}
@@ -0,0 +1,81 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.IOException;
+
+/**
+ * Writes contacts to a backup file, encoded by a {@link ContactCodec}.
+ *
+ * A writer either writes a complete backup file, or a fragment: a sequence
+ * of encoded contacts without the framing of the file. Fragments can be
+ * produced independently (for example on other threads) and added to a
+ * file writer with {@link #append(byte[], int, int, ContactIndex)}. The
+ * result is the same as if the contacts had been written to the file writer
+ * directly.
+ *
+ * Every writer keeps a {@link ContactIndex} of the contacts it has written
+ * or appended.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+interface RecordWriter {
+
+	/**
+	 * Encode and write one contact
+	 *
+	 * @param contact
+	 *            The contact
+	 * @throws IOException
+	 *             when the output cannot be written
+	 */
+	void write(Contact contact) throws IOException;
+
+	/**
+	 * Append contacts which have been encoded by a fragment writer of the
+	 * same codec.
+	 *
+	 * @param data
+	 *            The fragment, as written by a fragment writer. May be
+	 *            empty.
+	 * @param offset
+	 *            The start offset in data
+	 * @param length
+	 *            The number of bytes to append
+	 * @param index
+	 *            The entries of the appended contacts, with positions
+	 *            relative to the start of the appended bytes. Usually the
+	 *            index of the fragment writer. May be null.
+	 * @throws IOException
+	 *             when the output cannot be written
+	 */
+	void append(byte[] data, int offset, int length, ContactIndex index)
+			throws IOException;
+
+	/**
+	 * @return The number of bytes written so far, including those which are
+	 *         still buffered
+	 */
+	long getPosition();
+
+	/**
+	 * @return The index of all contacts written or appended so far
+	 */
+	ContactIndex getIndex();
+
+	/**
+	 * Flush the underlying stream
+	 *
+	 * @throws IOException
+	 *             when the output cannot be written
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * Finish the output. A writer for a complete file also closes the
+	 * underlying stream.
+	 *
+	 * @throws IOException
+	 *             when the output cannot be written
+	 */
+	void close() throws IOException;
+
+}
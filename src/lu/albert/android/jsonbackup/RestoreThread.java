@@ -1,27 +1,17 @@
 package lu.albert.android.jsonbackup;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-
-import lu.albert.android.jsonbackup.schema.ContactColumns;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 
 import android.content.ContentResolver;
-import android.content.ContentValues;
-import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.Message;
-import android.provider.Contacts;
 import android.provider.Contacts.People;
+import android.util.Log;
 
 /**
  * The thread which reads the input file and restores the contacts.
@@ -43,7 +33,15 @@ public class RestoreThread extends Thread{
 	int mState;
 	int total;
 	private JsonBackup mParent;
-	private boolean mKeepRunning;
+	private volatile boolean mKeepRunning;
+	private PhotoStore mPhotoStore;
+	private ProgressReporter mProgress;
+	private RunStats mStats;
+	private volatile SequentialRestore mRestore;
+	private volatile PipelinedRestore mPipelinedRestore;
+	private int mBatchSize = BatchInserter.ADAPTIVE;
+	private boolean mPipelined = true;
+	private boolean mMerge;
 
 	/**
 	 * Constructor
@@ -55,6 +53,43 @@ public class RestoreThread extends Thread{
 		mRestoreHandler = dialog_handler;
 		mParent = parent;
 		mKeepRunning = true;
+		mProgress = new ProgressReporter(dialog_handler,
+				JsonBackup.RESTORE_MSG_PROGRESS,
+				ProgressReporter.DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * Select the number of rows written per provider call. This must be
+	 * called before the thread is started.
+	 * 
+	 * @param rows The batch size, or {@link BatchInserter#ADAPTIVE}
+	 */
+	public void setBatchSize(int rows) {
+		mBatchSize = rows;
+	}
+
+	/**
+	 * Select whether the file is decoded on a thread of its own while the
+	 * contacts are stored (see {@link PipelinedRestore}), or one contact
+	 * after the other (see {@link SequentialRestore}). This must be called
+	 * before the thread is started.
+	 * 
+	 * @param pipelined Whether to use the pipelined restore
+	 */
+	public void setPipelined(boolean pipelined) {
+		mPipelined = pipelined;
+	}
+
+	/**
+	 * Select whether the contacts on the device are replaced (deleted
+	 * first), or merged with the backup so only the differences are
+	 * written (see {@link MergingContactSink}). This must be called before
+	 * the thread is started.
+	 * 
+	 * @param merge Whether to merge
+	 */
+	public void setMerge(boolean merge) {
+		mMerge = merge;
 	}
 
 	/**
@@ -67,192 +102,90 @@ public class RestoreThread extends Thread{
 	
 	public void run() {
 
-		mParent.getContentResolver().delete(People.CONTENT_URI, null, null);
+		if (!mMerge) {
+			mParent.getContentResolver().delete(People.CONTENT_URI, null, null);
+		}
 		File file1 = null;
 		file1 = new File( mParent.getStorageFolder(), JsonBackup.FILE_NAME );
+		mPhotoStore = new PhotoStore( mParent.getStorageFolder() );
 		
-		this.readStream(file1);
+		mStats = new RunStats("restore");
+		
+		int restored = this.readStream(file1);
+		
+		mStats.finish(restored, file1.length());
+		try {
+			mStats.write(new File( mParent.getStorageFolder(),
+					RunStats.RESTORE_FILE_NAME ));
+		} catch (IOException e) {
+			Log.w(JsonBackup.TAG, "Unable to write the restore stats: "
+					+ e.getMessage());
+		}
 		
 		mState = STATE_DONE;
 	}
 
 	/**
-	 * Read the on-disk data by streaming it without creating a complete JSONArray in memory
+	 * Read the on-disk data by streaming it, one contact at a time, and
+	 * store the contacts on the device. See {@link SequentialRestore} and
+	 * {@link PipelinedRestore}.
 	 * 
 	 * @param in_file The input file
+	 * @return The number of restored contacts
 	 */
-	private void readStream(File in_file) {
+	private int readStream(File in_file) {
 		
-		StringBuilder data = new StringBuilder();
-		FileInputStream file_stream = null;
-		JSONObject contact = null;
+		int restored = 0;
 		
 		try {
-			file_stream = new FileInputStream(in_file);
-			BufferedInputStream stream_buffer = new BufferedInputStream(file_stream);
-			InputStreamReader reader = new InputStreamReader(stream_buffer);
-			
-			int data_available = reader.read();
-			int braceDepth = 0; // used to trigger JSON decoding
-			boolean contactOpen = false; // used to trigger JSON decoding
-			long count = 0; // characters read
-			
-			while( data_available != -1 ) {
-				char theChar = (char) data_available;
-				
-				/*
-				 * When a new object opens on the root level, then we have the
-				 * beginning of a new contact. Set the appropriate flag and
-				 * empty the buffer (create a new one)
-				 */
-				if (theChar == '{') {
-					if (braceDepth == 0) {
-						contactOpen = true;
-						if ( !mKeepRunning ){
-							break;
-						}
-						data = new StringBuilder();
-					}
-					braceDepth += 1;
-				} else if (theChar == '}') {
-					braceDepth -= 1;
-				}
-				data.append(theChar);
-				
-				/*
-				 * So, the structure depths has been reduced to 0. So we are
-				 * back on the "contacts" level. If we still have a contact
-				 * open, we take that string, parse it and store the
-				 * resulting contact.
-				 * 
-				 *  Additionally, we let the user know that the contact has
-				 *  been restored.
-				 */
-				if (braceDepth == 0 && contactOpen) {
-					try {
-						contact = new JSONObject( data.toString() );
-						store_contact( contact );
-						
-						Message msg = mRestoreHandler.obtainMessage(JsonBackup.RESTORE_MSG_INFO);
-						Bundle b = new Bundle();
-						b.putString("name", contact.getString( ContactColumns.NAME ));
-						msg.setData(b);
-						mRestoreHandler.sendMessage(msg);
-					} catch (JSONException e){
-						showError(e.getMessage());
-						e.printStackTrace();
-					}
-					contactOpen = false;
+			ContentResolver resolver = mParent.getContentResolver();
+			ContactSink sink = new ProviderContactSink(resolver, mPhotoStore,
+					mBatchSize, mStats);
+			MergingContactSink merge = null;
+			if (mMerge) {
+				merge = new MergingContactSink(sink, mStats);
+				merge.index(new ProviderContactSource(resolver,
+						new PeoplePager(resolver, PeoplePager.DEFAULT_PAGE_SIZE,
+								mStats), BackupThread.MODE_MERGE_JOIN, mStats));
+				sink = merge;
+			}
+			FileInputStream in = new FileInputStream(in_file);
+			if (mPipelined) {
+				mPipelinedRestore = new PipelinedRestore(sink, mProgress,
+						mStats);
+				/* The provider sink is done with a contact once stored */
+				mPipelinedRestore.setReuseContacts(true);
+				if (!mKeepRunning) {
+					mPipelinedRestore.cancel();
 				}
-				
-				data_available = reader.read();
-				count += 1;
-				
-				/*
-				 * Update the progress dialog
-				 */
-				if ( count % 100 == 0) {
-					Message msg = mRestoreHandler.obtainMessage(JsonBackup.RESTORE_MSG_PROGRESS);
-					Bundle b = new Bundle();
-					b.putLong("position", count);
-					b.putLong("total", in_file.length());
-					msg.setData(b);
-					mRestoreHandler.sendMessage(msg);
+				restored = mPipelinedRestore.restore(in, in_file.length());
+			} else {
+				mRestore = new SequentialRestore(sink, mProgress, mStats);
+				/* The provider sink is done with a contact once stored */
+				mRestore.setReuseContacts(true);
+				if (!mKeepRunning) {
+					mRestore.cancel();
 				}
-
+				restored = mRestore.restore(in, in_file.length());
+			}
+			/* Contacts missing from the backup only go once it is complete */
+			if (merge != null && mKeepRunning) {
+				merge.deleteRemaining();
+				Log.i(JsonBackup.TAG, "Merge restore: " + merge.getUnchanged()
+						+ " unchanged, " + merge.getUpdated() + " updated, "
+						+ merge.getAdded() + " added, " + merge.getDeleted()
+						+ " deleted");
 			}
-			
-			/*
-			 * Update the progress dialog, ensuring that it properly triggers
-			 * it's end-of-life ( as we only update the progress every so
-			 * often, it could happen that the value does not meet the EOL
-			 * criteria.
-			 */
-			Message msg = mRestoreHandler.obtainMessage(JsonBackup.RESTORE_MSG_PROGRESS);
-			Bundle b = new Bundle();
-			b.putLong("position", in_file.length());
-			b.putLong("total", in_file.length());
-			msg.setData(b);
-			mRestoreHandler.sendMessage(msg);
-			
-			/*
-			 * Clean up
-			 */
-			reader.close();
-			stream_buffer.close();
-			file_stream.close();
 		} catch (FileNotFoundException e) {
 			showError(e.getMessage());
 			e.printStackTrace();
 		} catch (IOException e) {
 			showError(e.getMessage());
 			e.printStackTrace();
+		} finally {
+			mProgress.finish();
 		}
-	}
-
-	/**
-	 * Create a new contact on the device given a JSON object
-	 * 
-	 * @param contact The contact to be created
-	 * @throws JSONException when unable to decode the JSON elements
-	 */
-	private void store_contact(JSONObject contact) throws JSONException {
-		
-		ContentResolver cr = mParent.getContentResolver();
-		
-		/*
-		 * Store base values
-		 */
-		ContentValues values = new ContentValues();
-		values.put( People._ID, contact.getString( ContactColumns.ID ) );
-		values.put( People.NAME, contact.getString( ContactColumns.NAME ) );
-		values.put( People.TIMES_CONTACTED, contact.getString( ContactColumns.TIMES_CONTACTED ) );
-		// TODO: values.put( People.DISPLAY_NAME, contact.getString(ContactColumns.DISPLAY_NAME) );
-		values.put( People.STARRED, contact.getInt( ContactColumns.STARRED ) );
-		
-		Uri uri = Contacts.People
-		  .createPersonInMyContactsGroup(cr, values);
-		
-		if ( uri == null) {
-			return;
-		}
-		
-		/*
-		 * Store phone numbers
-		 */
-		JSONArray phones = contact.getJSONArray( ContactColumns.PHONE_NUMBERS );
-		for( int i = 0; i < phones.length(); ++i ){
-			JSONObject phone = phones.getJSONObject(i);
-			if (phone == null ){
-				continue;
-			}
-			
-			Uri phoneUri = null;
-			phoneUri = Uri.withAppendedPath(uri, People.Phones.CONTENT_DIRECTORY);
-			values.clear();
-			values.put(People.Phones.TYPE, phone.getInt( ContactColumns.PhoneColumns.TYPE ));
-			values.put(People.Phones.NUMBER, phone.getString( ContactColumns.PhoneColumns.NUMBER ));
-			values.put(People.Phones.ISPRIMARY, (phone.getBoolean(ContactColumns.PhoneColumns.IS_PRIMARY ) ? 1 : 0));
-			cr.insert(phoneUri, values);
-		}
-		phones = null;
-		
-		/*
-		 * Store photo
-		 */
-		JSONArray photos = contact.getJSONArray( ContactColumns.PHOTOS );
-		if ( photos.length() > 0 ) {
-			String photo = photos.getString(0);
-			if (photo != null && !photo.equals("") ){
-				try {
-					Contacts.People.setPhotoData(cr, uri, Base64.decode(photo));
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-			}
-		}
-		photos = null;
+		return restored;
 	}
 	
 	private void showError( String message ){
@@ -268,6 +201,14 @@ public class RestoreThread extends Thread{
 	 */
 	public void finish() {
 		mKeepRunning = false;
+		SequentialRestore restore = mRestore;
+		if (restore != null) {
+			restore.cancel();
+		}
+		PipelinedRestore pipeline = mPipelinedRestore;
+		if (pipeline != null) {
+			pipeline.cancel();
+		}
 	}
 }
 
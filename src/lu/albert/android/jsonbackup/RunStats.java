@@ -0,0 +1,223 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Cumulative time and call counts of the phases of a backup or restore run.
+ * After the run, they are stored as a JSON file next to the backup file, so
+ * runs on different devices and versions can be compared.
+ *
+ * Phases may be nested (encoding a contact includes Base64-encoding its
+ * photos and writing full buffers), so their times do not add up to the
+ * duration of the run. The queue fill is only written by pipelined runs.
+ *
+ * The stats file looks like this (it is written without whitespace):
+ *
+ * <pre>
+ * {
+ *    "operation": "backup",
+ *    "started": 1287400000000,
+ *    "duration_ms": 5120,
+ *    "contacts": 1234,
+ *    "bytes": 654321,
+ *    "queue_fill_percent": 85,
+ *    "phases": [
+ *       { "name": "people_query", "calls": 1, "time_us": 20150, "bytes": 0 },
+ *       ...
+ *    ]
+ * }
+ * </pre>
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class RunStats {
+
+	/** The stats file of the last backup */
+	static final String BACKUP_FILE_NAME = "backup_stats.json";
+
+	/** The stats file of the last restore */
+	static final String RESTORE_FILE_NAME = "restore_stats.json";
+
+	/* Backup phases */
+	static final String PEOPLE_QUERY = "people_query";
+	static final String CONTACT_METHODS = "contact_methods";
+	static final String PHOTOS = "photos";
+	static final String PHONES = "phones";
+	static final String ORGANIZATIONS = "organizations";
+	static final String ENCODE = "encode";
+	static final String BASE64 = "base64";
+	static final String WRITE = "write";
+
+	/* Restore phases */
+	static final String SCAN = "scan";
+	static final String PARSE = "parse";
+	static final String BASE64_DECODE = "base64_decode";
+	static final String CREATE_PERSON = "create_person";
+	static final String PHONE_INSERT = "phone_insert";
+	static final String CONTACT_METHOD_INSERT = "contact_method_insert";
+	static final String ORGANIZATION_INSERT = "organization_insert";
+	static final String SET_PHOTO = "set_photo";
+	static final String PARSE_WAIT = "parse_wait";
+	static final String STORE_WAIT = "store_wait";
+	static final String MERGE_INDEX = "merge_index";
+	static final String DELETE_PERSON = "delete_person";
+
+	private String mOperation;
+	private long mStarted;
+	private long mStartNanos;
+	private long mDurationNanos;
+	private int mContacts;
+	private long mBytes;
+	private int mQueueFill = -1;
+	private ArrayList<Phase> mPhases;
+
+	/**
+	 * Constructor. The run starts now.
+	 *
+	 * @param operation
+	 *            "backup" or "restore"
+	 */
+	RunStats(String operation) {
+		mOperation = operation;
+		mStarted = System.currentTimeMillis();
+		mStartNanos = System.nanoTime();
+		mPhases = new ArrayList<Phase>();
+	}
+
+	/**
+	 * Get a phase, creating it on first use. Look phases up once and keep
+	 * them, as this is not meant to be called per contact.
+	 *
+	 * @param name
+	 *            The phase name, one of the constants of this class
+	 * @return The phase
+	 */
+	synchronized Phase phase(String name) {
+		for (Phase phase : mPhases) {
+			if (phase.mName.equals(name)) {
+				return phase;
+			}
+		}
+		Phase phase = new Phase(name);
+		mPhases.add(phase);
+		return phase;
+	}
+
+	/**
+	 * End the run
+	 *
+	 * @param contacts
+	 *            The number of contacts backed up or restored
+	 * @param bytes
+	 *            The size of the backup file
+	 */
+	void finish(int contacts, long bytes) {
+		mDurationNanos = System.nanoTime() - mStartNanos;
+		mContacts = contacts;
+		mBytes = bytes;
+	}
+
+	/**
+	 * Record how full the hand-off queue of a pipelined run stayed
+	 *
+	 * @param percent
+	 *            The average fill level, as a percentage of the capacity
+	 */
+	synchronized void setQueueFill(int percent) {
+		mQueueFill = percent;
+	}
+
+	/**
+	 * Store the stats
+	 *
+	 * @param file
+	 *            The destination file
+	 * @throws IOException
+	 *             when the file cannot be written
+	 */
+	synchronized void write(File file) throws IOException {
+		JsonStreamWriter out = new JsonStreamWriter(new FileOutputStream(
+				file));
+		try {
+			out.beginObject();
+			out.name("operation").value(mOperation);
+			out.name("started").value(mStarted);
+			out.name("duration_ms").value(mDurationNanos / 1000000);
+			out.name("contacts").value(mContacts);
+			out.name("bytes").value(mBytes);
+			if (mQueueFill >= 0) {
+				out.name("queue_fill_percent").value(mQueueFill);
+			}
+			out.name("phases").beginArray();
+			for (Phase phase : mPhases) {
+				out.beginObject();
+				out.name("name").value(phase.mName);
+				out.name("calls").value(phase.getCalls());
+				out.name("time_us").value(phase.getNanos() / 1000);
+				out.name("bytes").value(phase.getBytes());
+				out.endObject();
+			}
+			out.endArray();
+			out.endObject();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * The cumulative time, call count and (for phases which process data)
+	 * byte count of one phase. It may be updated from several threads.
+	 */
+	static class Phase {
+
+		private String mName;
+		private long mNanos;
+		private int mCalls;
+		private long mBytes;
+
+		private Phase(String name) {
+			mName = name;
+		}
+
+		/**
+		 * Record one call of this phase, which ends now
+		 *
+		 * @param startNanos
+		 *            The System.nanoTime() when the call started
+		 */
+		synchronized void add(long startNanos) {
+			mNanos += System.nanoTime() - startNanos;
+			mCalls++;
+		}
+
+		/**
+		 * Record one call of this phase, which ends now
+		 *
+		 * @param startNanos
+		 *            The System.nanoTime() when the call started
+		 * @param bytes
+		 *            The amount of data processed by the call
+		 */
+		synchronized void add(long startNanos, long bytes) {
+			add(startNanos);
+			mBytes += bytes;
+		}
+
+		synchronized long getNanos() {
+			return mNanos;
+		}
+
+		synchronized int getCalls() {
+			return mCalls;
+		}
+
+		synchronized long getBytes() {
+			return mBytes;
+		}
+
+	}
+
+}
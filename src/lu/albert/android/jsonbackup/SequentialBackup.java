@@ -0,0 +1,101 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.IOException;
+
+/**
+ * A backup engine which reads and encodes the contacts one after the other
+ * on the calling thread. It only depends on a {@link ContactSource}, a
+ * {@link RecordWriter} and a {@link ProgressListener}, so it runs on a plain
+ * JVM as well as on the device.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class SequentialBackup {
+
+	private ContactSource mSource;
+	private ProgressListener mListener;
+	private BackupCheckpoint mCheckpoint;
+	private int mCheckpointInterval;
+	private volatile boolean mCancelled;
+
+	/**
+	 * Constructor
+	 *
+	 * @param source
+	 *            The contacts to back up
+	 * @param listener
+	 *            Receives the number of contacts written
+	 */
+	SequentialBackup(ContactSource source, ProgressListener listener) {
+		mSource = source;
+		mListener = listener;
+	}
+
+	/**
+	 * Save a checkpoint after every few contacts, and when cancelled, so an
+	 * interrupted backup can be continued. The source must return the
+	 * contacts sorted by ID.
+	 *
+	 * @param checkpoint
+	 *            The checkpoint. Its count is the number of contacts which
+	 *            are already in the output.
+	 * @param interval
+	 *            The number of contacts between two checkpoints
+	 */
+	void setCheckpoint(BackupCheckpoint checkpoint, int interval) {
+		mCheckpoint = checkpoint;
+		mCheckpointInterval = interval;
+	}
+
+	/**
+	 * Encode all contacts and write them to the output. The source is
+	 * closed when done.
+	 *
+	 * @param out
+	 *            The backup file
+	 * @return The number of contacts written
+	 * @throws IOException
+	 *             when the contacts cannot be read or written. The output
+	 *             is left in an undefined state.
+	 */
+	int write(RecordWriter out) throws IOException {
+		int total = mSource.getCount();
+		int written = 0;
+		int previous = (mCheckpoint != null ? mCheckpoint.getCount() : 0);
+		try {
+			Contact contact;
+			long lastId = -1;
+			while (!mCancelled && (contact = mSource.next()) != null) {
+				out.write(contact);
+				written++;
+				lastId = contact.id;
+				mListener.onProgress(written, total, null);
+				if (mCheckpoint != null
+						&& written % mCheckpointInterval == 0) {
+					checkpoint(out, lastId, previous + written);
+				}
+			}
+			if (mCancelled && mCheckpoint != null && lastId >= 0) {
+				checkpoint(out, lastId, previous + written);
+			}
+		} finally {
+			mSource.close();
+		}
+		return written;
+	}
+
+	private void checkpoint(RecordWriter out, long lastId, int count)
+			throws IOException {
+		/* The checkpoint syncs the file to disk once it has been flushed */
+		out.flush();
+		mCheckpoint.save(lastId, out.getPosition(), count);
+	}
+
+	/**
+	 * Stop after the current contact. May be called from any thread.
+	 */
+	void cancel() {
+		mCancelled = true;
+	}
+
+}
@@ -0,0 +1,128 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a backup file and hands the contacts to a {@link ContactSink}, one
+ * after the other on the calling thread. The encoding (JSON or binary) and
+ * compression of the file are detected automatically. Like
+ * {@link SequentialBackup}, it does not depend on the Android platform.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class SequentialRestore {
+
+	private ContactSink mSink;
+	private ProgressListener mListener;
+	private RunStats mStats;
+	private boolean mReuseContacts;
+	private volatile boolean mCancelled;
+
+	/**
+	 * Constructor
+	 *
+	 * @param sink
+	 *            Receives the contacts
+	 * @param listener
+	 *            Receives the position in the backup file (KB, see
+	 *            {@link #toKilobytes(long)}) and the name of each restored
+	 *            contact
+	 * @param stats
+	 *            Receives the time spent reading and decoding
+	 */
+	SequentialRestore(ContactSink sink, ProgressListener listener,
+			RunStats stats) {
+		mSink = sink;
+		mListener = listener;
+		mStats = stats;
+	}
+
+	/**
+	 * Decode every contact into the same {@link Contact} object, instead of
+	 * a new one per contact. Only enable this if the sink is done with a
+	 * contact when {@link ContactSink#store(Contact)} returns.
+	 *
+	 * @param reuse
+	 *            Whether to reuse the contact
+	 */
+	void setReuseContacts(boolean reuse) {
+		mReuseContacts = reuse;
+	}
+
+	/**
+	 * Restore all contacts of a backup file. The file and the sink are
+	 * closed when done.
+	 *
+	 * @param file
+	 *            The contents of the backup file
+	 * @param length
+	 *            The size of the backup file (bytes)
+	 * @return The number of restored contacts
+	 * @throws IOException
+	 *             when the file cannot be read, or a contact cannot be
+	 *             stored
+	 */
+	int restore(InputStream file, long length) throws IOException {
+		int total = toKilobytes(length);
+		CountingInputStream counter = new CountingInputStream(file);
+		int restored = 0;
+		try {
+			/* Compressed files are detected and decompressed on the fly */
+			RecordReader reader = ContactCodec.open(Compression
+					.decompress(counter), mStats);
+			try {
+				Contact reuse = mReuseContacts ? new Contact() : null;
+				Contact contact;
+				while (!mCancelled
+						&& (contact = reuse == null ? reader.read() : reader
+								.read(reuse)) != null) {
+					mSink.store(contact);
+					restored++;
+
+					/*
+					 * The position is taken from the file, as the amount of
+					 * decoded data does not match the file size if the file
+					 * is compressed. The file is read ahead, so the end is
+					 * only reported once the loop has finished. If the length
+					 * is given as 0, so is the total, and the position must
+					 * not drop below 0.
+					 */
+					mListener.onProgress((int) Math.max(0, Math.min(counter
+							.getCount() / 1024, total - 1)), total,
+							contact.name);
+				}
+			} finally {
+				reader.close();
+			}
+		} finally {
+			counter.close();
+			mSink.close();
+		}
+		mListener.onProgress(total, total, null);
+		return restored;
+	}
+
+	/**
+	 * Scale a file size down to the unit restores report their progress in.
+	 * The progress is passed as int (and on to the UI in the int arguments
+	 * of a Message), which would overflow for files over 2 GB if it were
+	 * counted in bytes.
+	 *
+	 * @param bytes
+	 *            A size or position in the backup file
+	 * @return The size in KB, rounded up so that a file which is not empty
+	 *         has a total of at least 1
+	 */
+	static int toKilobytes(long bytes) {
+		return (int) ((bytes + 1023) / 1024);
+	}
+
+	/**
+	 * Stop after the current contact. May be called from any thread.
+	 */
+	void cancel() {
+		mCancelled = true;
+	}
+
+}
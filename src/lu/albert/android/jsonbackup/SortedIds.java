@@ -0,0 +1,45 @@
+package lu.albert.android.jsonbackup;
+
+/**
+ * Lookup in arrays of contact IDs which are sorted in ascending order, as
+ * the provider returns them and backups store them.
+ *
+ * The range variant of Arrays.binarySearch is not available on API level
+ * 3, and the arrays are usually only partly filled.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class SortedIds {
+
+	private SortedIds() {
+		// only static members
+	}
+
+	/**
+	 * Binary search for an ID
+	 *
+	 * @param ids
+	 *            The IDs, sorted in ascending order up to size
+	 * @param size
+	 *            The number of IDs in the array
+	 * @param id
+	 *            The ID to look up
+	 * @return The position of the ID, or -1 if it is not in the array
+	 */
+	static int find(long[] ids, int size, long id) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (ids[middle] < id) {
+				low = middle + 1;
+			} else if (ids[middle] > id) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,131 @@
+package lu.albert.android.jsonbackup.schema;
+
+/**
+ * The field tags used by the binary backup format. Each tag corresponds to
+ * the key with the same name in {@link ContactColumns}. The tags follow the
+ * order in which the keys are declared there.
+ *
+ * Tags must never be changed or reused, as they are stored in backup files.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+public class BinaryContactFields {
+
+	/** @see ContactColumns#ID */
+	public static final int ID = 1;
+
+	/** @see ContactColumns#NAME */
+	public static final int NAME = 2;
+
+	/** @see ContactColumns#CUSTOM_RING_TONE */
+	public static final int CUSTOM_RING_TONE = 3;
+
+	/** @see ContactColumns#DISPLAY_NAME */
+	public static final int DISPLAY_NAME = 4;
+
+	/** @see ContactColumns#LAST_TIME_CONTACTED */
+	public static final int LAST_TIME_CONTACTED = 5;
+
+	/** @see ContactColumns#NOTES */
+	public static final int NOTES = 6;
+
+	/** @see ContactColumns#PHONETIC_NAME */
+	public static final int PHONETIC_NAME = 7;
+
+	/** @see ContactColumns#SEND_TO_VOICEMAIL */
+	public static final int SEND_TO_VOICEMAIL = 8;
+
+	/** @see ContactColumns#STARRED */
+	public static final int STARRED = 9;
+
+	/** @see ContactColumns#TIMES_CONTACTED */
+	public static final int TIMES_CONTACTED = 10;
+
+	/** @see ContactColumns#PHOTO_VERSION */
+	public static final int PHOTO_VERSION = 11;
+
+	/** @see ContactColumns#PHOTOS */
+	public static final int PHOTOS = 12;
+
+	/** @see ContactColumns#CONTACT_METHODS */
+	public static final int CONTACT_METHODS = 13;
+
+	/** @see ContactColumns#PHONE_NUMBERS */
+	public static final int PHONE_NUMBERS = 14;
+
+	/** @see ContactColumns#ORGANIZATIONS */
+	public static final int ORGANIZATIONS = 15;
+
+	/** @see ContactColumns#PHOTO_REFS */
+	public static final int PHOTO_REFS = 16;
+
+	/**
+	 * @see ContactColumns.ContactMethodColumns
+	 */
+	public interface ContactMethodFields {
+
+		/** @see ContactColumns.ContactMethodColumns#IS_PRIMARY */
+		int IS_PRIMARY = 1;
+
+		/** @see ContactColumns.ContactMethodColumns#LABEL */
+		int LABEL = 2;
+
+		/** @see ContactColumns.ContactMethodColumns#TYPE */
+		int TYPE = 3;
+
+		/** @see ContactColumns.ContactMethodColumns#AUX_DATA */
+		int AUX_DATA = 4;
+
+		/** @see ContactColumns.ContactMethodColumns#DATA */
+		int DATA = 5;
+
+		/** @see ContactColumns.ContactMethodColumns#KIND */
+		int KIND = 6;
+
+	}
+
+	/**
+	 * @see ContactColumns.PhoneColumns
+	 */
+	public interface PhoneFields {
+
+		/** @see ContactColumns.PhoneColumns#IS_PRIMARY */
+		int IS_PRIMARY = 1;
+
+		/** @see ContactColumns.PhoneColumns#LABEL */
+		int LABEL = 2;
+
+		/** @see ContactColumns.PhoneColumns#NUMBER */
+		int NUMBER = 3;
+
+		/** @see ContactColumns.PhoneColumns#NUMBER_KEY */
+		int NUMBER_KEY = 4;
+
+		/** @see ContactColumns.PhoneColumns#TYPE */
+		int TYPE = 5;
+
+	}
+
+	/**
+	 * @see ContactColumns.OrganizationColumns
+	 */
+	public interface OrganizationFields {
+
+		/** @see ContactColumns.OrganizationColumns#IS_PRIMARY */
+		int IS_PRIMARY = 1;
+
+		/** @see ContactColumns.OrganizationColumns#LABEL */
+		int LABEL = 2;
+
+		/** @see ContactColumns.OrganizationColumns#TITLE */
+		int TITLE = 3;
+
+		/** @see ContactColumns.OrganizationColumns#COMPANY */
+		int COMPANY = 4;
+
+		/** @see ContactColumns.OrganizationColumns#TYPE */
+		int TYPE = 5;
+
+	}
+
+}
@@ -48,6 +48,12 @@ public class ContactColumns {
 	 */
 	public static final String PHOTOS = "photos";
 	
+	/**
+	 * Maps to an array containing the hashes of photos which are kept in
+	 * the photo store instead of the backup file
+	 */
+	public static final String PHOTO_REFS = "photo_refs";
+	
 	/** @see ContactMethodColumns */
 	public static final String CONTACT_METHODS = "contact_methods";
 	
@@ -0,0 +1,196 @@
+package lu.albert.android.jsonbackup.schema;
+
+import java.util.HashMap;
+
+/**
+ * An alternative key table using abbreviated key names. It is used by the
+ * "compact, short keys" output profile to reduce the size of the JSON dump.
+ * Each key corresponds to the key with the same name in
+ * {@link ContactColumns}.
+ *
+ * All short keys are unique across all levels, so a key can be translated
+ * without knowing in which object it appears.
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+public class ShortContactColumns {
+
+	/** @see ContactColumns#ID */
+	public static final String ID = "i";
+
+	/** @see ContactColumns#NAME */
+	public static final String NAME = "n";
+
+	/** @see ContactColumns#CUSTOM_RING_TONE */
+	public static final String CUSTOM_RING_TONE = "r";
+
+	/** @see ContactColumns#DISPLAY_NAME */
+	public static final String DISPLAY_NAME = "d";
+
+	/** @see ContactColumns#LAST_TIME_CONTACTED */
+	public static final String LAST_TIME_CONTACTED = "l";
+
+	/** @see ContactColumns#NOTES */
+	public static final String NOTES = "o";
+
+	/** @see ContactColumns#PHONETIC_NAME */
+	public static final String PHONETIC_NAME = "f";
+
+	/** @see ContactColumns#SEND_TO_VOICEMAIL */
+	public static final String SEND_TO_VOICEMAIL = "v";
+
+	/** @see ContactColumns#STARRED */
+	public static final String STARRED = "s";
+
+	/** @see ContactColumns#TIMES_CONTACTED */
+	public static final String TIMES_CONTACTED = "t";
+
+	/** @see ContactColumns#PHOTO_VERSION */
+	public static final String PHOTO_VERSION = "pv";
+
+	/** @see ContactColumns#PHOTOS */
+	public static final String PHOTOS = "ph";
+
+	/** @see ContactColumns#PHOTO_REFS */
+	public static final String PHOTO_REFS = "pr";
+
+	/** @see ContactColumns#CONTACT_METHODS */
+	public static final String CONTACT_METHODS = "cm";
+
+	/** @see ContactColumns#PHONE_NUMBERS */
+	public static final String PHONE_NUMBERS = "pn";
+
+	/** @see ContactColumns#ORGANIZATIONS */
+	public static final String ORGANIZATIONS = "og";
+
+	/**
+	 * @see ContactColumns.ContactMethodColumns
+	 */
+	public interface ContactMethodColumns {
+
+		/** @see ContactColumns.ContactMethodColumns#IS_PRIMARY */
+		String IS_PRIMARY = "p";
+
+		/** @see ContactColumns.ContactMethodColumns#LABEL */
+		String LABEL = "lb";
+
+		/** @see ContactColumns.ContactMethodColumns#TYPE */
+		String TYPE = "ty";
+
+		/** @see ContactColumns.ContactMethodColumns#AUX_DATA */
+		String AUX_DATA = "ax";
+
+		/** @see ContactColumns.ContactMethodColumns#DATA */
+		String DATA = "da";
+
+		/** @see ContactColumns.ContactMethodColumns#KIND */
+		String KIND = "k";
+
+	}
+
+	/**
+	 * @see ContactColumns.PhoneColumns
+	 */
+	public interface PhoneColumns {
+
+		/** @see ContactColumns.PhoneColumns#IS_PRIMARY */
+		String IS_PRIMARY = "p";
+
+		/** @see ContactColumns.PhoneColumns#LABEL */
+		String LABEL = "lb";
+
+		/** @see ContactColumns.PhoneColumns#NUMBER */
+		String NUMBER = "nu";
+
+		/** @see ContactColumns.PhoneColumns#NUMBER_KEY */
+		String NUMBER_KEY = "nk";
+
+		/** @see ContactColumns.PhoneColumns#TYPE */
+		String TYPE = "ty";
+
+	}
+
+	/**
+	 * @see ContactColumns.OrganizationColumns
+	 */
+	public interface OrganizationColumns {
+
+		/** @see ContactColumns.OrganizationColumns#IS_PRIMARY */
+		String IS_PRIMARY = "p";
+
+		/** @see ContactColumns.OrganizationColumns#LABEL */
+		String LABEL = "lb";
+
+		/** @see ContactColumns.OrganizationColumns#TITLE */
+		String TITLE = "ti";
+
+		/** @see ContactColumns.OrganizationColumns#COMPANY */
+		String COMPANY = "co";
+
+		/** @see ContactColumns.OrganizationColumns#TYPE */
+		String TYPE = "ty";
+
+	}
+
+	/** Pairs of long and short keys */
+	private static final String[][] KEYS = {
+		{ ContactColumns.ID, ID },
+		{ ContactColumns.NAME, NAME },
+		{ ContactColumns.CUSTOM_RING_TONE, CUSTOM_RING_TONE },
+		{ ContactColumns.DISPLAY_NAME, DISPLAY_NAME },
+		{ ContactColumns.LAST_TIME_CONTACTED, LAST_TIME_CONTACTED },
+		{ ContactColumns.NOTES, NOTES },
+		{ ContactColumns.PHONETIC_NAME, PHONETIC_NAME },
+		{ ContactColumns.SEND_TO_VOICEMAIL, SEND_TO_VOICEMAIL },
+		{ ContactColumns.STARRED, STARRED },
+		{ ContactColumns.TIMES_CONTACTED, TIMES_CONTACTED },
+		{ ContactColumns.PHOTO_VERSION, PHOTO_VERSION },
+		{ ContactColumns.PHOTOS, PHOTOS },
+		{ ContactColumns.PHOTO_REFS, PHOTO_REFS },
+		{ ContactColumns.CONTACT_METHODS, CONTACT_METHODS },
+		{ ContactColumns.PHONE_NUMBERS, PHONE_NUMBERS },
+		{ ContactColumns.ORGANIZATIONS, ORGANIZATIONS },
+		{ ContactColumns.ContactMethodColumns.IS_PRIMARY, ContactMethodColumns.IS_PRIMARY },
+		{ ContactColumns.ContactMethodColumns.LABEL, ContactMethodColumns.LABEL },
+		{ ContactColumns.ContactMethodColumns.TYPE, ContactMethodColumns.TYPE },
+		{ ContactColumns.ContactMethodColumns.AUX_DATA, ContactMethodColumns.AUX_DATA },
+		{ ContactColumns.ContactMethodColumns.DATA, ContactMethodColumns.DATA },
+		{ ContactColumns.ContactMethodColumns.KIND, ContactMethodColumns.KIND },
+		{ ContactColumns.PhoneColumns.NUMBER, PhoneColumns.NUMBER },
+		{ ContactColumns.PhoneColumns.NUMBER_KEY, PhoneColumns.NUMBER_KEY },
+		{ ContactColumns.OrganizationColumns.TITLE, OrganizationColumns.TITLE },
+		{ ContactColumns.OrganizationColumns.COMPANY, OrganizationColumns.COMPANY },
+	};
+
+	private static final HashMap<String, String> SHORT_KEYS = new HashMap<String, String>();
+	private static final HashMap<String, String> LONG_KEYS = new HashMap<String, String>();
+	static {
+		for (String[] pair : KEYS) {
+			SHORT_KEYS.put(pair[0], pair[1]);
+			LONG_KEYS.put(pair[1], pair[0]);
+		}
+	}
+
+	/**
+	 * @param key
+	 *            A key as defined in {@link ContactColumns}
+	 * @return The corresponding short key, or the key itself if it has no
+	 *         short form.
+	 */
+	public static String shorten(String key) {
+		String shortKey = SHORT_KEYS.get(key);
+		return shortKey != null ? shortKey : key;
+	}
+
+	/**
+	 * @param key
+	 *            A key as defined in this class
+	 * @return The corresponding key from {@link ContactColumns}, or the key
+	 *         itself if it is unknown.
+	 */
+	public static String expand(String key) {
+		String longKey = LONG_KEYS.get(key);
+		return longKey != null ? longKey : key;
+	}
+
+}
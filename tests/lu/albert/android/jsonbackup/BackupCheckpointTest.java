@@ -0,0 +1,233 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Interrupts backups written by {@link SequentialBackup}, resumes them from
+ * their {@link BackupCheckpoint} the way BackupThread does, and compares the
+ * result with an uninterrupted backup
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+public class BackupCheckpointTest extends TestCase {
+
+	private static final int COUNT = 50;
+	private static final int INTERVAL = 7;
+
+	private static final ProgressListener QUIET = new ProgressListener() {
+		public void onProgress(int position, int total, String label) {
+			// not shown
+		}
+	};
+
+	private File mFolder;
+	private File mBackupFile;
+	private List<Contact> mContacts;
+
+	protected void setUp() throws IOException {
+		mFolder = File.createTempFile("checkpoint", "");
+		mFolder.delete();
+		mFolder.mkdirs();
+		mBackupFile = new File(mFolder, "contacts.json");
+		mContacts = TestContacts.list(COUNT);
+	}
+
+	protected void tearDown() {
+		File[] files = mFolder.listFiles();
+		for (File file : files) {
+			file.delete();
+		}
+		mFolder.delete();
+	}
+
+	public void testSaveAndRead() throws IOException {
+		assertNull(BackupCheckpoint.read(mFolder));
+		BackupCheckpoint checkpoint = new BackupCheckpoint(mFolder, 0x201);
+		checkpoint.save(Long.MAX_VALUE - 1, 1L << 40, 12345);
+
+		BackupCheckpoint read = BackupCheckpoint.read(mFolder);
+		assertEquals(0x201, read.getFormat());
+		assertEquals(Long.MAX_VALUE - 1, read.getLastId());
+		assertEquals(1L << 40, read.getPosition());
+		assertEquals(12345, read.getCount());
+
+		BackupCheckpoint.discard(mFolder);
+		assertNull(BackupCheckpoint.read(mFolder));
+	}
+
+	public void testCorruptFileIsIgnored() throws IOException {
+		new BackupCheckpoint(mFolder, 0).save(5, 100, 5);
+		File file = new File(mFolder, BackupCheckpoint.FILE_NAME);
+		RandomAccessFile access = new RandomAccessFile(file, "rw");
+		access.setLength(file.length() - 1);
+		access.close();
+		assertNull(BackupCheckpoint.read(mFolder));
+
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("not a checkpoint at all, but long enough".getBytes());
+		out.close();
+		assertNull(BackupCheckpoint.read(mFolder));
+	}
+
+	public void testCancelledJsonBackupResumes() throws IOException {
+		assertResumes(ContactCodec.JSON, BackupThread.PROFILE_PRETTY, 23, true);
+		assertResumes(ContactCodec.JSON, BackupThread.PROFILE_SHORT_KEYS, 1,
+				true);
+	}
+
+	public void testCancelledBinaryBackupResumes() throws IOException {
+		assertResumes(ContactCodec.BINARY, BackupThread.PROFILE_PRETTY, 23,
+				true);
+	}
+
+	public void testFailedBackupResumesFromLastInterval() throws IOException {
+		assertResumes(ContactCodec.JSON, BackupThread.PROFILE_COMPACT, 30,
+				false);
+		assertResumes(ContactCodec.BINARY, BackupThread.PROFILE_PRETTY, 30,
+				false);
+	}
+
+	/**
+	 * Write a backup which stops after some contacts, resume it, and compare
+	 * it to a backup written in one go
+	 *
+	 * @param stopAfter
+	 *            The number of contacts written before the backup stops
+	 * @param cancel
+	 *            true to cancel the backup, which saves a checkpoint at the
+	 *            stopping point. false to fail with an exception, which
+	 *            leaves the checkpoint of the last interval.
+	 */
+	private void assertResumes(int type, int profile, final int stopAfter,
+			boolean cancel) throws IOException {
+		ContactCodec codec = ContactCodec.create(type, profile, null,
+				new RunStats("test"));
+		BackupCheckpoint.discard(mFolder);
+
+		/* The interrupted run */
+		BackupCheckpoint checkpoint = new BackupCheckpoint(mFolder, codec
+				.getFormat());
+		FileOutputStream file = new FileOutputStream(mBackupFile);
+		checkpoint.setBackupFile(file.getFD());
+		RecordWriter out = codec.newWriter(file);
+		if (cancel) {
+			final SequentialBackup[] backup = new SequentialBackup[1];
+			backup[0] = new SequentialBackup(
+					new MemoryContactSource(mContacts), new ProgressListener() {
+						public void onProgress(int position, int total,
+								String label) {
+							if (position == stopAfter) {
+								backup[0].cancel();
+							}
+						}
+					});
+			backup[0].setCheckpoint(checkpoint, INTERVAL);
+			assertEquals(stopAfter, backup[0].write(out));
+			out.close();
+		} else {
+			SequentialBackup backup = new SequentialBackup(
+					new FailingSource(mContacts, stopAfter), QUIET);
+			backup.setCheckpoint(checkpoint, INTERVAL);
+			try {
+				backup.write(out);
+				fail();
+			} catch (IOException e) {
+				// expected
+			}
+			file.close();
+		}
+
+		/* The resumed run, as in BackupThread */
+		BackupCheckpoint resumed = BackupCheckpoint.read(mFolder);
+		assertNotNull(resumed);
+		int done = cancel ? stopAfter : stopAfter / INTERVAL * INTERVAL;
+		assertEquals(codec.getFormat(), resumed.getFormat());
+		assertEquals(done, resumed.getCount());
+		assertEquals(mContacts.get(done - 1).id, resumed.getLastId());
+		assertTrue(resumed.getPosition() <= mBackupFile.length());
+
+		RandomAccessFile access = new RandomAccessFile(mBackupFile, "rw");
+		access.setLength(resumed.getPosition());
+		access.close();
+		file = new FileOutputStream(mBackupFile, true);
+		resumed.setBackupFile(file.getFD());
+		ContactIndex index = new ContactIndex();
+		out = codec.newResumedWriter(file, resumed.getPosition(), resumed
+				.getCount(), index);
+		SequentialBackup backup = new SequentialBackup(new MemoryContactSource(
+				mContacts.subList(done, mContacts.size())), QUIET);
+		backup.setCheckpoint(resumed, INTERVAL);
+		assertEquals(COUNT - done, backup.write(out));
+		out.close();
+		assertEquals(COUNT - done, index.size());
+		assertEquals(mBackupFile.length(), out.getPosition());
+
+		assertTrue(Arrays.equals(backup(codec), read(mBackupFile)));
+	}
+
+	private byte[] backup(ContactCodec codec) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RecordWriter writer = codec.newWriter(out);
+		for (Contact contact : mContacts) {
+			writer.write(contact);
+		}
+		writer.close();
+		return out.toByteArray();
+	}
+
+	private static byte[] read(File file) throws IOException {
+		byte[] data = new byte[(int) file.length()];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			int position = 0;
+			while (position < data.length) {
+				position += in.read(data, position, data.length - position);
+			}
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+
+	/**
+	 * A source which fails like a lost provider after some contacts
+	 */
+	private static class FailingSource implements ContactSource {
+
+		private List<Contact> mContacts;
+		private int mFailAfter;
+		private int mPosition;
+
+		FailingSource(List<Contact> contacts, int failAfter) {
+			mContacts = new ArrayList<Contact>(contacts);
+			mFailAfter = failAfter;
+		}
+
+		public int getCount() {
+			return mContacts.size();
+		}
+
+		public Contact next() throws IOException {
+			if (mPosition == mFailAfter) {
+				throw new IOException("Provider went away");
+			}
+			return mContacts.get(mPosition++);
+		}
+
+		public void close() {
+			// nothing to release
+		}
+
+	}
+
+}
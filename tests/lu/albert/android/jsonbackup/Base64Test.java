@@ -0,0 +1,45 @@
+package lu.albert.android.jsonbackup;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the line breaking {@link Base64} encoder
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+public class Base64Test extends TestCase {
+
+	/**
+	 * 55 bytes encode to 76 characters, exactly one full line. The size
+	 * estimate counts a newline after it, so the output buffer is one byte
+	 * larger than the data, and that byte used to be returned as a NUL.
+	 */
+	public void testFullLastLineHasNoTrailingByte() throws Exception {
+		byte[] data = new byte[55];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		byte[] encoded = Base64.encodeBytesToBytes(data, 0, data.length,
+				Base64.DO_BREAK_LINES);
+		assertEquals(76, encoded.length);
+		assertEquals(Base64.encodeBytes(data), new String(encoded, "US-ASCII"));
+		assertTrue(Arrays.equals(data, Base64.decode(encoded, 0,
+				encoded.length, Base64.NO_OPTIONS)));
+	}
+
+	public void testBrokenLinesRoundTrip() throws Exception {
+		for (int length = 0; length < 1200; length++) {
+			byte[] data = new byte[length];
+			for (int i = 0; i < length; i++) {
+				data[i] = (byte) (i * 31);
+			}
+			String encoded = Base64.encodeBytes(data, Base64.DO_BREAK_LINES);
+			assertEquals("length " + length, -1, encoded.indexOf('\0'));
+			assertTrue("length " + length, Arrays.equals(data, Base64
+					.decode(encoded)));
+		}
+	}
+
+}
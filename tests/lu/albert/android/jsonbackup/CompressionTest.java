@@ -0,0 +1,120 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Compresses backups at each level and checks that
+ * {@link Compression#decompress} detects the format and restores the
+ * original bytes
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+public class CompressionTest extends TestCase {
+
+	private List<Contact> mContacts;
+	private byte[] mJson;
+	private byte[] mBinary;
+
+	protected void setUp() throws IOException {
+		mContacts = TestContacts.list(40);
+		mJson = backup(ContactCodec.JSON);
+		mBinary = backup(ContactCodec.BINARY);
+	}
+
+	public void testUncompressedIsPassedThrough() throws IOException {
+		assertTrue(Arrays.equals(mJson, decompress(mJson)));
+		assertTrue(Arrays.equals(mBinary, decompress(mBinary)));
+		assertTrue(Arrays.equals(mJson, decompress(compress(mJson,
+				Compression.LEVEL_NONE))));
+	}
+
+	public void testEveryGzipLevel() throws IOException {
+		for (int level = 1; level <= 9; level++) {
+			byte[] compressed = compress(mJson, level);
+			assertEquals(0x1f, compressed[0] & 0xff);
+			assertEquals(0x8b, compressed[1] & 0xff);
+			assertTrue(compressed.length < mJson.length);
+			assertTrue(Arrays.equals(mJson, decompress(compressed)));
+			assertTrue(Arrays.equals(mBinary, decompress(compress(mBinary,
+					level))));
+		}
+	}
+
+	public void testZlib() throws IOException {
+		for (int level = Deflater.BEST_SPEED; level <= Deflater.BEST_COMPRESSION; level += 4) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			DeflaterOutputStream deflater = new DeflaterOutputStream(out,
+					new Deflater(level));
+			deflater.write(mJson);
+			deflater.close();
+			assertTrue(Arrays.equals(mJson, decompress(out.toByteArray())));
+		}
+	}
+
+	public void testShortFiles() throws IOException {
+		byte[][] files = { {}, { '[' }, { 0x1f }, { 0x78 }, "[]".getBytes() };
+		for (byte[] file : files) {
+			assertTrue(Arrays.equals(file, decompress(file)));
+			assertTrue(Arrays.equals(file, decompress(compress(file, 6))));
+		}
+	}
+
+	public void testCompressedBackupsRestore() throws IOException {
+		byte[][] files = { compress(mJson, 1), compress(mBinary, 9), mJson,
+				mBinary };
+		for (byte[] file : files) {
+			RecordReader reader = ContactCodec.open(Compression
+					.decompress(new ByteArrayInputStream(file)), new RunStats(
+					"test"));
+			for (Contact expected : mContacts) {
+				assertEquals(TestContacts.describe(expected), TestContacts
+						.describe(reader.read()));
+			}
+			assertNull(reader.read());
+			reader.close();
+		}
+	}
+
+	private byte[] backup(int type) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RecordWriter writer = ContactCodec.create(type,
+				BackupThread.PROFILE_PRETTY, null, new RunStats("test"))
+				.newWriter(out);
+		for (Contact contact : mContacts) {
+			writer.write(contact);
+		}
+		writer.close();
+		return out.toByteArray();
+	}
+
+	private static byte[] compress(byte[] data, int level) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutputStream compressed = Compression.compress(out, level);
+		compressed.write(data);
+		compressed.close();
+		return out.toByteArray();
+	}
+
+	private static byte[] decompress(byte[] data) throws IOException {
+		InputStream in = Compression.decompress(new ByteArrayInputStream(data));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1000];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+}
@@ -0,0 +1,155 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Writes contacts with each codec and output profile and reads them back
+ * with the reader {@link ContactCodec#open} detects
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+public class ContactCodecTest extends TestCase {
+
+	private static final int COUNT = 60;
+
+	private List<Contact> mContacts;
+
+	protected void setUp() {
+		mContacts = TestContacts.list(COUNT);
+	}
+
+	public void testJsonPretty() throws IOException {
+		assertRoundTrip(ContactCodec.JSON, BackupThread.PROFILE_PRETTY);
+	}
+
+	public void testJsonCompact() throws IOException {
+		assertRoundTrip(ContactCodec.JSON, BackupThread.PROFILE_COMPACT);
+	}
+
+	public void testJsonShortKeys() throws IOException {
+		assertRoundTrip(ContactCodec.JSON, BackupThread.PROFILE_SHORT_KEYS);
+	}
+
+	public void testBinary() throws IOException {
+		assertRoundTrip(ContactCodec.BINARY, BackupThread.PROFILE_PRETTY);
+	}
+
+	public void testEmptyBackups() throws IOException {
+		for (int type = ContactCodec.JSON; type <= ContactCodec.BINARY; type++) {
+			byte[] data = write(codec(type, BackupThread.PROFILE_PRETTY,
+					null), mContacts.subList(0, 0));
+			RecordReader reader = open(data);
+			assertNull(reader.read());
+			reader.close();
+		}
+	}
+
+	public void testReusedContactIsCleared() throws IOException {
+		for (int type = ContactCodec.JSON; type <= ContactCodec.BINARY; type++) {
+			RecordReader reader = open(write(codec(type,
+					BackupThread.PROFILE_COMPACT, null), mContacts));
+			Contact reused = new Contact();
+			for (Contact expected : mContacts) {
+				assertSame(reused, reader.read(reused));
+				assertEquals(TestContacts.describe(expected), TestContacts
+						.describe(reused));
+			}
+			assertNull(reader.read(reused));
+			reader.close();
+		}
+	}
+
+	public void testPhotoStore() throws IOException {
+		File folder = File.createTempFile("photos", "");
+		folder.delete();
+		try {
+			PhotoStore store = new PhotoStore(folder);
+			for (int type = ContactCodec.JSON; type <= ContactCodec.BINARY; type++) {
+				RecordReader reader = open(write(codec(type,
+						BackupThread.PROFILE_PRETTY, store), mContacts));
+				for (Contact expected : mContacts) {
+					Contact contact = reader.read();
+					assertTrue(contact.photos.isEmpty());
+					assertEquals(expected.photos.size(), contact.photoRefs
+							.size());
+					for (int i = 0; i < expected.photos.size(); i++) {
+						assertTrue(Arrays.equals(expected.photos.get(i), store
+								.get(contact.photoRefs.get(i))));
+					}
+				}
+				assertNull(reader.read());
+			}
+		} finally {
+			delete(folder);
+		}
+	}
+
+	public void testTruncatedBinaryIsRejected() throws IOException {
+		byte[] data = write(codec(ContactCodec.BINARY,
+				BackupThread.PROFILE_PRETTY, null), mContacts);
+		byte[] truncated = new byte[data.length - 5];
+		System.arraycopy(data, 0, truncated, 0, truncated.length);
+		RecordReader reader = open(truncated);
+		try {
+			while (reader.read() != null) {
+				// read to the end
+			}
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private void assertRoundTrip(int type, int profile) throws IOException {
+		ContactCodec codec = codec(type, profile, null);
+		byte[] data = write(codec, mContacts);
+		RecordReader reader = open(data);
+		for (Contact expected : mContacts) {
+			Contact contact = reader.read();
+			assertNotNull(contact);
+			assertEquals(TestContacts.describe(expected), TestContacts
+					.describe(contact));
+		}
+		assertNull(reader.read());
+		reader.close();
+	}
+
+	private static ContactCodec codec(int type, int profile, PhotoStore store) {
+		return ContactCodec.create(type, profile, store, new RunStats("test"));
+	}
+
+	private static byte[] write(ContactCodec codec, List<Contact> contacts)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RecordWriter writer = codec.newWriter(out);
+		for (Contact contact : contacts) {
+			writer.write(contact);
+		}
+		writer.close();
+		assertEquals(out.size(), writer.getPosition());
+		return out.toByteArray();
+	}
+
+	private static RecordReader open(byte[] data) throws IOException {
+		return ContactCodec.open(new ByteArrayInputStream(data), new RunStats(
+				"test"));
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
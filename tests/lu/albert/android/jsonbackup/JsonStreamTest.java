@@ -0,0 +1,226 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Writes documents with {@link JsonStreamWriter} and reads them back with
+ * {@link JsonStreamReader}
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+public class JsonStreamTest extends TestCase {
+
+	private static final String[] STRINGS = { "", "plain", "\"quoted\"",
+			"back\\slash", "slash/", "tab\tnew\nline\rreturn",
+			"\u0000\u0001\u001f controls", "Zoë Jérôme", "Дмитрий 美咲",
+			"Emoji 😀", "  " };
+
+	private ByteArrayOutputStream mOut;
+	private JsonStreamWriter mWriter;
+
+	protected void setUp() {
+		mOut = new ByteArrayOutputStream();
+		mWriter = new JsonStreamWriter(mOut);
+	}
+
+	public void testStringsRoundTrip() throws IOException {
+		mWriter.beginArray();
+		for (String value : STRINGS) {
+			mWriter.value(value);
+		}
+		mWriter.endArray().close();
+
+		JsonStreamReader reader = reader();
+		reader.beginArray();
+		for (String value : STRINGS) {
+			assertTrue(reader.hasNext());
+			assertEquals(JsonStreamReader.STRING, reader.peek());
+			assertEquals(value, reader.nextString());
+		}
+		assertFalse(reader.hasNext());
+		reader.endArray();
+		assertEquals(JsonStreamReader.END_DOCUMENT, reader.peek());
+	}
+
+	public void testValuesRoundTrip() throws IOException {
+		byte[] data = new byte[1000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 7);
+		}
+		mWriter.beginObject();
+		mWriter.name("long").value(Long.MIN_VALUE);
+		mWriter.name("max").value(Long.MAX_VALUE);
+		mWriter.name("zero").value(0);
+		mWriter.name("true").value(true);
+		mWriter.name("false").value(false);
+		mWriter.name("null").nullValue();
+		mWriter.name("data").base64Value(data);
+		mWriter.name("empty").base64Value(new byte[0]);
+		mWriter.name("nested").beginArray().beginObject().endObject()
+				.beginArray().endArray().endArray();
+		mWriter.endObject().close();
+
+		JsonStreamReader reader = reader();
+		reader.beginObject();
+		assertEquals("long", reader.nextName());
+		assertEquals(JsonStreamReader.NUMBER, reader.peek());
+		assertEquals(Long.MIN_VALUE, reader.nextLong());
+		assertEquals("max", reader.nextName());
+		assertEquals(Long.MAX_VALUE, reader.nextLong());
+		assertEquals("zero", reader.nextName());
+		assertEquals("0", reader.nextString());
+		assertEquals("true", reader.nextName());
+		assertEquals(JsonStreamReader.BOOLEAN, reader.peek());
+		assertTrue(reader.nextBoolean());
+		assertEquals("false", reader.nextName());
+		assertFalse(reader.nextBoolean());
+		assertEquals("null", reader.nextName());
+		assertEquals(JsonStreamReader.NULL, reader.peek());
+		reader.nextNull();
+		assertEquals("data", reader.nextName());
+		assertTrue(Arrays.equals(data, Base64.decode(reader.nextString())));
+		assertEquals("empty", reader.nextName());
+		assertEquals("", reader.nextString());
+		assertEquals("nested", reader.nextName());
+		reader.beginArray();
+		reader.beginObject();
+		assertFalse(reader.hasNext());
+		reader.endObject();
+		reader.beginArray();
+		reader.endArray();
+		reader.endArray();
+		reader.endObject();
+		assertEquals(JsonStreamReader.END_DOCUMENT, reader.peek());
+	}
+
+	public void testIndentedOutputReadsTheSame() throws IOException {
+		mWriter.setIndent(2);
+		mWriter.beginArray().beginObject().name("a").value("x").name("b")
+				.beginArray().value(1).value(2).endArray().endObject()
+				.endArray().close();
+		assertTrue(text().indexOf('\n') >= 0);
+
+		JsonStreamReader reader = reader();
+		reader.beginArray();
+		reader.beginObject();
+		assertEquals("a", reader.nextName());
+		assertEquals("x", reader.nextString());
+		assertEquals("b", reader.nextName());
+		reader.beginArray();
+		assertEquals(1, reader.nextLong());
+		assertEquals(2, reader.nextLong());
+		reader.endArray();
+		reader.endObject();
+		reader.endArray();
+	}
+
+	public void testPositionCountsEncodedBytes() throws IOException {
+		mWriter.beginArray();
+		for (String value : STRINGS) {
+			mWriter.value(value);
+			mWriter.flush();
+			assertEquals(mOut.size(), mWriter.getPosition());
+		}
+		mWriter.base64Value(new byte[] { 1, 2, 3, 4 });
+		mWriter.endArray();
+		mWriter.flush();
+		assertEquals(mOut.size(), mWriter.getPosition());
+	}
+
+	public void testNameTable() throws IOException {
+		String[] names = { "name", "phones", "notes", "\"odd\"" };
+		mWriter.beginObject().name("phones").value(1).name("unknown")
+				.value(2).name("\"odd\"").value(3).name("name").value(4)
+				.endObject().close();
+
+		JsonStreamReader reader = reader();
+		reader.beginObject();
+		assertEquals(1, reader.nextName(names));
+		reader.skipValue();
+		assertEquals(-1, reader.nextName(names));
+		reader.skipValue();
+		assertEquals(3, reader.nextName(names));
+		reader.skipValue();
+		assertEquals(0, reader.nextName(names));
+		assertEquals(4, reader.nextLong());
+		reader.endObject();
+	}
+
+	public void testSkipValue() throws IOException {
+		JsonStreamReader reader = new JsonStreamReader(new StringReader(
+				"[{\"a\":[1,{\"b\":\"]}\"}],\"c\":null},true,\"x\"]"));
+		reader.beginArray();
+		reader.skipValue();
+		reader.skipValue();
+		assertEquals("x", reader.nextString());
+		reader.endArray();
+	}
+
+	public void testLongBlocks() throws IOException {
+		StringBuilder big = new StringBuilder();
+		while (big.length() < 100000) {
+			big.append("Zoë \"ü\" ").append(big.length());
+		}
+		mWriter.beginArray();
+		for (int i = 0; i < 100; i++) {
+			mWriter.value(big.substring(0, i * 997));
+		}
+		mWriter.endArray().close();
+
+		JsonStreamReader reader = reader();
+		reader.beginArray();
+		for (int i = 0; i < 100; i++) {
+			assertEquals(big.substring(0, i * 997), reader.nextString());
+		}
+		reader.endArray();
+	}
+
+	public void testMalformedInput() throws IOException {
+		String[] documents = { "[1,", "{\"a\" 1}", "[\"open", "[tru]",
+				"{1:2}", "]" };
+		for (String document : documents) {
+			JsonStreamReader reader = new JsonStreamReader(new StringReader(
+					document));
+			try {
+				reader.skipValue();
+				reader.peek();
+				fail("Accepted " + document);
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+
+	public void testWrongTokenIsRejected() throws IOException {
+		JsonStreamReader reader = new JsonStreamReader(new StringReader(
+				"[1]"));
+		try {
+			reader.beginObject();
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+		reader.beginArray();
+		try {
+			reader.nextBoolean();
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(1, reader.nextLong());
+	}
+
+	private String text() throws IOException {
+		return mOut.toString("UTF-8");
+	}
+
+	private JsonStreamReader reader() throws IOException {
+		return new JsonStreamReader(new StringReader(text()));
+	}
+
+}
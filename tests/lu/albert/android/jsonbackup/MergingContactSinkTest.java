@@ -0,0 +1,137 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the merge restore, with the device and the provider simulated by
+ * a {@link MemoryContactSource} and a {@link MemoryContactSink}
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+public class MergingContactSinkTest extends TestCase {
+
+	private MemoryContactSink mDevice;
+	private MergingContactSink mMerge;
+
+	protected void setUp() throws Exception {
+		/* The device holds the contacts 1 to 5 */
+		mDevice = new MemoryContactSink();
+		List<Contact> device = new ArrayList<Contact>();
+		for (int id = 1; id <= 5; id++) {
+			mDevice.store(contact(id, "555-000" + id));
+			device.add(contact(id, "555-000" + id));
+		}
+		mMerge = new MergingContactSink(mDevice, new RunStats("test"));
+		mMerge.index(new MemoryContactSource(device));
+	}
+
+	/**
+	 * The backup holds 1 and 3 unchanged, 2 with another number and the new
+	 * contact 6. Contacts 4 and 5 are not in the backup.
+	 */
+	private void restore() throws IOException {
+		mMerge.store(contact(1, "555-0001"));
+		mMerge.store(contact(2, "555-9999"));
+		mMerge.store(contact(3, "555-0003"));
+		mMerge.store(contact(6, "555-0006"));
+	}
+
+	public void testCounts() throws Exception {
+		restore();
+		mMerge.deleteRemaining();
+		assertEquals(2, mMerge.getUnchanged());
+		assertEquals(1, mMerge.getUpdated());
+		assertEquals(1, mMerge.getAdded());
+		assertEquals(2, mMerge.getDeleted());
+	}
+
+	public void testDeviceMatchesBackup() throws Exception {
+		restore();
+		mMerge.deleteRemaining();
+		assertEquals("[1 555-0001, 2 555-9999, 3 555-0003, 6 555-0006]",
+				describe(mDevice.getContacts()));
+	}
+
+	public void testUpdatedContactKeepsItsId() throws Exception {
+		restore();
+		Contact updated = null;
+		for (Contact contact : mDevice.getContacts()) {
+			if (contact.phones.get(0).number.equals("555-9999")) {
+				updated = contact;
+			}
+		}
+		assertNotNull(updated);
+		assertEquals(2, updated.id);
+	}
+
+	public void testUnchangedContactsAreNotWritten() throws Exception {
+		Contact first = find(1);
+		Contact third = find(3);
+		restore();
+		assertSame(first, find(1));
+		assertSame(third, find(3));
+	}
+
+	/**
+	 * An interrupted restore does not call deleteRemaining(), so the
+	 * contacts missing from the backup must still be there
+	 */
+	public void testNothingDeletedBeforeDeleteRemaining() throws Exception {
+		restore();
+		assertEquals(0, mMerge.getDeleted());
+		assertEquals(
+				"[1 555-0001, 2 555-9999, 3 555-0003, 4 555-0004, 5 555-0005, 6 555-0006]",
+				describe(mDevice.getContacts()));
+	}
+
+	public void testUnsortedDeviceIsRejected() throws Exception {
+		List<Contact> device = new ArrayList<Contact>();
+		device.add(contact(2, "1"));
+		device.add(contact(1, "2"));
+		MergingContactSink merge = new MergingContactSink(
+				new MemoryContactSink(), new RunStats("test"));
+		try {
+			merge.index(new MemoryContactSource(device));
+			fail("Unsorted contacts were accepted");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private Contact find(long id) {
+		for (Contact contact : mDevice.getContacts()) {
+			if (contact.id == id) {
+				return contact;
+			}
+		}
+		return null;
+	}
+
+	private static Contact contact(long id, String number) {
+		Contact contact = new Contact();
+		contact.id = id;
+		contact.name = "Contact " + id;
+		Contact.Phone phone = contact.addPhone();
+		phone.number = number;
+		phone.type = "1";
+		return contact;
+	}
+
+	/**
+	 * @return The ID and number of each contact, sorted by ID
+	 */
+	private static String describe(List<Contact> contacts) {
+		TreeMap<Long, String> result = new TreeMap<Long, String>();
+		for (Contact contact : contacts) {
+			result.put(contact.id, contact.id + " "
+					+ contact.phones.get(0).number);
+		}
+		return result.values().toString();
+	}
+
+}
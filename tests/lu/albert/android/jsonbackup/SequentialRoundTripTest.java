@@ -0,0 +1,106 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Backs contacts up from a {@link MemoryContactSource} with
+ * {@link SequentialBackup} and restores them into a
+ * {@link MemoryContactSink} with {@link SequentialRestore}, with each codec
+ * and with and without compression
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+public class SequentialRoundTripTest extends TestCase {
+
+	private static final int COUNT = 75;
+
+	private List<Contact> mContacts;
+	private int mLastPosition;
+	private int mLastTotal;
+
+	private ProgressListener mListener = new ProgressListener() {
+		public void onProgress(int position, int total, String label) {
+			assertTrue(position >= 0 && position <= total);
+			mLastPosition = position;
+			mLastTotal = total;
+		}
+	};
+
+	protected void setUp() {
+		mContacts = TestContacts.list(COUNT);
+	}
+
+	public void testJson() throws IOException {
+		assertRoundTrip(ContactCodec.JSON, Compression.LEVEL_NONE);
+	}
+
+	public void testCompressedJson() throws IOException {
+		assertRoundTrip(ContactCodec.JSON, 6);
+	}
+
+	public void testBinary() throws IOException {
+		assertRoundTrip(ContactCodec.BINARY, Compression.LEVEL_NONE);
+	}
+
+	public void testCompressedBinary() throws IOException {
+		assertRoundTrip(ContactCodec.BINARY, 1);
+	}
+
+	public void testSyntheticSource() throws IOException {
+		MemoryContactSource source = MemoryContactSource.synthetic(20, 300);
+		byte[] file = backup(source, ContactCodec.JSON,
+				Compression.LEVEL_NONE);
+		MemoryContactSink sink = restore(file);
+		assertEquals(20, sink.getContacts().size());
+		for (int i = 0; i < 20; i++) {
+			Contact contact = sink.getContacts().get(i);
+			assertEquals(i + 1, contact.id);
+			assertEquals(1, contact.phones.size());
+			assertEquals(300, contact.photos.get(0).length);
+		}
+	}
+
+	private void assertRoundTrip(int type, int level) throws IOException {
+		byte[] file = backup(new MemoryContactSource(mContacts), type, level);
+		assertEquals(COUNT, mLastPosition);
+		assertEquals(COUNT, mLastTotal);
+
+		MemoryContactSink sink = restore(file);
+		assertEquals(SequentialRestore.toKilobytes(file.length),
+				mLastPosition);
+		List<Contact> restored = sink.getContacts();
+		assertEquals(COUNT, restored.size());
+		for (int i = 0; i < COUNT; i++) {
+			assertEquals(TestContacts.describe(mContacts.get(i)),
+					TestContacts.describe(restored.get(i)));
+		}
+	}
+
+	private byte[] backup(MemoryContactSource source, int type, int level)
+			throws IOException {
+		ByteArrayOutputStream file = new ByteArrayOutputStream();
+		OutputStream out = Compression.compress(file, level);
+		RecordWriter writer = ContactCodec.create(type,
+				BackupThread.PROFILE_PRETTY, null, new RunStats("test"))
+				.newWriter(out);
+		assertEquals(source.getCount(), new SequentialBackup(source,
+				mListener).write(writer));
+		writer.close();
+		return file.toByteArray();
+	}
+
+	private MemoryContactSink restore(byte[] file) throws IOException {
+		MemoryContactSink sink = new MemoryContactSink();
+		int restored = new SequentialRestore(sink, mListener, new RunStats(
+				"test")).restore(new ByteArrayInputStream(file), file.length);
+		assertEquals(sink.getContacts().size(), restored);
+		return sink;
+	}
+
+}
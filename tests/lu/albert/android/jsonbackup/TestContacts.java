@@ -0,0 +1,135 @@
+package lu.albert.android.jsonbackup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Contacts for the tests, which fill every field of the backup schema with
+ * values that are hard to encode, and a way to compare them
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class TestContacts {
+
+	private static final String[] NAMES = { "John Smith", "Zoë Jérôme",
+			"Дмитрий", "美咲", "\"Quoted\" \\ back\\slash", "Tab\tand\nnewline",
+			"\u0001control", "", "Emoji 😀" };
+
+	private TestContacts() {
+		// only static members
+	}
+
+	/**
+	 * @param count
+	 *            The number of contacts
+	 * @return Contacts with the IDs 1 to count. Some fields are null, and
+	 *         every third contact has a photo.
+	 */
+	static List<Contact> list(int count) {
+		List<Contact> contacts = new ArrayList<Contact>(count);
+		for (int i = 1; i <= count; i++) {
+			contacts.add(contact(i));
+		}
+		return contacts;
+	}
+
+	/**
+	 * @param id
+	 *            The contact ID, which also selects the values
+	 * @return A contact
+	 */
+	static Contact contact(int id) {
+		Contact contact = new Contact();
+		contact.id = id;
+		contact.name = NAMES[id % NAMES.length] + " " + id;
+		contact.displayName = id % 4 == 0 ? null : contact.name;
+		contact.phoneticName = id % 2 == 0 ? "phonetic " + id : null;
+		contact.notes = id % 3 == 0 ? "Line 1\nLine 2 éè" : null;
+		contact.customRingTone = id % 5 == 0 ? "content://media/" + id : null;
+		contact.lastTimeContacted = String.valueOf(1262304000000L + id);
+		contact.sendToVoicemail = id % 7 == 0 ? "1" : "0";
+		contact.starred = id % 2 == 0 ? "1" : "0";
+		contact.timesContacted = String.valueOf(id % 13);
+
+		for (int i = 0; i < id % 3 + 1; i++) {
+			Contact.Phone phone = contact.addPhone();
+			phone.isPrimary = i == 0;
+			phone.type = String.valueOf(i + 1);
+			phone.label = i == 2 ? "Custom ü" : null;
+			phone.number = "+352 " + (100000 + id * 10 + i);
+			phone.numberKey = new StringBuilder(phone.number).reverse()
+					.toString();
+		}
+		for (int i = 0; i < id % 2 + 1; i++) {
+			Contact.ContactMethod method = contact.addContactMethod();
+			method.isPrimary = i == 0;
+			method.kind = String.valueOf(i + 1);
+			method.type = "1";
+			method.label = i == 1 ? "Label" : null;
+			method.data = "contact" + id + "@example.com";
+			method.auxData = i == 1 ? "aux \"data\"" : null;
+		}
+		if (id % 4 == 1) {
+			Contact.Organization org = contact.addOrganization();
+			org.isPrimary = true;
+			org.company = "Company & Co " + id;
+			org.title = "Title";
+			org.type = "1";
+			org.label = null;
+		}
+		if (id % 3 == 0) {
+			byte[] photo = new byte[100 + id % 50];
+			for (int i = 0; i < photo.length; i++) {
+				photo[i] = (byte) (id + i * 31);
+			}
+			contact.photos.add(photo);
+		}
+		return contact;
+	}
+
+	/**
+	 * @param contact
+	 *            A contact
+	 * @return All fields of the contact as text, so contacts can be compared
+	 *         with assertEquals
+	 */
+	static String describe(Contact contact) {
+		StringBuilder out = new StringBuilder();
+		out.append(contact.id).append('|').append(contact.name).append('|')
+				.append(contact.displayName).append('|').append(
+						contact.phoneticName).append('|').append(
+						contact.notes).append('|').append(
+						contact.customRingTone).append('|').append(
+						contact.lastTimeContacted).append('|').append(
+						contact.sendToVoicemail).append('|').append(
+						contact.starred).append('|').append(
+						contact.timesContacted);
+		for (Contact.Phone phone : contact.phones) {
+			out.append("\nphone ").append(phone.isPrimary).append('|')
+					.append(phone.type).append('|').append(phone.label)
+					.append('|').append(phone.number).append('|').append(
+							phone.numberKey);
+		}
+		for (Contact.ContactMethod method : contact.contactMethods) {
+			out.append("\nmethod ").append(method.isPrimary).append('|')
+					.append(method.kind).append('|').append(method.type)
+					.append('|').append(method.label).append('|').append(
+							method.data).append('|').append(method.auxData);
+		}
+		for (Contact.Organization org : contact.organizations) {
+			out.append("\norganization ").append(org.isPrimary).append('|')
+					.append(org.company).append('|').append(org.title)
+					.append('|').append(org.type).append('|').append(
+							org.label);
+		}
+		for (byte[] photo : contact.photos) {
+			out.append("\nphoto ").append(Arrays.toString(photo));
+		}
+		for (String ref : contact.photoRefs) {
+			out.append("\nphoto ref ").append(ref);
+		}
+		return out.toString();
+	}
+
+}
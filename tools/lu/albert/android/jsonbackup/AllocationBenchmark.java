@@ -0,0 +1,208 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+
+/**
+ * Measures how much memory a restore allocates per contact while decoding,
+ * with a new {@link Contact} for each contact ({@link RecordReader#read()})
+ * and with one contact reused for all of them
+ * ({@link RecordReader#read(Contact)}, as {@link SequentialRestore} does when
+ * {@link SequentialRestore#setReuseContacts(boolean)} is set). Less garbage
+ * means fewer collections, which pause the restore on a device.
+ *
+ * A backup of contacts from a {@link ContactGenerator}, without photos, is
+ * written in memory with each JSON profile and with the binary codec. Each
+ * is decoded both ways, and the decoded contacts are checked against the
+ * generated ones first. The first runs warm the VM up; the last run is
+ * reported. The allocation is taken from the HotSpot thread allocation
+ * counter and shown as "n/a" on VMs which lack it. It includes the decoded
+ * strings, which any restore has to allocate.
+ *
+ * This is a development tool: it lives outside the application's source
+ * tree and is not part of the APK. Compile it against the application
+ * sources:
+ *
+ * <pre>
+ * javac -encoding UTF-8 -cp android.jar -sourcepath src:tools -d /tmp/tools \
+ *     tools/lu/albert/android/jsonbackup/AllocationBenchmark.java
+ * java -cp /tmp/tools:android.jar lu.albert.android.jsonbackup.AllocationBenchmark [contacts] [runs]
+ * </pre>
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class AllocationBenchmark {
+
+	static final int DEFAULT_CONTACTS = 20000;
+	static final int DEFAULT_RUNS = 5;
+
+	/** The codecs, as ContactCodec type and JSON profile */
+	private static final int[][] CODECS = {
+			{ ContactCodec.JSON, BackupThread.PROFILE_PRETTY },
+			{ ContactCodec.JSON, BackupThread.PROFILE_COMPACT },
+			{ ContactCodec.JSON, BackupThread.PROFILE_SHORT_KEYS },
+			{ ContactCodec.BINARY, BackupThread.PROFILE_PRETTY } };
+	private static final String[] CODEC_NAMES = { "json pretty",
+			"json compact", "json short", "binary" };
+
+	private static Method sAllocatedBytes;
+	private static Object sThreads;
+
+	/**
+	 * Decode a backup with each codec and print one line per codec
+	 *
+	 * @param args
+	 *            Optionally the number of contacts and the number of runs
+	 * @throws IOException
+	 *             when a codec fails, or decodes a contact wrongly
+	 */
+	public static void main(String[] args) throws IOException {
+		int count = args.length > 0 ? Integer.parseInt(args[0])
+				: DEFAULT_CONTACTS;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RUNS;
+		ContactGenerator generator = new ContactGenerator(42, count);
+		generator.setPhotos(0, 0, 0);
+
+		System.out.println(String.format("%-13s %10s %10s %8s %9s %9s",
+				"codec", "new B/c", "reuse B/c", "saved", "new ms",
+				"reuse ms"));
+		for (int c = 0; c < CODECS.length; c++) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			generator.reset();
+			generator.write(out, ContactCodec.create(CODECS[c][0],
+					CODECS[c][1], null, new RunStats("benchmark")));
+			byte[] file = out.toByteArray();
+			verify(file, generator);
+
+			long[] allocated = new long[2];
+			double[] millis = new double[2];
+			for (int run = 0; run < runs; run++) {
+				for (int reuse = 0; reuse <= 1; reuse++) {
+					long before = allocatedBytes();
+					long start = System.nanoTime();
+					decode(file, reuse == 1);
+					millis[reuse] = (System.nanoTime() - start) / 1e6;
+					long after = allocatedBytes();
+					allocated[reuse] = before < 0 ? -1 : after - before;
+				}
+			}
+			String[] perContact = { "n/a", "n/a" };
+			String saved = "n/a";
+			if (allocated[0] >= 0) {
+				perContact[0] = String.valueOf(allocated[0] / count);
+				perContact[1] = String.valueOf(allocated[1] / count);
+				saved = String.format("%.0f%%", 100.0
+						* (allocated[0] - allocated[1]) / allocated[0]);
+			}
+			System.out.println(String.format(
+					"%-13s %10s %10s %8s %9.0f %9.0f", CODEC_NAMES[c],
+					perContact[0], perContact[1], saved, millis[0],
+					millis[1]));
+		}
+	}
+
+	/**
+	 * Check that both ways of decoding return the generated contacts
+	 */
+	private static void verify(byte[] file, ContactGenerator generator)
+			throws IOException {
+		RecordReader fresh = open(file);
+		RecordReader reused = open(file);
+		Contact reuse = new Contact();
+		generator.reset();
+		Contact expected;
+		while ((expected = generator.next()) != null) {
+			String text = describe(expected);
+			if (!text.equals(describe(fresh.read()))
+					|| !text.equals(describe(reused.read(reuse)))) {
+				throw new IOException("Contact " + expected.id
+						+ " was decoded wrongly");
+			}
+		}
+		if (fresh.read() != null || reused.read(reuse) != null) {
+			throw new IOException("Too many contacts were decoded");
+		}
+	}
+
+	/**
+	 * Decode all contacts of a file
+	 */
+	private static void decode(byte[] file, boolean reuse) throws IOException {
+		RecordReader reader = open(file);
+		if (reuse) {
+			Contact contact = new Contact();
+			while (reader.read(contact) != null) {
+				// only decoded
+			}
+		} else {
+			while (reader.read() != null) {
+				// only decoded
+			}
+		}
+		reader.close();
+	}
+
+	private static RecordReader open(byte[] file) throws IOException {
+		return ContactCodec.open(new ByteArrayInputStream(file), new RunStats(
+				"benchmark"));
+	}
+
+	/**
+	 * @return All fields of a contact as text
+	 */
+	private static String describe(Contact contact) {
+		StringBuilder out = new StringBuilder();
+		out.append(contact.id).append('|').append(contact.name).append('|')
+				.append(contact.displayName).append('|').append(
+						contact.phoneticName).append('|').append(
+						contact.notes).append('|').append(
+						contact.customRingTone).append('|').append(
+						contact.lastTimeContacted).append('|').append(
+						contact.sendToVoicemail).append('|').append(
+						contact.starred).append('|').append(
+						contact.timesContacted);
+		for (Contact.Phone phone : contact.phones) {
+			out.append("|phone ").append(phone.isPrimary).append(phone.type)
+					.append(phone.label).append(phone.number).append(
+							phone.numberKey);
+		}
+		for (Contact.ContactMethod method : contact.contactMethods) {
+			out.append("|method ").append(method.isPrimary).append(
+					method.kind).append(method.type).append(method.label)
+					.append(method.data).append(method.auxData);
+		}
+		for (Contact.Organization org : contact.organizations) {
+			out.append("|organization ").append(org.isPrimary).append(
+					org.company).append(org.title).append(org.type).append(
+					org.label);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * @return The bytes allocated by the current thread so far, or -1 if the
+	 *         VM does not count them
+	 */
+	private static long allocatedBytes() {
+		try {
+			if (sAllocatedBytes == null) {
+				Class<?> type = Class
+						.forName("com.sun.management.ThreadMXBean");
+				sThreads = ManagementFactory.getThreadMXBean();
+				if (!type.isInstance(sThreads)) {
+					return -1;
+				}
+				sAllocatedBytes = type.getMethod("getThreadAllocatedBytes",
+						long.class);
+			}
+			return (Long) sAllocatedBytes.invoke(sThreads, Thread
+					.currentThread().getId());
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+}
@@ -0,0 +1,331 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Random;
+
+/**
+ * Measures the throughput and the allocation rate of the {@link Base64}
+ * codec, so that changes to it can be judged by numbers. Base64 is on both
+ * hot paths: photos are encoded while a backup is written and decoded while
+ * it is restored.
+ *
+ * Each entry point is run on photo-sized payloads from 1 KB to 500 KB,
+ * with and without {@link Base64#DO_BREAK_LINES}:
+ *
+ * <ul>
+ * <li>encodeBytes, encodeBytesToBytes, decode(String) and decode(byte[])</li>
+ * <li>the ByteBuffer and CharBuffer encode overloads (these ignore the
+ * options, so they only run without line breaks)</li>
+ * <li>Base64.OutputStream and Base64.InputStream, each encoding and
+ * decoding, with the data written or read in 4 KB blocks</li>
+ * </ul>
+ *
+ * The payload is random, like compressed JPEG data. Each case is warmed up
+ * and then run for a fixed time on one thread. The throughput is reported
+ * in MB of raw (decoded) data per second, the allocation as bytes per call
+ * and MB per second. The allocation is taken from the HotSpot thread
+ * allocation counter and shown as "n/a" on VMs which lack it.
+ *
+ * This is a development tool: it lives outside the application's source
+ * tree and is not part of the APK. It only needs Base64 and a JVM:
+ *
+ * <pre>
+ * javac -d /tmp/bench src/lu/albert/android/jsonbackup/Base64.java \
+ *     tools/lu/albert/android/jsonbackup/Base64Benchmark.java
+ * java -cp /tmp/bench lu.albert.android.jsonbackup.Base64Benchmark [ms] [warmup ms]
+ * </pre>
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class Base64Benchmark {
+
+	/** The payload sizes (KB) */
+	static final int[] SIZES = { 1, 4, 16, 64, 128, 256, 500 };
+
+	/** The option sets each size is run with */
+	static final int[] OPTIONS = { Base64.NO_OPTIONS, Base64.DO_BREAK_LINES };
+
+	/** The default time each case is measured and warmed up for (ms) */
+	static final long DEFAULT_MEASURE = 1000;
+	static final long DEFAULT_WARMUP = 300;
+
+	/** The block size of the stream cases */
+	static final int BLOCK_SIZE = 4096;
+
+	/* Results are summed here, so the VM cannot drop the calls */
+	static volatile long sSink;
+
+	private static Method sAllocatedBytes;
+	private static Object sThreads;
+
+	private long mMeasure;
+	private long mWarmup;
+
+	/**
+	 * Constructor
+	 *
+	 * @param measure
+	 *            The time each case is measured for (ms)
+	 * @param warmup
+	 *            The time each case runs before it is measured (ms)
+	 */
+	Base64Benchmark(long measure, long warmup) {
+		mMeasure = measure;
+		mWarmup = warmup;
+	}
+
+	/**
+	 * Run all cases and print one line per case
+	 *
+	 * @param args
+	 *            Optionally the time each case is measured for, and the
+	 *            warm-up time (ms)
+	 * @throws IOException
+	 *             when the codec fails
+	 */
+	public static void main(String[] args) throws IOException {
+		long measure = args.length > 0 ? Long.parseLong(args[0])
+				: DEFAULT_MEASURE;
+		long warmup = args.length > 1 ? Long.parseLong(args[1])
+				: DEFAULT_WARMUP;
+		new Base64Benchmark(measure, warmup).run();
+	}
+
+	/**
+	 * Run all cases and print one line per case
+	 *
+	 * @throws IOException
+	 *             when the codec fails
+	 */
+	void run() throws IOException {
+		System.out.println(String.format("%-24s %-10s %7s %10s %10s %12s %10s",
+				"case", "options", "KB", "ops/s", "MB/s", "alloc B/op",
+				"alloc MB/s"));
+		for (int options : OPTIONS) {
+			for (int size : SIZES) {
+				byte[] raw = new byte[size * 1024];
+				new Random(size).nextBytes(raw);
+				for (Case c : cases(raw, options)) {
+					print(c, options, size, measure(c));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The cases for one payload and option set
+	 */
+	private Case[] cases(final byte[] raw, final int options)
+			throws IOException {
+		final String encoded = Base64.encodeBytes(raw, options);
+		final byte[] encodedBytes = Base64.encodeBytesToBytes(raw, 0,
+				raw.length, options);
+		final ByteArrayOutputStream sink = new ByteArrayOutputStream(
+				encodedBytes.length);
+		final byte[] block = new byte[BLOCK_SIZE];
+
+		Case[] cases = {
+				new Case("encodeBytes") {
+					long run() throws IOException {
+						return Base64.encodeBytes(raw, 0, raw.length, options)
+								.length();
+					}
+				},
+				new Case("encodeBytesToBytes") {
+					long run() throws IOException {
+						return Base64.encodeBytesToBytes(raw, 0, raw.length,
+								options).length;
+					}
+				},
+				new Case("decode(String)") {
+					long run() throws IOException {
+						return Base64.decode(encoded, options).length;
+					}
+				},
+				new Case("decode(byte[])") {
+					long run() throws IOException {
+						return Base64.decode(encodedBytes, 0,
+								encodedBytes.length, options).length;
+					}
+				},
+				new Case("OutputStream encode") {
+					long run() throws IOException {
+						sink.reset();
+						write(new Base64.OutputStream(sink, Base64.ENCODE
+								| options), raw, block.length);
+						return sink.size();
+					}
+				},
+				new Case("OutputStream decode") {
+					long run() throws IOException {
+						sink.reset();
+						write(new Base64.OutputStream(sink, Base64.DECODE
+								| options), encodedBytes, block.length);
+						return sink.size();
+					}
+				},
+				new Case("InputStream encode") {
+					long run() throws IOException {
+						return read(new Base64.InputStream(
+								new ByteArrayInputStream(raw), Base64.ENCODE
+										| options), block);
+					}
+				},
+				new Case("InputStream decode") {
+					long run() throws IOException {
+						return read(new Base64.InputStream(
+								new ByteArrayInputStream(encodedBytes),
+								Base64.DECODE | options), block);
+					}
+				} };
+		if (options != Base64.NO_OPTIONS) {
+			return cases;
+		}
+
+		/* The buffer overloads always encode without line breaks */
+		final ByteBuffer in = ByteBuffer.wrap(raw);
+		final ByteBuffer out = ByteBuffer.allocate(encodedBytes.length);
+		final CharBuffer chars = CharBuffer.allocate(encodedBytes.length);
+		Case[] buffers = { new Case("encode(ByteBuffer)") {
+			long run() {
+				in.clear();
+				out.clear();
+				Base64.encode(in, out);
+				return out.position();
+			}
+		}, new Case("encode(CharBuffer)") {
+			long run() {
+				in.clear();
+				chars.clear();
+				Base64.encode(in, chars);
+				return chars.position();
+			}
+		} };
+		Case[] all = new Case[cases.length + buffers.length];
+		System.arraycopy(cases, 0, all, 0, cases.length);
+		System.arraycopy(buffers, 0, all, cases.length, buffers.length);
+		return all;
+	}
+
+	/**
+	 * Warm a case up, then call it repeatedly for the measuring time
+	 *
+	 * @return The number of calls, the elapsed time (ns) and the allocated
+	 *         bytes (or -1 if unknown), in that order
+	 */
+	private long[] measure(Case c) throws IOException {
+		long sink = 0;
+		long end = System.nanoTime() + mWarmup * 1000000L;
+		while (System.nanoTime() < end) {
+			sink += c.run();
+		}
+
+		long calls = 0;
+		long allocated = allocatedBytes();
+		long start = System.nanoTime();
+		end = start + mMeasure * 1000000L;
+		long now;
+		do {
+			sink += c.run();
+			calls++;
+			now = System.nanoTime();
+		} while (now < end);
+		long after = allocatedBytes();
+		sSink += sink;
+		return new long[] { calls, now - start,
+				allocated < 0 ? -1 : after - allocated };
+	}
+
+	private static void print(Case c, int options, int size, long[] result) {
+		long calls = result[0];
+		double seconds = result[1] / 1e9;
+		double megabytes = (double) size * calls / 1024;
+		String perCall = "n/a";
+		String rate = "n/a";
+		if (result[2] >= 0) {
+			perCall = String.valueOf(result[2] / calls);
+			rate = String.format("%.1f", result[2] / (1024.0 * 1024)
+					/ seconds);
+		}
+		System.out.println(String.format(
+				"%-24s %-10s %7d %10.0f %10.1f %12s %10s", c.mName,
+				options == Base64.NO_OPTIONS ? "none" : "breaks", size, calls
+						/ seconds, megabytes / seconds, perCall, rate));
+	}
+
+	/**
+	 * Write data to a stream in blocks, then close it
+	 */
+	private static void write(OutputStream out, byte[] data, int block)
+			throws IOException {
+		for (int off = 0; off < data.length; off += block) {
+			out.write(data, off, Math.min(block, data.length - off));
+		}
+		out.close();
+	}
+
+	/**
+	 * Read a stream to its end in blocks, then close it
+	 *
+	 * @return The number of bytes read
+	 */
+	private static long read(InputStream in, byte[] block) throws IOException {
+		long total = 0;
+		int read;
+		while ((read = in.read(block, 0, block.length)) >= 0) {
+			total += read;
+		}
+		in.close();
+		return total;
+	}
+
+	/**
+	 * @return The bytes allocated by the current thread so far, or -1 if the
+	 *         VM does not count them
+	 */
+	private static long allocatedBytes() {
+		try {
+			if (sAllocatedBytes == null) {
+				Class<?> type = Class
+						.forName("com.sun.management.ThreadMXBean");
+				sThreads = ManagementFactory.getThreadMXBean();
+				if (!type.isInstance(sThreads)) {
+					return -1;
+				}
+				sAllocatedBytes = type.getMethod("getThreadAllocatedBytes",
+						long.class);
+			}
+			return (Long) sAllocatedBytes.invoke(sThreads, Thread
+					.currentThread().getId());
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * One benchmarked call of the codec
+	 */
+	private abstract static class Case {
+
+		final String mName;
+
+		Case(String name) {
+			mName = name;
+		}
+
+		/**
+		 * @return A value derived from the result, such as its length
+		 */
+		abstract long run() throws IOException;
+
+	}
+
+}
@@ -0,0 +1,143 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the encoding and decoding throughput of the JSON and the binary
+ * {@link ContactCodec}, and the size of the files they write.
+ *
+ * The contacts come from a {@link ContactGenerator}, once without photos
+ * and once with the generator's default photos, and are held in memory.
+ * Each codec writes them into a byte array and reads them back with the
+ * reader {@link ContactCodec#open} detects, decoding every contact into the
+ * same object as a restore does. Files are neither compressed nor written
+ * to disk, so only the codecs are timed. The first run warms the VM up; of
+ * the remaining runs, the fastest is shown.
+ *
+ * This is a development tool: it lives outside the application's source
+ * tree and is not part of the APK. Compile it against the application
+ * sources:
+ *
+ * <pre>
+ * javac -encoding UTF-8 -cp android.jar -sourcepath src:tools -d /tmp/tools \
+ *     tools/lu/albert/android/jsonbackup/CodecBenchmark.java
+ * java -cp /tmp/tools:android.jar lu.albert.android.jsonbackup.CodecBenchmark [contacts] [runs]
+ * </pre>
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class CodecBenchmark {
+
+	static final int DEFAULT_CONTACTS = 10000;
+	static final int DEFAULT_RUNS = 5;
+
+	/** The codecs, as ContactCodec type and JSON profile */
+	private static final int[][] CODECS = {
+			{ ContactCodec.JSON, BackupThread.PROFILE_PRETTY },
+			{ ContactCodec.JSON, BackupThread.PROFILE_COMPACT },
+			{ ContactCodec.JSON, BackupThread.PROFILE_SHORT_KEYS },
+			{ ContactCodec.BINARY, BackupThread.PROFILE_PRETTY } };
+	private static final String[] CODEC_NAMES = { "json pretty",
+			"json compact", "json short", "binary" };
+
+	/**
+	 * Run each codec on each set of contacts and print one line per case
+	 *
+	 * @param args
+	 *            Optionally the number of contacts and the number of
+	 *            measured runs
+	 * @throws IOException
+	 *             when a codec fails
+	 */
+	public static void main(String[] args) throws IOException {
+		int count = args.length > 0 ? Integer.parseInt(args[0])
+				: DEFAULT_CONTACTS;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RUNS;
+
+		System.out.println(String.format(
+				"%-8s %-13s %8s %10s %10s %10s %10s", "contacts", "codec",
+				"KB", "enc/s", "enc MB/s", "dec/s", "dec MB/s"));
+		for (int photos = 0; photos <= 1; photos++) {
+			ContactGenerator generator = new ContactGenerator(42, count);
+			if (photos == 0) {
+				generator.setPhotos(0, 0, 0);
+			}
+			List<Contact> contacts = read(generator.toMemorySource());
+			for (int c = 0; c < CODECS.length; c++) {
+				ContactCodec codec = ContactCodec.create(CODECS[c][0],
+						CODECS[c][1], null, new RunStats("benchmark"));
+				double encode = Double.MAX_VALUE;
+				double decode = Double.MAX_VALUE;
+				byte[] file = null;
+				for (int run = 0; run <= runs; run++) {
+					long start = System.nanoTime();
+					file = write(codec, contacts);
+					double encodeMillis = (System.nanoTime() - start) / 1e6;
+
+					start = System.nanoTime();
+					int decoded = read(file);
+					double decodeMillis = (System.nanoTime() - start) / 1e6;
+					if (decoded != count) {
+						throw new IOException("Decoded " + decoded + " of "
+								+ count + " contacts");
+					}
+					if (run > 0) {
+						encode = Math.min(encode, encodeMillis);
+						decode = Math.min(decode, decodeMillis);
+					}
+				}
+				double megabytes = file.length / (1024.0 * 1024);
+				System.out.println(String.format(
+						"%-8s %-13s %8d %10.0f %10.1f %10.0f %10.1f",
+						photos == 1 ? "photos" : "text", CODEC_NAMES[c],
+						file.length / 1024, count / encode * 1000, megabytes
+								/ encode * 1000, count / decode * 1000,
+						megabytes / decode * 1000));
+			}
+		}
+	}
+
+	/**
+	 * @return All contacts of a source
+	 */
+	private static List<Contact> read(MemoryContactSource source)
+			throws IOException {
+		List<Contact> contacts = new ArrayList<Contact>(source.getCount());
+		Contact contact;
+		while ((contact = source.next()) != null) {
+			contacts.add(contact);
+		}
+		return contacts;
+	}
+
+	private static byte[] write(ContactCodec codec, List<Contact> contacts)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RecordWriter writer = codec.newWriter(out);
+		for (Contact contact : contacts) {
+			writer.write(contact);
+		}
+		writer.close();
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return The number of contacts in the file
+	 */
+	private static int read(byte[] file) throws IOException {
+		RecordReader reader = ContactCodec.open(new ByteArrayInputStream(file),
+				new RunStats("benchmark"));
+		Contact contact = new Contact();
+		int count = 0;
+		while (reader.read(contact) != null) {
+			count++;
+		}
+		reader.close();
+		return count;
+	}
+
+}
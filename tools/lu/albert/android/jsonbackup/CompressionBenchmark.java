@@ -0,0 +1,133 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Measures the size and the speed of each {@link Compression} level on
+ * generated backup files, to choose the level offered by default.
+ *
+ * Two JSON backups are generated with {@link ContactGenerator}: one without
+ * photos, which is all text, and one with the generator's default photos.
+ * The photos are random bytes, which compress no better than real JPEG data
+ * does. Each backup is compressed at every level from
+ * {@link Compression#LEVEL_NONE} to 9 and decompressed again with
+ * {@link Compression#decompress(InputStream)}, entirely in memory, so only
+ * the codec is timed. The first run warms the VM up; of the remaining runs,
+ * the fastest is shown. Speeds are in MB of uncompressed data per second.
+ *
+ * This is a development tool: it lives outside the application's source
+ * tree and is not part of the APK. Compile it against the application
+ * sources:
+ *
+ * <pre>
+ * javac -encoding UTF-8 -cp android.jar -sourcepath src:tools -d /tmp/tools \
+ *     tools/lu/albert/android/jsonbackup/CompressionBenchmark.java
+ * java -cp /tmp/tools:android.jar lu.albert.android.jsonbackup.CompressionBenchmark [contacts] [runs]
+ * </pre>
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class CompressionBenchmark {
+
+	static final int DEFAULT_CONTACTS = 5000;
+	static final int DEFAULT_RUNS = 3;
+
+	/** The block size the data is written and read in */
+	static final int BLOCK_SIZE = 8192;
+
+	/**
+	 * Run each level on each backup and print one line per case
+	 *
+	 * @param args
+	 *            Optionally the number of contacts and the number of
+	 *            measured runs
+	 * @throws IOException
+	 *             when the codec fails
+	 */
+	public static void main(String[] args) throws IOException {
+		int count = args.length > 0 ? Integer.parseInt(args[0])
+				: DEFAULT_CONTACTS;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RUNS;
+
+		System.out.println(String.format("%-8s %5s %10s %6s %10s %11s",
+				"backup", "level", "KB", "size", "comp MB/s", "decomp MB/s"));
+		for (int photos = 0; photos <= 1; photos++) {
+			ContactGenerator generator = new ContactGenerator(42, count);
+			if (photos == 0) {
+				generator.setPhotos(0, 0, 0);
+			}
+			byte[] backup = generate(generator);
+			for (int level = Compression.LEVEL_NONE; level <= 9; level++) {
+				double compress = Double.MAX_VALUE;
+				double decompress = Double.MAX_VALUE;
+				byte[] compressed = null;
+				for (int run = 0; run <= runs; run++) {
+					long start = System.nanoTime();
+					compressed = compress(backup, level);
+					double compressMillis = (System.nanoTime() - start) / 1e6;
+
+					start = System.nanoTime();
+					long size = decompress(compressed);
+					double decompressMillis = (System.nanoTime() - start) / 1e6;
+					if (size != backup.length) {
+						throw new IOException("Decompressed " + size
+								+ " bytes instead of " + backup.length);
+					}
+					if (run > 0) {
+						compress = Math.min(compress, compressMillis);
+						decompress = Math.min(decompress, decompressMillis);
+					}
+				}
+				double megabytes = backup.length / (1024.0 * 1024);
+				System.out.println(String.format(
+						"%-8s %5d %10d %5.0f%% %10.1f %11.1f",
+						photos == 1 ? "photos" : "text", level,
+						compressed.length / 1024, 100.0 * compressed.length
+								/ backup.length, megabytes / compress * 1000,
+						megabytes / decompress * 1000));
+			}
+		}
+	}
+
+	/**
+	 * @return A JSON backup of all contacts of the generator
+	 */
+	private static byte[] generate(ContactGenerator generator)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		generator.write(out, ContactCodec.create(ContactCodec.JSON,
+				BackupThread.PROFILE_PRETTY, null, new RunStats("generate")));
+		return out.toByteArray();
+	}
+
+	private static byte[] compress(byte[] data, int level) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+		OutputStream compressed = Compression.compress(out, level);
+		for (int off = 0; off < data.length; off += BLOCK_SIZE) {
+			compressed.write(data, off, Math.min(BLOCK_SIZE, data.length
+					- off));
+		}
+		compressed.close();
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return The number of decompressed bytes
+	 */
+	private static long decompress(byte[] data) throws IOException {
+		InputStream in = Compression.decompress(new ByteArrayInputStream(data));
+		byte[] block = new byte[BLOCK_SIZE];
+		long total = 0;
+		int read;
+		while ((read = in.read(block, 0, block.length)) >= 0) {
+			total += read;
+		}
+		in.close();
+		return total;
+	}
+
+}
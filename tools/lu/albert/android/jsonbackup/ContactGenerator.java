@@ -0,0 +1,372 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates realistic synthetic contacts, for load-testing backups and
+ * restores with address books of any size. All fields of the backup schema
+ * are filled in. The same seed and settings always produce the same
+ * contacts.
+ *
+ * The generator is itself a {@link ContactSource}: contacts are created
+ * when they are read, so a backup file of several GB can be written with
+ * {@link #write(OutputStream, ContactCodec)} without holding the contacts
+ * in memory. Use {@link #toMemorySource()} to fill a
+ * {@link MemoryContactSource} instead.
+ *
+ * Counts and lengths are drawn from an exponential distribution with the
+ * configured mean, capped at the configured maximum, so most contacts are
+ * small and a few are very large, as in real address books.
+ *
+ * This is a development tool: it lives outside the application's source
+ * tree, the application never uses it and it is not part of the APK. It
+ * builds on the backup classes, which do not depend on the Android platform
+ * apart from logging, so it is compiled against the application sources.
+ * On a JVM, {@link #main} writes a backup file:
+ *
+ * <pre>
+ * javac -encoding UTF-8 -cp android.jar -sourcepath src -d /tmp/tools \
+ *     tools/lu/albert/android/jsonbackup/ContactGenerator.java
+ * java -cp /tmp/tools:android.jar lu.albert.android.jsonbackup.ContactGenerator contacts.json 30000 42
+ * </pre>
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class ContactGenerator implements ContactSource {
+
+	/* Name parts in several scripts, picked according to the Unicode mix */
+	private static final String[] ASCII_FIRST = { "John", "Mary", "Paul",
+			"Anne", "Michel", "Laura", "Tom", "Sarah", "David", "Emma" };
+	private static final String[] ASCII_LAST = { "Smith", "Muller",
+			"Schmit", "Weber", "Wagner", "Hoffmann", "Martin", "Klein" };
+	private static final String[] UNICODE_FIRST = { "Zoë", "Jérôme",
+			"Björn", "Łukasz", "Αλέξανδρος", "Дмитрий", "美咲", "محمد", "Søren",
+			"Ångström 😀" };
+	private static final String[] UNICODE_LAST = { "Müller", "Gaëlle",
+			"Nørgaard", "Παπαδόπουλος", "Иванов", "山田", "حداد", "Öztürk" };
+	private static final String[] COMPANIES = { "Acme", "Globex", "Initech",
+			"Umbrella", "Stark Industries", "Wayne Enterprises" };
+	private static final String[] TITLES = { "Engineer", "Manager",
+			"Director", "Consultant", "Accountant", "Designer" };
+	private static final String WORDS = "lorem ipsum dolor sit amet "
+			+ "consectetur adipiscing elit sed do eiusmod tempor incididunt "
+			+ "ut labore et dolore magna aliqua ";
+
+	/* Kinds and types as defined by android.provider.Contacts */
+	private static final String KIND_EMAIL = "1";
+	private static final String KIND_POSTAL = "2";
+	private static final String KIND_IM = "3";
+	private static final int TYPE_CUSTOM = 0;
+
+	private long mSeed;
+	private int mCount;
+	private Random mRandom;
+	private int mNext;
+
+	private int mMeanPhones = 2;
+	private int mMaxPhones = 10;
+	private int mMeanContactMethods = 2;
+	private int mMaxContactMethods = 10;
+	private int mMeanOrganizations = 1;
+	private int mMaxOrganizations = 5;
+	private int mMeanNotesLength = 200;
+	private int mMaxNotesLength = 8192;
+	private float mUnicodeRatio = 0.2f;
+	private float mPhotoRatio = 0.3f;
+	private int mMeanPhotoSize = 20 * 1024;
+	private int mMaxPhotoSize = 100 * 1024;
+
+	/**
+	 * Constructor
+	 *
+	 * @param seed
+	 *            The seed of the random generator
+	 * @param count
+	 *            The number of contacts to generate
+	 */
+	ContactGenerator(long seed, int count) {
+		mSeed = seed;
+		mCount = count;
+		reset();
+	}
+
+	/**
+	 * Start over with the first contact
+	 */
+	void reset() {
+		mRandom = new Random(mSeed);
+		mNext = 0;
+	}
+
+	/**
+	 * @param mean
+	 *            The mean number of phone numbers per contact
+	 * @param max
+	 *            The maximum number of phone numbers per contact
+	 */
+	void setPhones(int mean, int max) {
+		mMeanPhones = mean;
+		mMaxPhones = max;
+	}
+
+	/**
+	 * @param mean
+	 *            The mean number of e-mail, postal and IM addresses per
+	 *            contact
+	 * @param max
+	 *            The maximum number of addresses per contact
+	 */
+	void setContactMethods(int mean, int max) {
+		mMeanContactMethods = mean;
+		mMaxContactMethods = max;
+	}
+
+	/**
+	 * @param mean
+	 *            The mean number of organizations per contact
+	 * @param max
+	 *            The maximum number of organizations per contact
+	 */
+	void setOrganizations(int mean, int max) {
+		mMeanOrganizations = mean;
+		mMaxOrganizations = max;
+	}
+
+	/**
+	 * @param mean
+	 *            The mean length of the notes (characters)
+	 * @param max
+	 *            The maximum length of the notes (characters)
+	 */
+	void setNotesLength(int mean, int max) {
+		mMeanNotesLength = mean;
+		mMaxNotesLength = max;
+	}
+
+	/**
+	 * @param ratio
+	 *            The share of contacts with non-ASCII names and notes, from
+	 *            0 to 1. They include accented Latin, Greek, Cyrillic, CJK
+	 *            and Arabic characters, and characters outside of the Basic
+	 *            Multilingual Plane.
+	 */
+	void setUnicodeRatio(float ratio) {
+		mUnicodeRatio = ratio;
+	}
+
+	/**
+	 * @param ratio
+	 *            The share of contacts with a photo, from 0 to 1
+	 * @param meanSize
+	 *            The mean photo size (bytes)
+	 * @param maxSize
+	 *            The maximum photo size (bytes)
+	 */
+	void setPhotos(float ratio, int meanSize, int maxSize) {
+		mPhotoRatio = ratio;
+		mMeanPhotoSize = meanSize;
+		mMaxPhotoSize = maxSize;
+	}
+
+	public int getCount() {
+		return mCount;
+	}
+
+	public Contact next() {
+		if (mNext >= mCount) {
+			return null;
+		}
+		mNext++;
+		Random random = mRandom;
+		boolean unicode = random.nextFloat() < mUnicodeRatio;
+
+		Contact contact = new Contact();
+		contact.id = mNext;
+		String first = pick(unicode ? UNICODE_FIRST : ASCII_FIRST);
+		String last = pick(unicode ? UNICODE_LAST : ASCII_LAST);
+		contact.name = first + " " + last;
+		contact.displayName = contact.name;
+		contact.phoneticName = random.nextInt(4) == 0 ? last.toUpperCase()
+				: null;
+		contact.notes = text(sample(mMeanNotesLength, mMaxNotesLength),
+				unicode);
+		contact.customRingTone = random.nextInt(10) == 0 ? "content://media/internal/audio/media/"
+				+ random.nextInt(100)
+				: null;
+		contact.lastTimeContacted = String.valueOf(1262304000000L
+				+ (long) (random.nextDouble() * 300000000000L));
+		contact.sendToVoicemail = random.nextInt(50) == 0 ? "1" : "0";
+		contact.starred = random.nextInt(10) == 0 ? "1" : "0";
+		contact.timesContacted = String.valueOf(sample(5, 1000));
+
+		int phones = sample(mMeanPhones, mMaxPhones);
+		for (int i = 0; i < phones; i++) {
+			Contact.Phone phone = new Contact.Phone();
+			phone.isPrimary = (i == 0);
+			phone.type = String.valueOf(1 + random.nextInt(7));
+			if (random.nextInt(10) == 0) {
+				phone.type = String.valueOf(TYPE_CUSTOM);
+				phone.label = pick(TITLES);
+			}
+			phone.number = "+352 " + (100000 + random.nextInt(900000));
+			phone.numberKey = new StringBuilder(phone.number.replaceAll(
+					"[^0-9]", "")).reverse().toString();
+			contact.phones.add(phone);
+		}
+
+		int methods = sample(mMeanContactMethods, mMaxContactMethods);
+		for (int i = 0; i < methods; i++) {
+			Contact.ContactMethod method = new Contact.ContactMethod();
+			method.isPrimary = (i == 0);
+			method.type = String.valueOf(1 + random.nextInt(3));
+			int kind = random.nextInt(3);
+			if (kind == 0) {
+				method.kind = KIND_EMAIL;
+				method.data = "contact" + contact.id + "." + i + "@example.com";
+			} else if (kind == 1) {
+				method.kind = KIND_POSTAL;
+				method.data = (1 + random.nextInt(200)) + ", rue "
+						+ pick(unicode ? UNICODE_LAST : ASCII_LAST)
+						+ "\nL-" + (1000 + random.nextInt(9000))
+						+ " Luxembourg";
+			} else {
+				method.kind = KIND_IM;
+				method.data = "im" + contact.id + "_" + i;
+				method.auxData = "pre:" + random.nextInt(8);
+			}
+			contact.contactMethods.add(method);
+		}
+
+		int organizations = sample(mMeanOrganizations, mMaxOrganizations);
+		for (int i = 0; i < organizations; i++) {
+			Contact.Organization org = new Contact.Organization();
+			org.isPrimary = (i == 0);
+			org.company = pick(COMPANIES);
+			org.title = pick(TITLES);
+			org.type = String.valueOf(1 + random.nextInt(2));
+			contact.organizations.add(org);
+		}
+
+		if (random.nextFloat() < mPhotoRatio) {
+			/* Random bytes do not compress, just like JPEG data */
+			byte[] photo = new byte[Math.max(1, sample(mMeanPhotoSize,
+					mMaxPhotoSize))];
+			random.nextBytes(photo);
+			contact.photos.add(photo);
+		}
+		return contact;
+	}
+
+	public void close() {
+		// nothing to release
+	}
+
+	/**
+	 * Generate all remaining contacts into a memory source
+	 *
+	 * @return The source
+	 */
+	MemoryContactSource toMemorySource() {
+		List<Contact> contacts = new ArrayList<Contact>(mCount - mNext);
+		Contact contact;
+		while ((contact = next()) != null) {
+			contacts.add(contact);
+		}
+		return new MemoryContactSource(contacts);
+	}
+
+	/**
+	 * Write all remaining contacts as a backup file. Contacts are generated
+	 * and written one at a time.
+	 *
+	 * @param stream
+	 *            The destination. It is closed when done.
+	 * @param codec
+	 *            The codec of the file
+	 * @return The number of contacts written
+	 * @throws IOException
+	 *             when the file cannot be written
+	 */
+	int write(OutputStream stream, ContactCodec codec) throws IOException {
+		RecordWriter out = codec.newWriter(new BudgetedOutputStream(stream,
+				BudgetedOutputStream.DEFAULT_BUDGET, new RunStats("generate")));
+		int written = new SequentialBackup(this, new ProgressListener() {
+			public void onProgress(int position, int total, String label) {
+				// not reported
+			}
+		}).write(out);
+		out.close();
+		return written;
+	}
+
+	/**
+	 * Write a JSON backup file with generated contacts, using the default
+	 * settings.
+	 *
+	 * @param args
+	 *            The file name, the number of contacts and optionally the
+	 *            seed
+	 * @throws IOException
+	 *             when the file cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: ContactGenerator <file> <count> [seed]");
+			System.exit(1);
+		}
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+		ContactGenerator generator = new ContactGenerator(seed, Integer
+				.parseInt(args[1]));
+		ContactCodec codec = ContactCodec.create(ContactCodec.JSON,
+				BackupThread.PROFILE_PRETTY, null, new RunStats("generate"));
+		generator.write(new FileOutputStream(new File(args[0])), codec);
+	}
+
+	/**
+	 * @return A number drawn from an exponential distribution with the
+	 *         given mean, capped at max
+	 */
+	private int sample(int mean, int max) {
+		if (mean <= 0) {
+			return 0;
+		}
+		double value = -mean * Math.log(1 - mRandom.nextDouble());
+		return (int) Math.min(max, Math.round(value));
+	}
+
+	private String pick(String[] values) {
+		return values[mRandom.nextInt(values.length)];
+	}
+
+	/**
+	 * @return Text of the given length, made of words and, if unicode is
+	 *         true, some non-ASCII names
+	 */
+	private String text(int length, boolean unicode) {
+		if (length == 0) {
+			return null;
+		}
+		StringBuilder text = new StringBuilder(length + 16);
+		while (text.length() < length) {
+			if (unicode && mRandom.nextInt(8) == 0) {
+				text.append(pick(UNICODE_FIRST)).append(' ');
+			} else {
+				int start = mRandom.nextInt(WORDS.length() - 12);
+				text.append(WORDS, start, start + 12);
+			}
+		}
+		text.setLength(length);
+		/* Do not cut a surrogate pair in half */
+		if (Character.isHighSurrogate(text.charAt(length - 1))) {
+			text.setLength(length - 1);
+		}
+		return text.toString();
+	}
+
+}
@@ -0,0 +1,153 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Measures the file size, the backup time and the restore time of each
+ * output profile of the JSON codec ({@link BackupThread#PROFILE_PRETTY},
+ * {@link BackupThread#PROFILE_COMPACT} and
+ * {@link BackupThread#PROFILE_SHORT_KEYS}), so the savings of the smaller
+ * profiles can be read from numbers rather than assumed.
+ *
+ * The contacts come from a {@link ContactGenerator} with a fixed seed and
+ * are generated into memory before each run, so generating them is not
+ * timed. By default they have no photos: a photo adds the same Base64 text
+ * to every profile and would only dilute the differences.
+ *
+ * Each run writes the backup with {@link SequentialBackup} through a
+ * {@link BudgetedOutputStream} into a temporary file, as the application
+ * does, then reads it back with {@link SequentialRestore} into a sink which
+ * discards the contacts. The first run of each profile warms the VM up and
+ * is not reported; of the remaining runs, the fastest is shown.
+ *
+ * This is a development tool: it lives outside the application's source
+ * tree and is not part of the APK. Compile it against the application
+ * sources:
+ *
+ * <pre>
+ * javac -encoding UTF-8 -cp android.jar -sourcepath src:tools -d /tmp/tools \
+ *     tools/lu/albert/android/jsonbackup/ProfileBenchmark.java
+ * java -cp /tmp/tools:android.jar lu.albert.android.jsonbackup.ProfileBenchmark [contacts] [runs] [photo ratio]
+ * </pre>
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class ProfileBenchmark {
+
+	static final int DEFAULT_CONTACTS = 50000;
+	static final int DEFAULT_RUNS = 3;
+
+	/** The names of the profiles, indexed by the BackupThread.PROFILE_* value */
+	private static final String[] PROFILE_NAMES = { "pretty", "compact",
+			"short keys" };
+
+	private static final ProgressListener QUIET = new ProgressListener() {
+		public void onProgress(int position, int total, String label) {
+			// not shown
+		}
+	};
+
+	/**
+	 * Run each profile and print one line per profile
+	 *
+	 * @param args
+	 *            Optionally the number of contacts, the number of measured
+	 *            runs and the ratio of contacts with a photo
+	 * @throws IOException
+	 *             when the backup file cannot be written or read
+	 */
+	public static void main(String[] args) throws IOException {
+		int count = args.length > 0 ? Integer.parseInt(args[0])
+				: DEFAULT_CONTACTS;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_RUNS;
+		float photos = args.length > 2 ? Float.parseFloat(args[2]) : 0;
+
+		ContactGenerator generator = new ContactGenerator(42, count);
+		generator.setPhotos(photos, 20 * 1024, 100 * 1024);
+		File file = File.createTempFile("profile", ".json");
+		file.deleteOnExit();
+
+		System.out.println(String.format(
+				"%-12s %10s %6s %9s %10s %10s %9s %9s", "profile", "KB",
+				"size", "B/contact", "backup ms", "restore ms", "backup/s",
+				"restore/s"));
+		long baseline = 0;
+		for (int profile = 0; profile < PROFILE_NAMES.length; profile++) {
+			double backup = Double.MAX_VALUE;
+			double restore = Double.MAX_VALUE;
+			for (int run = 0; run <= runs; run++) {
+				generator.reset();
+				MemoryContactSource source = generator.toMemorySource();
+				System.gc();
+
+				long start = System.nanoTime();
+				backup(source, profile, file);
+				double backupMillis = (System.nanoTime() - start) / 1e6;
+
+				start = System.nanoTime();
+				int restored = restore(file);
+				double restoreMillis = (System.nanoTime() - start) / 1e6;
+				if (restored != count) {
+					throw new IOException("Restored " + restored + " of "
+							+ count + " contacts");
+				}
+				if (run > 0) {
+					backup = Math.min(backup, backupMillis);
+					restore = Math.min(restore, restoreMillis);
+				}
+			}
+
+			long size = file.length();
+			if (profile == BackupThread.PROFILE_PRETTY) {
+				baseline = size;
+			}
+			System.out.println(String.format(
+					"%-12s %10d %5.0f%% %9d %10.0f %10.0f %9.0f %9.0f",
+					PROFILE_NAMES[profile], size / 1024, 100.0 * size
+							/ baseline, size / count, backup, restore, count
+							/ backup * 1000, count / restore * 1000));
+		}
+		file.delete();
+	}
+
+	/**
+	 * Write a backup file the way BackupThread does
+	 */
+	private static void backup(ContactSource source, int profile, File file)
+			throws IOException {
+		RunStats stats = new RunStats("backup");
+		RecordWriter out = ContactCodec.create(ContactCodec.JSON, profile,
+				null, stats).newWriter(
+				new BudgetedOutputStream(new FileOutputStream(file),
+						BudgetedOutputStream.DEFAULT_BUDGET, stats));
+		new SequentialBackup(source, QUIET).write(out);
+		out.close();
+	}
+
+	/**
+	 * Read a backup file, discarding the contacts
+	 *
+	 * @return The number of contacts read
+	 */
+	private static int restore(File file) throws IOException {
+		SequentialRestore restore = new SequentialRestore(new ContactSink() {
+			public void store(Contact contact) {
+				// discarded
+			}
+
+			public void delete(long id) {
+				// nothing to delete
+			}
+
+			public void close() {
+				// nothing to release
+			}
+		}, QUIET, new RunStats("restore"));
+		restore.setReuseContacts(true);
+		return restore.restore(new FileInputStream(file), file.length());
+	}
+
+}
@@ -0,0 +1,372 @@
+package lu.albert.android.jsonbackup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Counts the provider queries of a backup and measures its wall-clock time,
+ * with the sub-tables read once per contact and with the sub-tables
+ * merge-joined with the People table (see {@link GroupedCursor}).
+ *
+ * The contact provider cannot run on a JVM, so the backup reads from a
+ * stand-in provider instead. It holds the People table and the four
+ * sub-tables (phones, contact methods, organizations and photos), filled
+ * from the contacts of a {@link MemoryContactSource}, and it answers every
+ * query after a fixed latency, like the IPC round trip to the real provider.
+ * A latency per returned row can be added as well. The latency is spent
+ * waiting on the CPU, which is more accurate than sleeping. The two ways of
+ * reading it are:
+ *
+ * <ul>
+ * <li>per contact: one People query, then one query per sub-table and
+ * contact, filtered on the person ID (4N + 1 queries)</li>
+ * <li>merge-join: one query per table, sorted by the person ID, walked in
+ * lock-step with the People rows (5 queries)</li>
+ * </ul>
+ *
+ * Both run through {@link SequentialBackup} into the JSON codec, and the
+ * checksum of the written backup must match between them. Each case runs
+ * once, since its time is dominated by the simulated latency.
+ *
+ * This is a development tool: it lives outside the application's source
+ * tree and is not part of the APK. Compile it against the application
+ * sources:
+ *
+ * <pre>
+ * javac -encoding UTF-8 -cp android.jar -sourcepath src:tools -d /tmp/tools \
+ *     tools/lu/albert/android/jsonbackup/QueryBenchmark.java
+ * java -cp /tmp/tools:android.jar lu.albert.android.jsonbackup.QueryBenchmark [contacts] [row latency us]
+ * </pre>
+ *
+ * @author Michel Albert <michel.albert@statec.etat.lu>
+ */
+class QueryBenchmark {
+
+	/** The query latencies each strategy is run with (microseconds) */
+	static final long[] QUERY_LATENCIES = { 0, 250, 1000 };
+
+	static final int DEFAULT_CONTACTS = 1000;
+
+	/* The sub-tables of the stand-in provider */
+	private static final int PHONES = 0;
+	private static final int CONTACT_METHODS = 1;
+	private static final int ORGANIZATIONS = 2;
+	private static final int PHOTOS = 3;
+	private static final String[] TABLE_NAMES = { "phones",
+			"contact_methods", "organizations", "photos" };
+
+	/**
+	 * Run both strategies with each query latency and print one line per
+	 * case
+	 *
+	 * @param args
+	 *            Optionally the number of contacts, and the latency per
+	 *            returned row (microseconds)
+	 * @throws IOException
+	 *             when the backup fails
+	 */
+	public static void main(String[] args) throws IOException {
+		int count = args.length > 0 ? Integer.parseInt(args[0])
+				: DEFAULT_CONTACTS;
+		long rowLatency = args.length > 1 ? Long.parseLong(args[1]) : 0;
+		Provider provider = new Provider(new ContactGenerator(42, count)
+				.toMemorySource(), rowLatency);
+
+		System.out.println(String.format("%-12s %9s %8s %8s %10s %10s %10s",
+				"strategy", "query us", "queries", "rows", "ms",
+				"contacts/s", "crc"));
+		for (long latency : QUERY_LATENCIES) {
+			provider.setQueryLatency(latency);
+			long expected = -1;
+			for (int merge = 0; merge <= 1; merge++) {
+				provider.resetCounters();
+				ContactSource source = merge == 1 ? new MergeJoinSource(
+						provider) : new PerContactSource(provider);
+				Checksum out = new Checksum();
+				ContactCodec codec = ContactCodec.create(ContactCodec.JSON,
+						BackupThread.PROFILE_COMPACT, null, new RunStats(
+								"benchmark"));
+				long start = System.nanoTime();
+				RecordWriter writer = codec.newWriter(out);
+				int written = new SequentialBackup(source,
+						new ProgressListener() {
+							public void onProgress(int position, int total,
+									String label) {
+								// not shown
+							}
+						}).write(writer);
+				writer.close();
+				double millis = (System.nanoTime() - start) / 1e6;
+
+				long crc = out.mCrc.getValue();
+				if (expected >= 0 && crc != expected) {
+					throw new IOException(
+							"The strategies wrote different backups");
+				}
+				expected = crc;
+				System.out.println(String.format(
+						"%-12s %9d %8d %8d %10.1f %10.0f %10x",
+						merge == 1 ? "merge-join" : "per contact", latency,
+						provider.mQueries, provider.mRows, millis, written
+								/ millis * 1000, crc));
+			}
+		}
+	}
+
+	/**
+	 * Copy the People columns of a contact, without its sub-table rows
+	 */
+	private static Contact person(Contact contact) {
+		Contact person = new Contact();
+		person.id = contact.id;
+		person.name = contact.name;
+		person.customRingTone = contact.customRingTone;
+		person.displayName = contact.displayName;
+		person.lastTimeContacted = contact.lastTimeContacted;
+		person.notes = contact.notes;
+		person.phoneticName = contact.phoneticName;
+		person.sendToVoicemail = contact.sendToVoicemail;
+		person.starred = contact.starred;
+		person.timesContacted = contact.timesContacted;
+		return person;
+	}
+
+	/**
+	 * Add a sub-table row to the contact it belongs to
+	 */
+	private static void add(Contact contact, int table, Object value) {
+		switch (table) {
+		case PHONES:
+			contact.phones.add((Contact.Phone) value);
+			break;
+		case CONTACT_METHODS:
+			contact.contactMethods.add((Contact.ContactMethod) value);
+			break;
+		case ORGANIZATIONS:
+			contact.organizations.add((Contact.Organization) value);
+			break;
+		default:
+			contact.photos.add((byte[]) value);
+			break;
+		}
+	}
+
+	/**
+	 * The stand-in for the contact provider. The tables are kept sorted by
+	 * the person ID, and indexed on it, so only the simulated latency
+	 * depends on how they are queried.
+	 */
+	private static class Provider {
+
+		private List<Contact> mPeople = new ArrayList<Contact>();
+		private List<List<Row>> mTables = new ArrayList<List<Row>>();
+		private List<HashMap<Long, List<Row>>> mByPerson;
+		private long mQueryLatency;
+		private long mRowLatency;
+
+		int mQueries;
+		int mRows;
+
+		Provider(MemoryContactSource source, long rowLatency)
+				throws IOException {
+			mRowLatency = rowLatency;
+			mByPerson = new ArrayList<HashMap<Long, List<Row>>>();
+			for (int i = 0; i < TABLE_NAMES.length; i++) {
+				mTables.add(new ArrayList<Row>());
+				mByPerson.add(new HashMap<Long, List<Row>>());
+			}
+			Contact contact;
+			while ((contact = source.next()) != null) {
+				mPeople.add(person(contact));
+				insert(PHONES, contact.id, contact.phones);
+				insert(CONTACT_METHODS, contact.id, contact.contactMethods);
+				insert(ORGANIZATIONS, contact.id, contact.organizations);
+				insert(PHOTOS, contact.id, contact.photos);
+			}
+			source.close();
+		}
+
+		private void insert(int table, long personId, List<?> values) {
+			List<Row> rows = new ArrayList<Row>(values.size());
+			for (Object value : values) {
+				rows.add(new Row(personId, value));
+			}
+			mTables.get(table).addAll(rows);
+			mByPerson.get(table).put(personId, rows);
+		}
+
+		void setQueryLatency(long micros) {
+			mQueryLatency = micros;
+		}
+
+		void resetCounters() {
+			mQueries = 0;
+			mRows = 0;
+		}
+
+		/**
+		 * @return All People rows, sorted by ID
+		 */
+		List<Contact> queryPeople() {
+			return answer(mPeople);
+		}
+
+		/**
+		 * @return All rows of a sub-table, sorted by the person ID
+		 */
+		List<Row> query(int table) {
+			return answer(mTables.get(table));
+		}
+
+		/**
+		 * @return The rows of a sub-table which belong to one person
+		 */
+		List<Row> query(int table, long personId) {
+			List<Row> rows = mByPerson.get(table).get(personId);
+			return answer(rows != null ? rows : new ArrayList<Row>());
+		}
+
+		private <T> List<T> answer(List<T> rows) {
+			mQueries++;
+			mRows += rows.size();
+			spin(mQueryLatency + mRowLatency * rows.size());
+			return rows;
+		}
+
+		/**
+		 * Wait for the given time. Unlike {@link MemoryContactSource#delay},
+		 * this does not sleep, since sleeping is only accurate to about a
+		 * millisecond.
+		 */
+		private static void spin(long micros) {
+			long end = System.nanoTime() + micros * 1000;
+			while (System.nanoTime() < end) {
+				// wait
+			}
+		}
+
+	}
+
+	/**
+	 * A sub-table row
+	 */
+	private static class Row {
+
+		final long mPersonId;
+		final Object mValue;
+
+		Row(long personId, Object value) {
+			mPersonId = personId;
+			mValue = value;
+		}
+
+	}
+
+	/**
+	 * Queries the sub-tables once for each contact
+	 */
+	private static class PerContactSource implements ContactSource {
+
+		private Provider mProvider;
+		private List<Contact> mPeople;
+		private int mNext;
+
+		PerContactSource(Provider provider) {
+			mProvider = provider;
+			mPeople = provider.queryPeople();
+		}
+
+		public int getCount() {
+			return mPeople.size();
+		}
+
+		public Contact next() throws IOException {
+			if (mNext >= mPeople.size()) {
+				return null;
+			}
+			Contact contact = person(mPeople.get(mNext++));
+			for (int table = 0; table < TABLE_NAMES.length; table++) {
+				for (Row row : mProvider.query(table, contact.id)) {
+					add(contact, table, row.mValue);
+				}
+			}
+			return contact;
+		}
+
+		public void close() {
+			// nothing to release
+		}
+
+	}
+
+	/**
+	 * Queries each table once and walks the sub-tables in lock-step with
+	 * the People rows, like {@link GroupedCursor}
+	 */
+	private static class MergeJoinSource implements ContactSource {
+
+		private List<Contact> mPeople;
+		private List<List<Row>> mTables = new ArrayList<List<Row>>();
+		private int[] mPositions = new int[TABLE_NAMES.length];
+		private int mNext;
+
+		MergeJoinSource(Provider provider) {
+			mPeople = provider.queryPeople();
+			for (int table = 0; table < TABLE_NAMES.length; table++) {
+				mTables.add(provider.query(table));
+			}
+		}
+
+		public int getCount() {
+			return mPeople.size();
+		}
+
+		public Contact next() {
+			if (mNext >= mPeople.size()) {
+				return null;
+			}
+			Contact contact = person(mPeople.get(mNext++));
+			for (int table = 0; table < TABLE_NAMES.length; table++) {
+				List<Row> rows = mTables.get(table);
+				int position = mPositions[table];
+				while (position < rows.size()
+						&& rows.get(position).mPersonId < contact.id) {
+					position++;
+				}
+				while (position < rows.size()
+						&& rows.get(position).mPersonId == contact.id) {
+					add(contact, table, rows.get(position++).mValue);
+				}
+				mPositions[table] = position;
+			}
+			return contact;
+		}
+
+		public void close() {
+			// nothing to release
+		}
+
+	}
+
+	/**
+	 * Discards the backup, keeping only its checksum
+	 */
+	private static class Checksum extends OutputStream {
+
+		final CRC32 mCrc = new CRC32();
+
+		public void write(int b) {
+			mCrc.update(b);
+		}
+
+		public void write(byte[] b, int off, int len) {
+			mCrc.update(b, off, len);
+		}
+
+	}
+
+}